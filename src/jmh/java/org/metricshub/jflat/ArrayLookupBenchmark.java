@@ -0,0 +1,47 @@
+package org.metricshub.jflat;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CSV conversion of documents with more and more arrays
+ * <p>
+ * The time must grow linearly with the number of arrays: 8 times more arrays take about 8 times longer
+ * (64 times if the length of each array was looked up with a linear scan of all the arrays).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArrayLookupBenchmark {
+
+	@Param({ "4000", "32000" })
+	public int arrayCount;
+
+	private JFlat jFlat;
+
+	@Setup
+	public void setup() throws ParseException, IOException {
+		jFlat = new JFlat(Documents.items(arrayCount));
+		jFlat.parse();
+	}
+
+	@Benchmark
+	public StringBuilder toCSV() {
+		return jFlat.toCSV("/items/values", new String[] { ".", "../id" }, null);
+	}
+}
@@ -0,0 +1,69 @@
+package org.metricshub.jflat;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Polling workload: comparison of two versions of a large document where a single value changed,
+ * with and without the hashes of the subtrees (and the cost of computing them while parsing).
+ * The value is either in one of the 100,000 records of a large array, or next to that array (a timestamp).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffBenchmark {
+
+	@Param({ "record", "timestamp" })
+	public String change;
+
+	@Param({ "false", "true" })
+	public boolean hashes;
+
+	private String json;
+	private JFlat before;
+	private JFlat after;
+
+	@Setup
+	public void setup() throws ParseException, IOException {
+		json = "{\"records\":" + Documents.array(100000) + ",\"timestamp\":1}";
+		before = parse(json);
+		if ("record".equals(change)) {
+			after = parse(json.replaceFirst("\"item500\"", "\"renamed\""));
+		} else {
+			after = parse(json.replaceFirst("\"timestamp\":1", "\"timestamp\":2"));
+		}
+	}
+
+	private JFlat parse(String source) throws ParseException, IOException {
+		JFlat jFlat = new JFlat(source);
+		jFlat.setSubtreeHashes(hashes);
+		jFlat.parseStream();
+		return jFlat;
+	}
+
+	@Benchmark
+	public void compare(Blackhole blackhole) throws IOException {
+		JFlatDiff.compare(before, after, (change, key, oldValue, newValue) -> blackhole.consume(key));
+	}
+
+	@Benchmark
+	public JFlat parseStream() throws ParseException, IOException {
+		return parse(json);
+	}
+}
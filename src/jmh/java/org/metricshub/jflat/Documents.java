@@ -0,0 +1,111 @@
+package org.metricshub.jflat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+
+/**
+ * JSON documents for the benchmarks: the test fixtures, and synthetic documents of various shapes
+ */
+final class Documents {
+
+	private Documents() {}
+
+	/**
+	 * Get a document by its name
+	 *
+	 * @param name simple, complex or large (the test fixtures), deep, wide or array (generated)
+	 * @return The JSON source
+	 */
+	static String get(String name) {
+		switch (name) {
+			case "deep":
+				return deep(500);
+			case "wide":
+				return wide(20000);
+			case "array":
+				return array(100000);
+			default:
+				return resource("/" + name + ".json");
+		}
+	}
+
+	/**
+	 * @param depth Number of nested levels
+	 * @return Objects and arrays nested in each other: {"level0":[{"id":0,"level1":[{"id":1,...}]}]}
+	 */
+	static String deep(int depth) {
+		StringBuilder json = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			json.append("{\"id\":").append(i).append(",\"level").append(i).append("\":[");
+		}
+		json.append("\"bottom\"");
+		for (int i = 0; i < depth; i++) {
+			json.append("]}");
+		}
+		return json.toString();
+	}
+
+	/**
+	 * @param width Number of properties
+	 * @return One object with many properties: {"property0":"value0","property1":1,...}
+	 */
+	static String wide(int width) {
+		StringBuilder json = new StringBuilder("{");
+		for (int i = 0; i < width; i++) {
+			json.append(i > 0 ? "," : "").append("\"property").append(i).append("\":");
+			if (i % 2 == 0) {
+				json.append("\"value").append(i).append('"');
+			} else {
+				json.append(i);
+			}
+		}
+		return json.append('}').toString();
+	}
+
+	/**
+	 * @param length Number of entries
+	 * @return A root array of records: [{"id":0,"name":"item0","value":0.5,"up":true,"tags":["a","b"],...},...]
+	 */
+	static String array(int length) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < length; i++) {
+			json.append(i > 0 ? "," : "").append("{\"id\":").append(i).append(",\"name\":\"item").append(i).append('"');
+			json.append(",\"value\":").append(i).append(".5,\"up\":").append(i % 3 != 0);
+			json.append(",\"tags\":[\"a\",\"b\"],\"parent\":{\"id\":").append(i / 10).append("}}");
+		}
+		return json.append(']').toString();
+	}
+
+	/**
+	 * @param count Number of entries, each with an array
+	 * @return An object with an array of records that have an array each: {"items":[{"id":0,"values":[0]},...]}
+	 */
+	static String items(int count) {
+		StringBuilder json = new StringBuilder("{\"items\":[");
+		for (int i = 0; i < count; i++) {
+			json.append(i > 0 ? "," : "").append("{\"id\":").append(i).append(",\"values\":[").append(i).append("]}");
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * @param path Path of the resource in the classpath
+	 * @return The content of the resource
+	 */
+	private static String resource(String path) {
+		InputStream in = Documents.class.getResourceAsStream(path);
+		if (in == null) {
+			throw new IllegalArgumentException("Unknown document: " + path);
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			return reader.lines().collect(Collectors.joining("\n"));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
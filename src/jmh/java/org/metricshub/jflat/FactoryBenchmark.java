@@ -0,0 +1,102 @@
+package org.metricshub.jflat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonStructure;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of looking up the JSON provider for each document (Json.createReader()), compared to JFlat,
+ * which looks it up only once, on small payloads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FactoryBenchmark {
+
+	@Param({ "simple" })
+	public String document;
+
+	private static final JsonReaderFactory READER_FACTORY = Json.createReaderFactory(null);
+	private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+	private String json;
+
+	@Setup
+	public void setup() {
+		json = Documents.get(document);
+	}
+
+	/**
+	 * What parse() used to do: a provider lookup for each document
+	 */
+	@Benchmark
+	public JsonStructure readWithProviderLookup() {
+		try (JsonReader reader = Json.createReader(new StringReader(json))) {
+			return reader.read();
+		}
+	}
+
+	/**
+	 * What parseStream() used to do: a provider lookup for each document
+	 */
+	@Benchmark
+	public void streamWithProviderLookup(Blackhole blackhole) {
+		try (JsonParser parser = Json.createParser(new StringReader(json))) {
+			while (parser.hasNext()) {
+				blackhole.consume(parser.next());
+			}
+		}
+	}
+
+	@Benchmark
+	public JsonStructure readWithCachedFactory() {
+		try (JsonReader reader = READER_FACTORY.createReader(new StringReader(json))) {
+			return reader.read();
+		}
+	}
+
+	@Benchmark
+	public void streamWithCachedFactory(Blackhole blackhole) {
+		try (JsonParser parser = PARSER_FACTORY.createParser(new StringReader(json))) {
+			while (parser.hasNext()) {
+				blackhole.consume(parser.next());
+			}
+		}
+	}
+
+	@Benchmark
+	public JFlat parse() throws ParseException, IOException {
+		JFlat jFlat = new JFlat(json);
+		jFlat.parse();
+		return jFlat;
+	}
+
+	@Benchmark
+	public JFlat parseStream() throws ParseException, IOException {
+		JFlat jFlat = new JFlat(json);
+		jFlat.parseStream();
+		return jFlat;
+	}
+}
@@ -0,0 +1,88 @@
+package org.metricshub.jflat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reloading a document that has already been parsed: parsing the JSON again, vs. opening the file written
+ * by {@link JFlatBinary}, then looking up a single value or converting it to CSV.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+	@Param({ "large", "array" })
+	public String document;
+
+	private String json;
+	private Path path;
+	private String key;
+	private CsvQuery query;
+
+	@Setup
+	public void setup() throws ParseException, IOException {
+		json = Documents.get(document);
+		JFlat jFlat = new JFlat(json);
+		jFlat.parseStream();
+		path = Files.createTempFile("jflat", ".bin");
+		JFlatBinary.write(jFlat, path);
+
+		// A key in the middle of the document
+		Iterator<Entry<String, String>> iterator = jFlat.getMap().iterator();
+		for (int i = 0; i < jFlat.getMap().size() / 2; i++) {
+			iterator.next();
+		}
+		key = iterator.next().getKey();
+		query = CsvQuery.compile("/", "id", "name");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.delete(path);
+	}
+
+	@Benchmark
+	public String parseAndGet() throws ParseException, IOException {
+		JFlat jFlat = new JFlat(json);
+		jFlat.parseStream();
+		return jFlat.getMap().get(key);
+	}
+
+	@Benchmark
+	public String openAndGet() throws IOException {
+		return JFlatBinary.open(path).get(key);
+	}
+
+	@Benchmark
+	public StringBuilder parseAndCsv() throws ParseException, IOException {
+		JFlat jFlat = new JFlat(json);
+		jFlat.parseStream();
+		return query.toCSV(jFlat, ";");
+	}
+
+	@Benchmark
+	public StringBuilder openAndCsv() throws IOException {
+		return query.toCSV(JFlatBinary.open(path), ";");
+	}
+}
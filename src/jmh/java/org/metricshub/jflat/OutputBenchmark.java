@@ -0,0 +1,122 @@
+package org.metricshub.jflat;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Conversion of a parsed document to the flat tree and to CSV
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+
+	/**
+	 * The documents, with a CSV extraction that makes sense for each of them
+	 */
+	@Param({ "simple", "complex", "large", "array" })
+	public String document;
+
+	@Param({ "TREE_MAP", "TRIE", "HASH" })
+	public FlatStorage storage;
+
+	private JFlat jFlat;
+	private String entryKey;
+	private String[] properties;
+	private CsvQuery query;
+
+	@Setup
+	public void setup() throws ParseException, IOException {
+		jFlat = new JFlat(Documents.get(document));
+		jFlat.setStorage(storage);
+		jFlat.parse();
+
+		switch (document) {
+			case "simple":
+				entryKey = "/arrayB";
+				properties = new String[] { "id", "../attribute1" };
+				break;
+			case "array":
+				entryKey = "/";
+				properties = new String[] { "id", "name", "value", "parent/id" };
+				break;
+			default:
+				// Every entry of every array of the first level
+				entryKey = "/";
+				properties = new String[] { "." };
+				break;
+		}
+		query = CsvQuery.compile(entryKey, properties);
+	}
+
+	@Benchmark
+	public StringBuilder getFlatTree() {
+		return jFlat.getFlatTree();
+	}
+
+	@Benchmark
+	public void writeFlatTree(Blackhole blackhole) throws IOException {
+		jFlat.writeFlatTree(new BlackholeAppendable(blackhole), "=", null);
+	}
+
+	@Benchmark
+	public StringBuilder toCSV() {
+		return jFlat.toCSV(entryKey, properties, ";");
+	}
+
+	@Benchmark
+	public StringBuilder queryToCSV() {
+		return query.toCSV(jFlat, ";");
+	}
+
+	@Benchmark
+	public void queryForEachRecord(Blackhole blackhole) throws IOException {
+		query.forEachRecord(jFlat, (key, values) -> blackhole.consume(values));
+	}
+
+	/**
+	 * Consumes what's written without storing it
+	 */
+	private static final class BlackholeAppendable implements Appendable {
+
+		private final Blackhole blackhole;
+
+		private BlackholeAppendable(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) {
+			blackhole.consume(csq);
+			return this;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) {
+			blackhole.consume(csq);
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) {
+			blackhole.consume(c);
+			return this;
+		}
+	}
+}
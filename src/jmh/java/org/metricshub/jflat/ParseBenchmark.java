@@ -0,0 +1,57 @@
+package org.metricshub.jflat;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of a JSON document into the flat map, with the tree or the streaming parser, and each storage
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({ "simple", "complex", "large", "deep", "wide", "array" })
+	public String document;
+
+	@Param({ "TREE_MAP", "TRIE", "HASH" })
+	public FlatStorage storage;
+
+	private String json;
+
+	@Setup
+	public void setup() {
+		json = Documents.get(document);
+	}
+
+	@Benchmark
+	public JFlat parse() throws ParseException, IOException {
+		JFlat jFlat = new JFlat(json);
+		jFlat.setStorage(storage);
+		jFlat.parse();
+		return jFlat;
+	}
+
+	@Benchmark
+	public JFlat parseStream() throws ParseException, IOException {
+		JFlat jFlat = new JFlat(json);
+		jFlat.setStorage(storage);
+		jFlat.parseStream();
+		return jFlat;
+	}
+}
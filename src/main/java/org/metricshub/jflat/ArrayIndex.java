@@ -0,0 +1,213 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Arrays;
+
+/**
+ * Index of the arrays found in a JSON document: path of the array and its length.
+ * <p>
+ * Paths are case iNsEnSiTiVe, like the keys of the flat map. The index is an open-addressing hash table
+ * whose hash is computed on the case-folded path, so that a lookup costs O(1) and never allocates.
+ * Lengths are stored as primitive ints.
+ */
+final class ArrayIndex {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private String[] paths = new String[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private int[] lengths = new int[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * Register an array
+	 * <p>
+	 * If an array has already been registered with the same path (ignoring case),
+	 * the first one is kept.
+	 *
+	 * @param path Path of the array
+	 * @param length Number of entries in the array
+	 */
+	void put(String path, int length) {
+		// Grow the table so that it's never more than half full
+		if (2 * (size + 1) > paths.length) {
+			resize(paths.length * 2);
+		}
+
+		int hash = hash(path);
+		int mask = paths.length - 1;
+		int slot = hash & mask;
+		while (paths[slot] != null) {
+			if (hashes[slot] == hash && paths[slot].equalsIgnoreCase(path)) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		paths[slot] = path;
+		hashes[slot] = hash;
+		lengths[slot] = length;
+		size++;
+	}
+
+	/**
+	 * Register all the arrays of another index
+	 * <p>
+	 * Like {@link #put(String, int)}, the arrays already registered here are kept.
+	 *
+	 * @param other The index to copy
+	 */
+	void putAll(ArrayIndex other) {
+		for (int i = 0; i < other.paths.length; i++) {
+			if (other.paths[i] != null) {
+				put(other.paths[i], other.lengths[i]);
+			}
+		}
+	}
+
+	/**
+	 * Get the length of the array at the specified path
+	 *
+	 * @param path Path of the array (case insensitive)
+	 * @return The length of the array, or 0 if there is no array at this path
+	 */
+	int getLength(String path) {
+		int hash = hash(path);
+		int mask = paths.length - 1;
+		int slot = hash & mask;
+		while (paths[slot] != null) {
+			if (hashes[slot] == hash && paths[slot].equalsIgnoreCase(path)) {
+				return lengths[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The paths of the arrays in the index, in no particular order
+	 */
+	String[] getPaths() {
+		String[] result = new String[size];
+		int count = 0;
+		for (String path : paths) {
+			if (path != null) {
+				result[count++] = path;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Remove the array at the specified path, and the arrays inside it
+	 * <p>
+	 * The whole table is scanned (and rebuilt when an array is removed).
+	 *
+	 * @param path Path of the value that contains the arrays (case sensitive)
+	 */
+	void removeSubtree(String path) {
+		int removed = 0;
+		for (int i = 0; i < paths.length; i++) {
+			if (paths[i] != null && JFlat.isInSubtree(paths[i], path)) {
+				paths[i] = null;
+				removed++;
+			}
+		}
+
+		// The arrays after a removed one may not be found anymore: rebuild the table
+		if (removed > 0) {
+			size -= removed;
+			resize(paths.length);
+		}
+	}
+
+	/**
+	 * Remove all the arrays
+	 */
+	void clear() {
+		Arrays.fill(paths, null);
+		size = 0;
+	}
+
+	/**
+	 * @return The number of arrays in the index
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Rebuild the table with the specified capacity
+	 *
+	 * @param capacity New capacity (a power of 2)
+	 */
+	private void resize(int capacity) {
+		String[] oldPaths = paths;
+		int[] oldHashes = hashes;
+		int[] oldLengths = lengths;
+
+		paths = new String[capacity];
+		hashes = new int[capacity];
+		lengths = new int[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldPaths.length; i++) {
+			if (oldPaths[i] != null) {
+				int slot = oldHashes[i] & mask;
+				while (paths[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				paths[slot] = oldPaths[i];
+				hashes[slot] = oldHashes[i];
+				lengths[slot] = oldLengths[i];
+			}
+		}
+	}
+
+	/**
+	 * Hash of the case-folded path, consistent with {@link String#equalsIgnoreCase(String)}
+	 *
+	 * @param path The path to hash
+	 * @return The hash code, spread so that the low bits can be used as a slot
+	 */
+	static int hash(CharSequence path) {
+		int h = 0;
+		for (int i = 0; i < path.length(); i++) {
+			h = 31 * h + fold(path.charAt(i));
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Fold a character the same way {@link String#CASE_INSENSITIVE_ORDER} compares them
+	 *
+	 * @param c The character
+	 * @return The case-folded character
+	 */
+	static char fold(char c) {
+		// Fast path for ASCII
+		if (c < 128) {
+			return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+		}
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+}
@@ -0,0 +1,39 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+
+/**
+ * Receives the documents of a batch, one at a time, once they have been parsed.
+ *
+ * @see JFlatBatch
+ */
+@FunctionalInterface
+public interface BatchResultHandler {
+	/**
+	 * Handle one parsed document (always called from the thread that runs the batch)
+	 *
+	 * @param result The parsed document, or the error that prevented its parsing
+	 * @throws IOException when the result cannot be processed, which stops the batch
+	 */
+	void handle(JFlatBatch.Result result) throws IOException;
+}
@@ -0,0 +1,401 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only storage of the flat map that reads a document in the format of {@link JFlatBinary} directly,
+ * typically from a file mapped in memory.
+ * <p>
+ * Nothing is loaded in advance: a lookup is a binary search on the first key of each block,
+ * then a scan of the keys of one block, and only the value that is found is decoded.
+ * Reads are absolute, so the store can be read by several threads at the same time.
+ */
+final class BinaryStore implements FlatReader {
+
+	private final MappedBytes bytes;
+	private final int size;
+	private final int blockCount;
+	private final long blockIndex;
+	private final long arraysOffset;
+	private final int arrayCount;
+
+	/**
+	 * The index of the arrays, read when first needed
+	 */
+	private ArrayIndex arrays;
+
+	/**
+	 * The first key of each block, decoded when needed by the binary search
+	 */
+	private final String[] firstKeys;
+
+	/**
+	 * @param bytes The document in the binary format
+	 * @param size The number of pairs of key/value
+	 * @param blockCount The number of blocks
+	 * @param blockIndex Position of the index of the blocks
+	 * @param arraysOffset Position of the index of the arrays
+	 * @param arrayCount Number of arrays
+	 */
+	BinaryStore(MappedBytes bytes, int size, int blockCount, long blockIndex, long arraysOffset, int arrayCount) {
+		this.bytes = bytes;
+		this.size = size;
+		this.blockCount = blockCount;
+		this.blockIndex = blockIndex;
+		this.arraysOffset = arraysOffset;
+		this.arrayCount = arrayCount;
+		this.firstKeys = new String[blockCount];
+	}
+
+	/**
+	 * @return The index of the arrays (read the first time)
+	 */
+	synchronized ArrayIndex getArrays() {
+		if (arrays == null) {
+			ArrayIndex index = new ArrayIndex();
+			Cursor cursor = new Cursor(arraysOffset);
+			StringBuilder path = new StringBuilder();
+			for (int i = 0; i < arrayCount; i++) {
+				path.setLength(0);
+				cursor.readString(path);
+				index.put(path.toString(), cursor.readVarInt());
+			}
+			arrays = index;
+		}
+		return arrays;
+	}
+
+	@Override
+	public String get(String key) {
+		Cursor cursor = seek(key);
+		return cursor.hasCurrent() && cursor.compareKey(key) == 0 ? cursor.value() : null;
+	}
+
+	@Override
+	public String getKey(String key) {
+		Cursor cursor = seek(key);
+		return cursor.hasCurrent() && cursor.compareKey(key) == 0 ? cursor.key() : null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> withPrefix(String prefix) {
+		return iterator(seek(prefix), prefix);
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> tailIterator(String fromKey) {
+		return iterator(seek(fromKey), null);
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		Cursor cursor = new Cursor(blockCount == 0 ? 0 : blockOffset(0));
+		cursor.next();
+		return iterator(cursor, null);
+	}
+
+	/**
+	 * @param cursor The cursor on the first entry to return
+	 * @param prefix The prefix of the keys to return, or null for all the entries after the cursor
+	 * @return An iterator on the entries, from the cursor
+	 */
+	private Iterator<Entry<String, String>> iterator(Cursor cursor, String prefix) {
+		return new Iterator<Entry<String, String>>() {
+			@Override
+			public boolean hasNext() {
+				return (
+					cursor.hasCurrent() &&
+					(prefix == null || cursor.startsWith(prefix))
+				);
+			}
+
+			@Override
+			public Entry<String, String> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Entry<String, String> entry = new SimpleImmutableEntry<String, String>(cursor.key(), cursor.value());
+				cursor.next();
+				return entry;
+			}
+		};
+	}
+
+	/**
+	 * Find the first key that is greater than or equal to the specified key
+	 *
+	 * @param key The key (case insensitive)
+	 * @return A cursor on the first entry whose key is greater than or equal to the specified key
+	 * (or past the last entry)
+	 */
+	private Cursor seek(String key) {
+		// The last block whose first key is lower than or equal to the key
+		int low = 0;
+		int high = blockCount - 1;
+		int block = 0;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (String.CASE_INSENSITIVE_ORDER.compare(getFirstKey(middle), key) <= 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		// Then scan the block (and possibly reach the first key of the next one)
+		Cursor cursor = new Cursor(blockCount == 0 ? 0 : blockOffset(block));
+		cursor.index = block * JFlatBinary.BLOCK_SIZE;
+		cursor.next();
+		while (cursor.hasCurrent() && cursor.compareKey(key) < 0) {
+			cursor.next();
+		}
+		return cursor;
+	}
+
+	/**
+	 * @param block Index of a block
+	 * @return The first key of the block
+	 */
+	private String getFirstKey(int block) {
+		String key = firstKeys[block];
+		if (key == null) {
+			Cursor cursor = new Cursor(blockOffset(block));
+			cursor.readVarInt();
+			key = cursor.readString(new StringBuilder()).toString();
+			// Strings are immutable, so they can be shared with other threads without synchronization
+			firstKeys[block] = key;
+		}
+		return key;
+	}
+
+	/**
+	 * @param block Index of a block
+	 * @return Position of the first entry of the block
+	 */
+	private long blockOffset(int block) {
+		return bytes.getLong(blockIndex + 8L * block);
+	}
+
+	/**
+	 * Sequential reader of the entries, from a position in the document
+	 */
+	private final class Cursor {
+
+		private long position;
+
+		/**
+		 * Index of the next entry to read
+		 */
+		private int index = 0;
+
+		/**
+		 * The current key (built from the previous one, since only the end of the keys is stored)
+		 */
+		private final StringBuilder keyBuilder = new StringBuilder();
+
+		/**
+		 * Whether the cursor is on an entry
+		 */
+		private boolean current = false;
+
+		/**
+		 * The current key as a String, only created when needed (not while seeking)
+		 */
+		private String key;
+
+		private long valuePosition;
+
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		/**
+		 * @return Whether the cursor is on an entry (false when past the last one)
+		 */
+		private boolean hasCurrent() {
+			return current;
+		}
+
+		/**
+		 * @return The current key
+		 */
+		private String key() {
+			if (key == null) {
+				key = keyBuilder.toString();
+			}
+			return key;
+		}
+
+		/**
+		 * Compare the current key with the specified one, like {@link String#CASE_INSENSITIVE_ORDER},
+		 * without creating a String
+		 *
+		 * @param other The key to compare with
+		 * @return A negative number, zero, or a positive number as the current key is less than, equal to,
+		 * or greater than the other key
+		 */
+		private int compareKey(String other) {
+			int length = Math.min(keyBuilder.length(), other.length());
+			for (int i = 0; i < length; i++) {
+				char c1 = keyBuilder.charAt(i);
+				char c2 = other.charAt(i);
+				if (c1 != c2) {
+					c1 = ArrayIndex.fold(c1);
+					c2 = ArrayIndex.fold(c2);
+					if (c1 != c2) {
+						return c1 - c2;
+					}
+				}
+			}
+			return keyBuilder.length() - other.length();
+		}
+
+		/**
+		 * @param prefix A prefix (case insensitive)
+		 * @return Whether the current key starts with the prefix
+		 */
+		private boolean startsWith(String prefix) {
+			if (keyBuilder.length() < prefix.length()) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length(); i++) {
+				if (ArrayIndex.fold(keyBuilder.charAt(i)) != ArrayIndex.fold(prefix.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Move to the next entry: decode its key, and skip its value
+		 */
+		private void next() {
+			key = null;
+			current = index < size;
+			if (!current) {
+				return;
+			}
+
+			// The first key of a block is stored entirely
+			int shared = readVarInt();
+			keyBuilder.setLength(index % JFlatBinary.BLOCK_SIZE == 0 ? 0 : shared);
+			readString(keyBuilder);
+			index++;
+
+			valuePosition = position;
+			byte tag = bytes.get(position++);
+			if (tag == JFlatBinary.TAG_STRING) {
+				// (the length must be read before position is)
+				int length = readVarInt();
+				position += length;
+			} else if (tag == JFlatBinary.TAG_INTEGER) {
+				readVarLong();
+			}
+		}
+
+		/**
+		 * @return The value of the current entry
+		 */
+		private String value() {
+			long saved = position;
+			position = valuePosition;
+			try {
+				byte tag = bytes.get(position++);
+				switch (tag) {
+					case JFlatBinary.TAG_STRING:
+						return readString(new StringBuilder()).toString();
+					case JFlatBinary.TAG_OBJECT:
+						return "{object}";
+					case JFlatBinary.TAG_ARRAY:
+						return "{array}";
+					case JFlatBinary.TAG_TRUE:
+						return "TRUE";
+					case JFlatBinary.TAG_FALSE:
+						return "FALSE";
+					case JFlatBinary.TAG_NULL:
+						return "NULL";
+					case JFlatBinary.TAG_INTEGER:
+						long zigzag = readVarLong();
+						return Long.toString((zigzag >>> 1) ^ -(zigzag & 1));
+					default:
+						throw new IllegalStateException("Invalid value type in JFlat binary document: " + tag);
+				}
+			} finally {
+				position = saved;
+			}
+		}
+
+		/**
+		 * Decode a String written by JFlatBinary (its length in bytes, then 1 to 3 bytes per character)
+		 *
+		 * @param builder Where to append the characters
+		 * @return The builder
+		 */
+		private StringBuilder readString(StringBuilder builder) {
+			long end = readVarInt() + position;
+			while (position < end) {
+				int b = bytes.get(position++) & 0xFF;
+				if (b < 0x80) {
+					builder.append((char) b);
+				} else if (b < 0xE0) {
+					builder.append((char) (((b & 0x1F) << 6) | (bytes.get(position++) & 0x3F)));
+				} else {
+					int c = ((b & 0x0F) << 12) | ((bytes.get(position++) & 0x3F) << 6);
+					builder.append((char) (c | (bytes.get(position++) & 0x3F)));
+				}
+			}
+			return builder;
+		}
+
+		/**
+		 * @return The unsigned number written on 1 to 5 bytes
+		 */
+		private int readVarInt() {
+			return (int) readVarLong();
+		}
+
+		/**
+		 * @return The unsigned number written on 1 to 10 bytes
+		 */
+		private long readVarLong() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes.get(position++);
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a ByteBuffer (heap, direct or memory-mapped) without copying them first.
+ * <p>
+ * The position of the specified buffer is left untouched.
+ */
+final class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * @param buffer The bytes to read, from its position to its limit
+	 */
+	ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) {
+		if (length == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		int count = Math.min(length, buffer.remaining());
+		buffer.get(bytes, offset, count);
+		return count;
+	}
+
+	@Override
+	public long skip(long n) {
+		int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+}
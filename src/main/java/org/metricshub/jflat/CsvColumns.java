@@ -0,0 +1,381 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The records of a CSV extraction, in columns: the key of each entry, and a typed column for each property.
+ * <p>
+ * A column is made of primitive longs when all its values are integers, of primitive doubles when all its values
+ * are numbers, and of Strings otherwise (the values of the flat map). JSON null values and missing properties
+ * are null: they are marked in a bitmap, and stored as 0 in a column of longs, NaN in a column of doubles,
+ * and null in a column of Strings.
+ *
+ * <pre>
+ * JFlat jFlat = new JFlat(json);
+ * jFlat.setTypedValues(true);
+ * jFlat.parse();
+ * CsvColumns columns = jFlat.toColumns("/samples", new String[] { "timestamp", "value" });
+ * long[] timestamps = columns.getColumn(0).getLongs();
+ * double[] values = columns.getColumn(1).getDoubles();
+ * </pre>
+ *
+ * @see CsvQuery#toColumns(JFlat)
+ */
+public final class CsvColumns {
+
+	/**
+	 * The type of a column
+	 */
+	public enum Type {
+		/**
+		 * Integers that fit in a long (or no value at all)
+		 */
+		LONG,
+
+		/**
+		 * Numbers
+		 */
+		DOUBLE,
+
+		/**
+		 * Anything else
+		 */
+		STRING
+	}
+
+	/**
+	 * The values of a property, for each record
+	 * <p>
+	 * The arrays are returned as is, not copied: they must not be modified.
+	 */
+	public static final class Column {
+
+		private final String property;
+		private final Type type;
+		private final long[] longs;
+		private final double[] doubles;
+		private final String[] strings;
+		private final BitSet nulls;
+
+		private Column(String property, Type type, long[] longs, double[] doubles, String[] strings, BitSet nulls) {
+			this.property = property;
+			this.type = type;
+			this.longs = longs;
+			this.doubles = doubles;
+			this.strings = strings;
+			this.nulls = nulls;
+		}
+
+		/**
+		 * @return The (cleaned) property of the query
+		 */
+		public String getProperty() {
+			return property;
+		}
+
+		/**
+		 * @return The type of the column
+		 */
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * @param row Index of the record
+		 * @return Whether the value is null (JSON null, or missing)
+		 */
+		public boolean isNull(int row) {
+			return nulls.get(row);
+		}
+
+		/**
+		 * @return The number of null values
+		 */
+		public int getNullCount() {
+			return nulls.cardinality();
+		}
+
+		/**
+		 * @return The value of each record (0 when null)
+		 * @throws IllegalStateException when the column is not a column of {@link Type#LONG}
+		 */
+		public long[] getLongs() throws IllegalStateException {
+			checkType(Type.LONG);
+			return longs;
+		}
+
+		/**
+		 * @return The value of each record (NaN when null)
+		 * @throws IllegalStateException when the column is not a column of {@link Type#DOUBLE}
+		 */
+		public double[] getDoubles() throws IllegalStateException {
+			checkType(Type.DOUBLE);
+			return doubles;
+		}
+
+		/**
+		 * @return The value of each record (null when null), as in the flat map
+		 * @throws IllegalStateException when the column is not a column of {@link Type#STRING}
+		 */
+		public String[] getStrings() throws IllegalStateException {
+			checkType(Type.STRING);
+			return strings;
+		}
+
+		/**
+		 * @param expected The type of column required
+		 * @throws IllegalStateException when the column is of another type
+		 */
+		private void checkType(Type expected) throws IllegalStateException {
+			if (type != expected) {
+				throw new IllegalStateException("Column " + property + " is a column of " + type + ", not " + expected);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return property + " (" + type + ")";
+		}
+	}
+
+	/**
+	 * The values of a property while the records are extracted
+	 */
+	private static final class ColumnBuilder {
+
+		private byte[] kinds = new byte[INITIAL_CAPACITY];
+		private long[] bits = new long[INITIAL_CAPACITY];
+		private String[] strings;
+		private boolean hasDouble = false;
+		private boolean hasOther = false;
+
+		/**
+		 * @param row Index of the record
+		 * @param kind Kind of the value (see {@link ValueIndex})
+		 * @param value The bits of a number, 0 otherwise
+		 * @param string The value of the flat map for {@link ValueIndex#OTHER}, null otherwise
+		 */
+		private void set(int row, byte kind, long value, String string) {
+			if (row == kinds.length) {
+				kinds = Arrays.copyOf(kinds, row * 2);
+				bits = Arrays.copyOf(bits, row * 2);
+				if (strings != null) {
+					strings = Arrays.copyOf(strings, row * 2);
+				}
+			}
+			kinds[row] = kind;
+			bits[row] = value;
+			if (kind == ValueIndex.DOUBLE) {
+				hasDouble = true;
+			} else if (kind == ValueIndex.OTHER) {
+				hasOther = true;
+				if (strings == null) {
+					strings = new String[kinds.length];
+				}
+				strings[row] = string;
+			}
+		}
+	}
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final String[] keys;
+	private final Column[] columns;
+
+	/**
+	 * @param keys The key of each entry
+	 * @param columns The column of each property
+	 */
+	private CsvColumns(String[] keys, Column[] columns) {
+		this.keys = keys;
+		this.columns = columns;
+	}
+
+	/**
+	 * Extract the records of a query into columns
+	 *
+	 * @param query The CSV query
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param values The type of the values of the document
+	 * @return The columns
+	 */
+	static CsvColumns extract(CsvQuery query, FlatReader map, ArrayIndex arrays, ValueIndex values) {
+		String[] properties = query.getProperties();
+		ColumnBuilder[] builders = new ColumnBuilder[properties.length];
+		for (int i = 0; i < builders.length; i++) {
+			builders[i] = new ColumnBuilder();
+		}
+
+		// The key of each record, and its entry for the properties
+		String[][] rows = { new String[INITIAL_CAPACITY], new String[INITIAL_CAPACITY] };
+		int[] rowCount = { 0 };
+
+		try {
+			query.forEachEntry(
+				map,
+				arrays,
+				entry -> {
+					// Check that the entry actually exists, like for a CSV record
+					String key = map.getKey(entry);
+					if (key == null) {
+						return;
+					}
+					String base = entry.equals("/") ? "" : entry;
+
+					int row = rowCount[0]++;
+					if (row == rows[0].length) {
+						rows[0] = Arrays.copyOf(rows[0], row * 2);
+						rows[1] = Arrays.copyOf(rows[1], row * 2);
+					}
+					rows[0][row] = key;
+					rows[1][row] = base;
+
+					// The type of each value, and the value itself for numbers, without going through the map
+					// (where the other values are)
+					for (int i = 0; i < builders.length; i++) {
+						String path = query.resolve(base, i);
+						int index = values.find(path);
+						byte kind = index < 0 ? ValueIndex.OTHER : values.getKind(index);
+						if (kind == ValueIndex.OTHER) {
+							String string = map.get(path);
+							builders[i].set(row, string == null ? ValueIndex.NULL : kind, 0, string);
+						} else {
+							builders[i].set(row, kind, kind == ValueIndex.NULL ? 0 : values.getBits(index), null);
+						}
+					}
+				}
+			);
+		} catch (IOException e) {
+			// Never happens, nothing is written
+			throw new IllegalStateException(e);
+		}
+
+		int count = rowCount[0];
+		Column[] columns = new Column[builders.length];
+		for (int i = 0; i < builders.length; i++) {
+			columns[i] = build(query, i, properties[i], builders[i], count, map, rows[1]);
+		}
+		return new CsvColumns(Arrays.copyOf(rows[0], count), columns);
+	}
+
+	/**
+	 * Build the column of a property, with the narrowest type for its values
+	 *
+	 * @param query The CSV query
+	 * @param property Index of the property
+	 * @param name The property
+	 * @param builder The values of the property
+	 * @param count The number of records
+	 * @param map The flat map of the document
+	 * @param entries The entry of each record
+	 * @return The column
+	 */
+	private static Column build(
+		CsvQuery query,
+		int property,
+		String name,
+		ColumnBuilder builder,
+		int count,
+		FlatReader map,
+		String[] entries
+	) {
+		BitSet nulls = new BitSet(count);
+		for (int row = 0; row < count; row++) {
+			if (builder.kinds[row] == ValueIndex.NULL) {
+				nulls.set(row);
+			}
+		}
+
+		// Only integers (the bits of null values are 0)
+		if (!builder.hasDouble && !builder.hasOther) {
+			return new Column(name, Type.LONG, Arrays.copyOf(builder.bits, count), null, null, nulls);
+		}
+
+		// Only numbers
+		if (!builder.hasOther) {
+			double[] doubles = new double[count];
+			for (int row = 0; row < count; row++) {
+				switch (builder.kinds[row]) {
+					case ValueIndex.LONG:
+						doubles[row] = builder.bits[row];
+						break;
+					case ValueIndex.DOUBLE:
+						doubles[row] = Double.longBitsToDouble(builder.bits[row]);
+						break;
+					default:
+						doubles[row] = Double.NaN;
+						break;
+				}
+			}
+			return new Column(name, Type.DOUBLE, null, doubles, null, nulls);
+		}
+
+		// Strings: the numbers are read from the flat map, as they were written by the parser
+		String[] strings = Arrays.copyOf(builder.strings, count);
+		for (int row = 0; row < count; row++) {
+			byte kind = builder.kinds[row];
+			if (kind == ValueIndex.LONG || kind == ValueIndex.DOUBLE) {
+				strings[row] = map.get(query.resolve(entries[row], property));
+			}
+		}
+		return new Column(name, Type.STRING, null, null, strings, nulls);
+	}
+
+	/**
+	 * @return The number of records
+	 */
+	public int getRowCount() {
+		return keys.length;
+	}
+
+	/**
+	 * @return The key of the entry of each record, as stored in the flat map (the first field of the CSV lines).
+	 * The array is not copied: it must not be modified.
+	 */
+	public String[] getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return The number of columns (one per property of the query)
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * @param index Index of the property in the query
+	 * @return The column of the property
+	 */
+	public Column getColumn(int index) {
+		return columns[index];
+	}
+
+	@Override
+	public String toString() {
+		return getRowCount() + " records " + Arrays.toString(columns);
+	}
+}
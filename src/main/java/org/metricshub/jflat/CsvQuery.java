@@ -0,0 +1,591 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A CSV extraction (entry key and properties) compiled once, and applied to any number of parsed JFlat documents.
+ * <p>
+ * The entry key is split into its path elements, and the properties are cleaned and resolved
+ * (<code>.</code>, <code>./</code>, <code>../</code>) when the query is compiled, instead of for each record
+ * of each document.
+ * <p>
+ * Instances are immutable and thread-safe: the same query can be used concurrently against different documents.
+ *
+ * <pre>
+ * CsvQuery query = CsvQuery.compile("/items/metrics", "id", "value", "../name");
+ * StringBuilder csv = query.toCSV(jFlat, ";");
+ * </pre>
+ *
+ * @see JFlat#toCSV(String, String[], String)
+ */
+public final class CsvQuery {
+
+	/**
+	 * Receives each entry that matches the entry key
+	 */
+	@FunctionalInterface
+	interface EntryHandler {
+		/**
+		 * @param entry The path of the entry (which may not exist in the map)
+		 * @throws IOException when the entry cannot be handled
+		 */
+		void handle(String entry) throws IOException;
+	}
+
+	private final String entryKey;
+	private final String[] pathElements;
+	private final String[] properties;
+
+	/**
+	 * Whether each property is "." (the entry itself)
+	 */
+	private final boolean[] self;
+
+	/**
+	 * Number of levels to go up from the entry (../) for each property
+	 */
+	private final int[] parentLevels;
+
+	/**
+	 * What to append to the (parent of the) entry for each property, e.g. "/name"
+	 */
+	private final String[] suffixes;
+
+	/**
+	 * Compile the specified CSV extraction
+	 *
+	 * @param entryKey Normalized entry key
+	 * @param pathElements The non-empty elements of the entry key
+	 * @param properties The cleaned properties
+	 */
+	private CsvQuery(String entryKey, String[] pathElements, String[] properties) {
+		this.entryKey = entryKey;
+		this.pathElements = pathElements;
+		this.properties = properties;
+
+		self = new boolean[properties.length];
+		parentLevels = new int[properties.length];
+		suffixes = new String[properties.length];
+
+		for (int i = 0; i < properties.length; i++) {
+			// If property is just ".", then it's the entryKey itself that we want,
+			// like when the entry key is just a simple array of integers or strings
+			if (properties[i].equals(".")) {
+				self[i] = true;
+				suffixes[i] = "";
+				continue;
+			}
+
+			// Process ../ (reference to the parent): each ".." that is followed by another element
+			// removes the previous element, first in the property itself, then in the entry
+			String[] elements = properties[i].split("/", -1);
+			List<String> kept = new ArrayList<String>();
+			for (int j = 0; j < elements.length; j++) {
+				if ("..".equals(elements[j]) && j < elements.length - 1) {
+					if (kept.isEmpty()) {
+						parentLevels[i]++;
+					} else {
+						kept.remove(kept.size() - 1);
+					}
+				} else {
+					kept.add(elements[j]);
+				}
+			}
+
+			StringBuilder suffix = new StringBuilder();
+			for (String element : kept) {
+				suffix.append('/').append(element);
+			}
+			suffixes[i] = suffix.toString();
+		}
+	}
+
+	/**
+	 * Compile the specified CSV extraction
+	 *
+	 * @param csvEntryKey The key in the JSON data that will be shown as a new entry in the resulting CSV (i.e. a new line)
+	 * @param csvProperties Array of strings specifying the properties of the entry key to be added to the CSV as new fields
+	 * @return The compiled query
+	 * @throws IllegalArgumentException when any of the specified arguments is null (or an entry in the csvProperties array is null)
+	 */
+	public static CsvQuery compile(String csvEntryKey, String... csvProperties) throws IllegalArgumentException {
+		// Sanity check: If anything is null, throw an IllegalArgument exception (avoid null, which will surely trigger a NullPointerException somewhere)
+		if (csvEntryKey == null) {
+			throw new IllegalArgumentException("Cannot convert JSON to CSV without a proper entry key (non-null)");
+		}
+		// Replace a null array with an empty array
+		if (csvProperties == null) {
+			csvProperties = new String[] {};
+		}
+		// Check for nullness in the array
+		for (String property : csvProperties) {
+			if (property == null) {
+				throw new IllegalArgumentException("Cannot convert JSON to CSV without a proper list of properties (non-null)");
+			}
+		}
+
+		// Clean the properties (in a copy, the caller's array is left untouched)
+		String[] properties = csvProperties.clone();
+		for (int i = 0; i < properties.length; i++) {
+			if (properties[i].startsWith("./")) {
+				properties[i] = properties[i].substring(2);
+			}
+			while (properties[i].startsWith("/")) {
+				properties[i] = properties[i].substring(1);
+			}
+		}
+
+		// Add a "/" at the beginning of the entry key, if necessary
+		if (csvEntryKey.isEmpty()) {
+			csvEntryKey = "/";
+		}
+		if (!csvEntryKey.startsWith("/")) {
+			csvEntryKey = "/" + csvEntryKey;
+		}
+
+		// Retrieve each (non-empty) element in the specified path
+		List<String> pathElements = new ArrayList<String>();
+		for (String pathElement : csvEntryKey.split("/")) {
+			if (!pathElement.isEmpty()) {
+				pathElements.add(pathElement);
+			}
+		}
+
+		return new CsvQuery(csvEntryKey, pathElements.toArray(new String[pathElements.size()]), properties);
+	}
+
+	/**
+	 * @return The entry key of this query, starting with "/"
+	 */
+	public String getEntryKey() {
+		return entryKey;
+	}
+
+	/**
+	 * @return The (cleaned) properties of this query
+	 */
+	public String[] getProperties() {
+		return properties.clone();
+	}
+
+	/**
+	 * @return The non-empty elements of the entry key
+	 */
+	String[] getPathElements() {
+		return pathElements;
+	}
+
+	/**
+	 * @param property Index of the property
+	 * @return The number of levels to go up from the entry (../) for the specified property
+	 */
+	int getParentLevels(int property) {
+		return parentLevels[property];
+	}
+
+	/**
+	 * @param property Index of the property
+	 * @return What to append to the (parent of the) entry for the specified property ("" for the entry itself)
+	 */
+	String getSuffix(int property) {
+		return suffixes[property];
+	}
+
+	/**
+	 * Translates (flattens) the specified JSON document into a CSV string
+	 *
+	 * @param jFlat The parsed JSON document
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @return The CSV string
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 * @see JFlat#toCSV(String, String[], String)
+	 */
+	public StringBuilder toCSV(JFlat jFlat, String separator) throws IllegalStateException {
+		// Did we parse the thing yet?
+		jFlat.checkParsed();
+
+		return toCSV(jFlat.getMap(), jFlat.getArrays(), separator, jFlat.getListener());
+	}
+
+	/**
+	 * Translates (flattens) the specified snapshot of a JSON document into a CSV string
+	 *
+	 * @param snapshot The parsed JSON document
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @return The CSV string
+	 * @see JFlatSnapshot#toCSV(String, String[], String)
+	 */
+	public StringBuilder toCSV(JFlatSnapshot snapshot, String separator) {
+		return toCSV(snapshot.getMap(), snapshot.getArrays(), separator, null);
+	}
+
+	/**
+	 * Translates (flattens) the specified JSON document into CSV, written to the specified output
+	 *
+	 * @param jFlat The parsed JSON document
+	 * @param out Where to write the CSV (Writer, PrintStream, StringBuilder, etc.)
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @throws IOException when writing to the output fails
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 * @see JFlat#writeCSV(Appendable, String, String[], String)
+	 */
+	public void writeCSV(JFlat jFlat, Appendable out, String separator) throws IOException, IllegalStateException {
+		// Did we parse the thing yet?
+		jFlat.checkParsed();
+
+		writeCSV(jFlat.getMap(), jFlat.getArrays(), out, separator, jFlat.getListener());
+	}
+
+	/**
+	 * Translates (flattens) the specified snapshot of a JSON document into CSV, written to the specified output
+	 *
+	 * @param snapshot The parsed JSON document
+	 * @param out Where to write the CSV (Writer, PrintStream, StringBuilder, etc.)
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @throws IOException when writing to the output fails
+	 */
+	public void writeCSV(JFlatSnapshot snapshot, Appendable out, String separator) throws IOException {
+		writeCSV(snapshot.getMap(), snapshot.getArrays(), out, separator, null);
+	}
+
+	/**
+	 * Translates (flattens) the specified JSON document into CSV records, passed to the specified handler
+	 *
+	 * @param jFlat The parsed JSON document
+	 * @param handler Receives each record: the key of the entry, and the value of each property ("" when not found)
+	 * @throws IOException when the handler fails
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 * @see JFlat#forEachCSVRecord(String, String[], CsvRecordHandler)
+	 */
+	public void forEachRecord(JFlat jFlat, CsvRecordHandler handler) throws IOException, IllegalStateException {
+		// Did we parse the thing yet?
+		jFlat.checkParsed();
+
+		forEachRecord(jFlat.getMap(), jFlat.getArrays(), handler, jFlat.getListener());
+	}
+
+	/**
+	 * Translates (flattens) the specified snapshot of a JSON document into CSV records, passed to the specified handler
+	 *
+	 * @param snapshot The parsed JSON document
+	 * @param handler Receives each record: the key of the entry, and the value of each property ("" when not found)
+	 * @throws IOException when the handler fails
+	 */
+	public void forEachRecord(JFlatSnapshot snapshot, CsvRecordHandler handler) throws IOException {
+		forEachRecord(snapshot.getMap(), snapshot.getArrays(), handler, null);
+	}
+
+	/**
+	 * Extract the records of the specified JSON document into typed columns, one per property
+	 * <p>
+	 * The numbers come from the parser, as primitives: they are never formatted or parsed as Strings.
+	 *
+	 * @param jFlat The JSON document, parsed with typed values (see {@link JFlat#setTypedValues(boolean)})
+	 * @return The columns
+	 * @throws IllegalStateException when the JSON document has not been parsed yet, or without typed values
+	 * @see JFlat#toColumns(String, String[])
+	 */
+	public CsvColumns toColumns(JFlat jFlat) throws IllegalStateException {
+		// Did we parse the thing yet?
+		jFlat.checkParsed();
+
+		ValueIndex values = jFlat.getValues();
+		if (values == null) {
+			throw new IllegalStateException("Typed values must be enabled before parsing the JSON document");
+		}
+
+		JFlatListener listener = jFlat.getListener();
+		long start = listener == null ? 0 : System.nanoTime();
+		CsvColumns columns = CsvColumns.extract(this, jFlat.getMap(), jFlat.getArrays(), values);
+		if (listener != null) {
+			listener.phaseCompleted(JFlatListener.Phase.CSV, System.nanoTime() - start);
+			listener.csvRecordsProduced(columns.getRowCount());
+		}
+		return columns;
+	}
+
+	/**
+	 * Translates (flattens) a flat map into a CSV string
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @param listener The listener of the document (null if none)
+	 * @return The CSV string
+	 */
+	private StringBuilder toCSV(FlatReader map, ArrayIndex arrays, String separator, JFlatListener listener) {
+		// Initialize the StringBuilder to hold the result
+		StringBuilder csvResult = new StringBuilder();
+
+		try {
+			writeCSV(map, arrays, csvResult, separator, listener);
+		} catch (IOException e) {
+			// Never happens with a StringBuilder
+			throw new IllegalStateException(e);
+		}
+
+		return csvResult;
+	}
+
+	/**
+	 * Translates (flattens) a flat map into CSV, written to the specified output
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param out Where to write the CSV
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @param listener The listener of the document (null if none)
+	 * @throws IOException when writing to the output fails
+	 */
+	private void writeCSV(FlatReader map, ArrayIndex arrays, Appendable out, String separator, JFlatListener listener)
+		throws IOException {
+		forEachRecord(map, arrays, csvWriter(out, separator), listener);
+	}
+
+	/**
+	 * @param out Where to write the CSV
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @return A handler that writes each record as a line of CSV to the specified output
+	 */
+	static CsvRecordHandler csvWriter(Appendable out, String separator) {
+		// Default separator is ";"
+		final String fieldSeparator = separator == null ? ";" : separator;
+
+		return (key, values) -> {
+			// First, add the "ID" of the entry
+			out.append(key).append(fieldSeparator);
+
+			// Then add the value of each column
+			for (String value : values) {
+				out.append(value).append(fieldSeparator);
+			}
+
+			// End of line, new record!
+			out.append('\n');
+		};
+	}
+
+	/**
+	 * Translates (flattens) a flat map into CSV records, passed to the specified handler,
+	 * and report the duration and the number of records to the listener
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param handler Receives each record
+	 * @param listener The listener of the document (null if none)
+	 * @throws IOException when the handler fails
+	 */
+	private void forEachRecord(FlatReader map, ArrayIndex arrays, CsvRecordHandler handler, JFlatListener listener)
+		throws IOException {
+		if (listener == null) {
+			forEachRecord(map, arrays, handler);
+			return;
+		}
+
+		// Count the records on their way to the handler
+		long start = System.nanoTime();
+		long[] count = new long[1];
+		forEachRecord(
+			map,
+			arrays,
+			(key, values) -> {
+				count[0]++;
+				handler.handle(key, values);
+			}
+		);
+		listener.phaseCompleted(JFlatListener.Phase.CSV, System.nanoTime() - start);
+		listener.csvRecordsProduced(count[0]);
+	}
+
+	/**
+	 * Translates (flattens) a flat map into CSV records, passed to the specified handler
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param handler Receives each record
+	 * @throws IOException when the handler fails
+	 */
+	private void forEachRecord(FlatReader map, ArrayIndex arrays, CsvRecordHandler handler) throws IOException {
+		forEachEntry(map, arrays, entry -> handleRecord(map, entry, handler));
+	}
+
+	/**
+	 * Go through the entries that match the entry key, in the order of the CSV records
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param handler Receives each entry
+	 * @throws IOException when the handler fails
+	 */
+	void forEachEntry(FlatReader map, ArrayIndex arrays, EntryHandler handler) throws IOException {
+		// Empty TreeMap?
+		if (map.isEmpty()) {
+			return;
+		}
+
+		// csvEntryKey is specified as a path (e.g. /objectA/array1/subobject)
+		// We check whether each "subfolder" is an array or not
+		// If it's an array we will go through each of the array entries
+		// So, we will start with the "root" object.
+		// If that object is an array, we will go through each entry of the array.
+		// Then, for each entry, we will add the next "subfolder"
+		// For each of these that are arrays, we will go through each entries of that array
+		// and so on and so on, until the last element of the path, which is a CSV record.
+		// Note that the initial parsing of the JSON source already built the index of paths
+		// that are arrays
+
+		// In case the JSON doc is an array, we will start with its root entries
+		// Note: this means that "" (empty string) is in the list of arrays found in the doc
+		int arrayLength = arrays.getLength("");
+		if (arrayLength > 0) {
+			// Start with [0], [1], etc.
+			for (int i = 0; i < arrayLength; i++) {
+				expand(arrays, JFlat.indexPath("", i), 0, handler);
+			}
+		} else {
+			// Start with "/"
+			expand(arrays, "/", 0, handler);
+		}
+	}
+
+	/**
+	 * Go through the entries matching the path elements, starting from the specified entry,
+	 * and pass them to the handler.
+	 * <p>
+	 * The method is recursive (one level per path element) and expands the arrays depth-first,
+	 * which produces the records in the same order as expanding each path element in turn.
+	 *
+	 * @param arrays The arrays of the document
+	 * @param entry The entry we're in
+	 * @param index Index of the next path element to process
+	 * @param handler Receives each entry
+	 * @throws IOException when the handler fails
+	 */
+	private void expand(ArrayIndex arrays, String entry, int index, EntryHandler handler) throws IOException {
+		// No more path elements: we have a record
+		if (index == pathElements.length) {
+			handler.handle(entry);
+			return;
+		}
+
+		// Check whether entry/pathElement is an array
+		String path = JFlat.childPath(entry.equals("/") ? "" : entry, pathElements[index]);
+		int arrayLength = arrays.getLength(path);
+
+		if (arrayLength > 0) {
+			// So, path is an array
+			// Then go through each entry of the array
+			for (int i = 0; i < arrayLength; i++) {
+				expand(arrays, JFlat.indexPath(path, i), index + 1, handler);
+			}
+		} else {
+			// This is not an array, simply go on with path
+			expand(arrays, path, index + 1, handler);
+		}
+	}
+
+	/**
+	 * Retrieve the value of each property of the specified entry and pass the resulting record to the handler
+	 *
+	 * @param map The flat map of the document
+	 * @param entry The key of the entry
+	 * @param handler Receives the record
+	 * @throws IOException when the handler fails
+	 */
+	private void handleRecord(FlatReader map, String entry, CsvRecordHandler handler) throws IOException {
+		// First, the "ID" of the entry, as stored in the map
+		// (and check that the entry actually exists, in case the user has put an invalid entryKey)
+		String key = map.getKey(entry);
+		if (key == null) {
+			return;
+		}
+
+		// If it's the root ("/"), replace it with "", so that future concatenation with the property name will work properly
+		if (entry.equals("/")) {
+			entry = "";
+		}
+
+		// Then the value of each column (empty string for null)
+		String[] values = new String[properties.length];
+		for (int i = 0; i < properties.length; i++) {
+			String value = map.get(resolve(entry, i));
+			values[i] = value == null ? "" : value;
+		}
+
+		handler.handle(key, values);
+	}
+
+	/**
+	 * Get the path of the specified property of the specified entry
+	 *
+	 * @param entry The key of the entry ("" for the root)
+	 * @param property Index of the property
+	 * @return The path of the property
+	 */
+	String resolve(String entry, int property) {
+		if (self[property]) {
+			return entry;
+		}
+
+		// Go up as many levels as there are ../ (but not above the root)
+		int end = entry.length();
+		for (int level = 0; level < parentLevels[property]; level++) {
+			int slash = entry.lastIndexOf('/', end - 1);
+			if (slash < 0) {
+				break;
+			}
+			end = slash;
+		}
+
+		return end == entry.length() ? entry + suffixes[property] : entry.substring(0, end) + suffixes[property];
+	}
+
+	/**
+	 * Two queries are equal when they have the same entry key and the same properties (once cleaned),
+	 * so that they produce the same CSV
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CsvQuery)) {
+			return false;
+		}
+		CsvQuery other = (CsvQuery) obj;
+		return entryKey.equals(other.entryKey) && Arrays.equals(properties, other.properties);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * entryKey.hashCode() + Arrays.hashCode(properties);
+	}
+
+	@Override
+	public String toString() {
+		return entryKey + " " + Arrays.toString(properties);
+	}
+}
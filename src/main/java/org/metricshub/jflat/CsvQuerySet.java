@@ -0,0 +1,516 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several CSV extractions, applied to a parsed JSON document in a single pass.
+ * <p>
+ * The entry keys of the queries are merged into a tree of path elements: the arrays of a path shared by
+ * several entry keys (like <code>/hosts</code> in <code>/hosts/disks</code> and <code>/hosts/nics</code>) are
+ * expanded only once, each entry is looked up only once, and so is each property that several queries read
+ * from the same entry (<code>../name</code> for each disk and each NIC of a host is read once per host).
+ * <p>
+ * Each query produces exactly the same records as when it is applied alone.
+ * <p>
+ * Instances are immutable and thread-safe, like {@link CsvQuery}.
+ *
+ * <pre>
+ * CsvQuerySet queries = CsvQuerySet.of(
+ * 	CsvQuery.compile("/hosts/disks", "id", "size", "../name"),
+ * 	CsvQuery.compile("/hosts/nics", "id", "speed", "../name")
+ * );
+ * StringBuilder[] csv = queries.toCSV(jFlat, ";");
+ * </pre>
+ */
+public final class CsvQuerySet {
+
+	/**
+	 * A path element in the tree of the entry keys
+	 */
+	private static final class Node {
+
+		/**
+		 * The path element (empty for the root)
+		 */
+		private final String element;
+
+		private final List<Node> children = new ArrayList<Node>();
+
+		/**
+		 * Depth of the node (number of path elements from the root)
+		 */
+		private final int depth;
+
+		/**
+		 * The distinct suffixes read from the entries of this node, by the queries of this node
+		 * and (with ../) by the queries of its descendants
+		 */
+		private final List<String> suffixes = new ArrayList<String>();
+
+		/**
+		 * Index of the queries whose entry key ends at this node
+		 */
+		private int[] queries = new int[0];
+
+		/**
+		 * For each query ending at this node, and each of its properties: the depth of the entry
+		 * the property is read from, and the index of its suffix in the node at that depth
+		 */
+		private int[][] depths = new int[0][];
+		private int[][] columns = new int[0][];
+
+		private Node(String element, int depth) {
+			this.element = element;
+			this.depth = depth;
+		}
+
+		/**
+		 * Get the specified child node, create it if needed
+		 *
+		 * @param name The path element
+		 * @return The child node
+		 */
+		private Node getChild(String name) {
+			for (Node child : children) {
+				if (child.element.equals(name)) {
+					return child;
+				}
+			}
+			Node child = new Node(name, depth + 1);
+			children.add(child);
+			return child;
+		}
+
+		/**
+		 * Get the index of the specified suffix, add it if needed
+		 *
+		 * @param suffix What to append to the entries of this node
+		 * @return The index of the suffix
+		 */
+		private int getColumn(String suffix) {
+			int column = suffixes.indexOf(suffix);
+			if (column < 0) {
+				column = suffixes.size();
+				suffixes.add(suffix);
+			}
+			return column;
+		}
+	}
+
+	private final CsvQuery[] queries;
+	private final Node root = new Node("", 0);
+
+	/**
+	 * The deepest entry key (number of path elements)
+	 */
+	private int maxDepth = 0;
+
+	/**
+	 * Build the tree of the specified queries
+	 *
+	 * @param queries The queries
+	 */
+	private CsvQuerySet(CsvQuery[] queries) {
+		this.queries = queries;
+
+		for (int q = 0; q < queries.length; q++) {
+			CsvQuery query = queries[q];
+			String[] pathElements = query.getPathElements();
+			Node[] path = new Node[pathElements.length + 1];
+			path[0] = root;
+			for (int i = 0; i < pathElements.length; i++) {
+				path[i + 1] = path[i].getChild(pathElements[i]);
+			}
+			Node node = path[pathElements.length];
+			maxDepth = Math.max(maxDepth, node.depth);
+
+			// Each level of the entry key adds one "/" to the entry, so ../x is x in the entry of the parent node
+			// (never above the root), where it is shared with the other queries
+			int propertyCount = query.getProperties().length;
+			int[] queryDepths = new int[propertyCount];
+			int[] queryColumns = new int[propertyCount];
+			for (int i = 0; i < propertyCount; i++) {
+				queryDepths[i] = Math.max(0, node.depth - query.getParentLevels(i));
+				queryColumns[i] = path[queryDepths[i]].getColumn(query.getSuffix(i));
+			}
+
+			node.queries = append(node.queries, q);
+			node.depths = append(node.depths, queryDepths);
+			node.columns = append(node.columns, queryColumns);
+		}
+	}
+
+	/**
+	 * Combine the specified queries
+	 *
+	 * @param queries The compiled queries (the same query may be specified several times)
+	 * @return The set of queries
+	 * @throws IllegalArgumentException when the array is null, or one of the queries is null
+	 */
+	public static CsvQuerySet of(CsvQuery... queries) throws IllegalArgumentException {
+		if (queries == null) {
+			throw new IllegalArgumentException("Cannot combine a null array of queries");
+		}
+		for (CsvQuery query : queries) {
+			if (query == null) {
+				throw new IllegalArgumentException("Cannot combine a null query");
+			}
+		}
+		return new CsvQuerySet(queries.clone());
+	}
+
+	/**
+	 * @return The number of queries
+	 */
+	public int size() {
+		return queries.length;
+	}
+
+	/**
+	 * @param index Index of the query
+	 * @return The specified query
+	 */
+	public CsvQuery get(int index) {
+		return queries[index];
+	}
+
+	/**
+	 * Translates (flattens) the specified JSON document into one CSV string per query
+	 *
+	 * @param jFlat The parsed JSON document
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @return The CSV string of each query, in the order of the queries
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 * @see CsvQuery#toCSV(JFlat, String)
+	 */
+	public StringBuilder[] toCSV(JFlat jFlat, String separator) throws IllegalStateException {
+		// Did we parse the thing yet?
+		jFlat.checkParsed();
+
+		return toCSV(jFlat.getMap(), jFlat.getArrays(), separator, jFlat.getListener());
+	}
+
+	/**
+	 * Translates (flattens) the specified snapshot of a JSON document into one CSV string per query
+	 *
+	 * @param snapshot The parsed JSON document
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @return The CSV string of each query, in the order of the queries
+	 * @see CsvQuery#toCSV(JFlatSnapshot, String)
+	 */
+	public StringBuilder[] toCSV(JFlatSnapshot snapshot, String separator) {
+		return toCSV(snapshot.getMap(), snapshot.getArrays(), separator, null);
+	}
+
+	/**
+	 * Translates (flattens) the specified JSON document into CSV records, passed to the handler of each query
+	 *
+	 * @param jFlat The parsed JSON document
+	 * @param handlers The handler of each query, in the order of the queries
+	 * @throws IOException when a handler fails
+	 * @throws IllegalArgumentException when there is not exactly one (non-null) handler per query
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 * @see CsvQuery#forEachRecord(JFlat, CsvRecordHandler)
+	 */
+	public void forEachRecord(JFlat jFlat, CsvRecordHandler... handlers)
+		throws IOException, IllegalArgumentException, IllegalStateException {
+		checkHandlers(handlers);
+
+		// Did we parse the thing yet?
+		jFlat.checkParsed();
+
+		forEachRecord(jFlat.getMap(), jFlat.getArrays(), handlers, jFlat.getListener());
+	}
+
+	/**
+	 * Translates (flattens) the specified snapshot of a JSON document into CSV records, passed to the handler
+	 * of each query
+	 *
+	 * @param snapshot The parsed JSON document
+	 * @param handlers The handler of each query, in the order of the queries
+	 * @throws IOException when a handler fails
+	 * @throws IllegalArgumentException when there is not exactly one (non-null) handler per query
+	 * @see CsvQuery#forEachRecord(JFlatSnapshot, CsvRecordHandler)
+	 */
+	public void forEachRecord(JFlatSnapshot snapshot, CsvRecordHandler... handlers)
+		throws IOException, IllegalArgumentException {
+		checkHandlers(handlers);
+		forEachRecord(snapshot.getMap(), snapshot.getArrays(), handlers, null);
+	}
+
+	/**
+	 * @param handlers The handlers to check
+	 * @throws IllegalArgumentException when there is not exactly one (non-null) handler per query
+	 */
+	private void checkHandlers(CsvRecordHandler[] handlers) throws IllegalArgumentException {
+		if (handlers == null || handlers.length != queries.length) {
+			throw new IllegalArgumentException("Expected one handler for each of the " + queries.length + " queries");
+		}
+		for (CsvRecordHandler handler : handlers) {
+			if (handler == null) {
+				throw new IllegalArgumentException("Cannot pass the records to a null handler");
+			}
+		}
+	}
+
+	/**
+	 * Translates (flattens) a flat map into one CSV string per query
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @param listener The listener of the document (null if none)
+	 * @return The CSV string of each query
+	 */
+	private StringBuilder[] toCSV(FlatReader map, ArrayIndex arrays, String separator, JFlatListener listener) {
+		StringBuilder[] results = new StringBuilder[queries.length];
+		CsvRecordHandler[] handlers = new CsvRecordHandler[queries.length];
+		for (int q = 0; q < queries.length; q++) {
+			results[q] = new StringBuilder();
+			handlers[q] = CsvQuery.csvWriter(results[q], separator);
+		}
+
+		try {
+			forEachRecord(map, arrays, handlers, listener);
+		} catch (IOException e) {
+			// Never happens with a StringBuilder
+			throw new IllegalStateException(e);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Translates (flattens) a flat map into CSV records, passed to the handler of each query,
+	 * and report the duration and the number of records of each query to the listener
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param handlers The handler of each query
+	 * @param listener The listener of the document (null if none)
+	 * @throws IOException when a handler fails
+	 */
+	private void forEachRecord(FlatReader map, ArrayIndex arrays, CsvRecordHandler[] handlers, JFlatListener listener)
+		throws IOException {
+		if (listener == null) {
+			forEachRecord(map, arrays, handlers);
+			return;
+		}
+
+		// Count the records of each query on their way to its handler
+		long start = System.nanoTime();
+		long[] counts = new long[handlers.length];
+		CsvRecordHandler[] countingHandlers = new CsvRecordHandler[handlers.length];
+		for (int q = 0; q < handlers.length; q++) {
+			int query = q;
+			countingHandlers[q] = (key, values) -> {
+				counts[query]++;
+				handlers[query].handle(key, values);
+			};
+		}
+		forEachRecord(map, arrays, countingHandlers);
+		listener.phaseCompleted(JFlatListener.Phase.CSV, System.nanoTime() - start);
+		for (long count : counts) {
+			listener.csvRecordsProduced(count);
+		}
+	}
+
+	/**
+	 * Translates (flattens) a flat map into CSV records, passed to the handler of each query
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The index of the arrays of the document
+	 * @param handlers The handler of each query
+	 * @throws IOException when a handler fails
+	 */
+	private void forEachRecord(FlatReader map, ArrayIndex arrays, CsvRecordHandler[] handlers) throws IOException {
+		// Empty map?
+		if (map.isEmpty()) {
+			return;
+		}
+
+		// The entry of each level, and the values read from it (computed when first needed)
+		String[] entries = new String[maxDepth + 1];
+		String[][] values = new String[maxDepth + 1][];
+		Node[] nodes = new Node[maxDepth + 1];
+
+		// Like CsvQuery, start with the entries of the root array, if the document is an array
+		int arrayLength = arrays.getLength("");
+		if (arrayLength > 0) {
+			for (int i = 0; i < arrayLength; i++) {
+				expand(map, arrays, JFlat.indexPath("", i), root, entries, values, nodes, handlers);
+			}
+		} else {
+			expand(map, arrays, "/", root, entries, values, nodes, handlers);
+		}
+	}
+
+	/**
+	 * Pass the records of the queries that end at the specified node, then go through the entries
+	 * of each child node.
+	 * <p>
+	 * The arrays are expanded depth-first, so each query receives its records in the same order as when
+	 * it is applied alone.
+	 *
+	 * @param map The flat map of the document
+	 * @param arrays The arrays of the document
+	 * @param entry The entry we're in
+	 * @param node The node of the entry in the tree of the entry keys
+	 * @param entries The entry of each level
+	 * @param values The values read from the entry of each level
+	 * @param nodes The node of each level
+	 * @param handlers The handler of each query
+	 * @throws IOException when a handler fails
+	 */
+	private void expand(
+		FlatReader map,
+		ArrayIndex arrays,
+		String entry,
+		Node node,
+		String[] entries,
+		String[][] values,
+		Node[] nodes,
+		CsvRecordHandler[] handlers
+	) throws IOException {
+		// The root ("/") is "" for the concatenation with the property names
+		entries[node.depth] = entry.equals("/") ? "" : entry;
+		values[node.depth] = null;
+		nodes[node.depth] = node;
+
+		if (node.queries.length > 0) {
+			handleRecords(map, entry, node, entries, values, nodes, handlers);
+		}
+
+		for (Node child : node.children) {
+			// Check whether entry/pathElement is an array
+			String path = JFlat.childPath(entry.equals("/") ? "" : entry, child.element);
+			int arrayLength = arrays.getLength(path);
+
+			if (arrayLength > 0) {
+				for (int i = 0; i < arrayLength; i++) {
+					expand(map, arrays, JFlat.indexPath(path, i), child, entries, values, nodes, handlers);
+				}
+			} else {
+				expand(map, arrays, path, child, entries, values, nodes, handlers);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the properties of the specified entry and pass a record to each query that ends at this node
+	 *
+	 * @param map The flat map of the document
+	 * @param entry The key of the entry
+	 * @param node The node of the entry in the tree of the entry keys
+	 * @param entries The entry of each level
+	 * @param values The values read from the entry of each level
+	 * @param nodes The node of each level
+	 * @param handlers The handler of each query
+	 * @throws IOException when a handler fails
+	 */
+	private void handleRecords(
+		FlatReader map,
+		String entry,
+		Node node,
+		String[] entries,
+		String[][] values,
+		Node[] nodes,
+		CsvRecordHandler[] handlers
+	) throws IOException {
+		// The "ID" of the entry, as stored in the map (if the entry actually exists)
+		String key = map.getKey(entry);
+		if (key == null) {
+			return;
+		}
+
+		for (int j = 0; j < node.queries.length; j++) {
+			int[] queryDepths = node.depths[j];
+			int[] queryColumns = node.columns[j];
+			String[] record = new String[queryColumns.length];
+			for (int i = 0; i < record.length; i++) {
+				record[i] = getValue(map, queryDepths[i], queryColumns[i], entries, values, nodes);
+			}
+			handlers[node.queries[j]].handle(key, record);
+		}
+	}
+
+	/**
+	 * Get a value from the entry of the specified level, looked up in the map only once per entry
+	 *
+	 * @param map The flat map of the document
+	 * @param depth The level of the entry
+	 * @param column Index of the suffix in the node of that level
+	 * @param entries The entry of each level
+	 * @param values The values read from the entry of each level
+	 * @param nodes The node of each level
+	 * @return The value ("" when not found)
+	 */
+	private static String getValue(
+		FlatReader map,
+		int depth,
+		int column,
+		String[] entries,
+		String[][] values,
+		Node[] nodes
+	) {
+		if (values[depth] == null) {
+			values[depth] = new String[nodes[depth].suffixes.size()];
+		}
+		String value = values[depth][column];
+		if (value == null) {
+			value = map.get(entries[depth] + nodes[depth].suffixes.get(column));
+			values[depth][column] = value = value == null ? "" : value;
+		}
+		return value;
+	}
+
+	/**
+	 * @param array An array
+	 * @param value The value to add
+	 * @return A copy of the array, with the specified value at the end
+	 */
+	private static int[] append(int[] array, int value) {
+		int[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = value;
+		return result;
+	}
+
+	/**
+	 * @param array An array
+	 * @param value The value to add
+	 * @return A copy of the array, with the specified value at the end
+	 */
+	private static int[][] append(int[][] array, int[] value) {
+		int[][] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = value;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(queries);
+	}
+}
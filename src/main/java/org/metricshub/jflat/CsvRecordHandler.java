@@ -0,0 +1,40 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+
+/**
+ * Receives the records of a CSV conversion, one at a time, as soon as they are produced.
+ *
+ * @see JFlat#forEachCSVRecord(String, String[], CsvRecordHandler)
+ */
+@FunctionalInterface
+public interface CsvRecordHandler {
+	/**
+	 * Handle one record (line) of the CSV
+	 *
+	 * @param key Key of the entry in the flat map (the first field of the CSV line)
+	 * @param values Value of each of the requested properties ("" when not found)
+	 * @throws IOException when the record cannot be written
+	 */
+	void handle(String key, String[] values) throws IOException;
+}
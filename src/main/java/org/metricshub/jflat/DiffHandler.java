@@ -0,0 +1,43 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+
+/**
+ * Receives the differences between two versions of a flattened document, one key at a time,
+ * in the order of the keys.
+ *
+ * @see JFlatDiff
+ */
+@FunctionalInterface
+public interface DiffHandler {
+	/**
+	 * Handle one difference
+	 *
+	 * @param change Whether the key has been added or removed, or its value changed
+	 * @param key Key in the flat map
+	 * @param oldValue The value in the first version (null when the key has been added)
+	 * @param newValue The value in the second version (null when the key has been removed)
+	 * @throws IOException when the difference cannot be handled
+	 */
+	void handle(JFlatDiff.Change change, String key, String oldValue, String newValue) throws IOException;
+}
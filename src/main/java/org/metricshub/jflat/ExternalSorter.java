@@ -0,0 +1,485 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Receives the pairs of key/value of a document that may not fit in memory, and writes them to a file
+ * in the format of {@link JFlatBinary}, sorted like the flat map of {@link JFlat}.
+ * <p>
+ * The pairs (and the lengths of the arrays) are kept in memory until their estimated size exceeds the memory budget.
+ * They are then written, sorted, to a temporary file (a run), and the memory is released. At the end,
+ * the runs are merged into the final file. When the same key (ignoring case) is in several runs, the first key
+ * is kept with the last value, like in a {@link java.util.TreeMap}. The root ("" during the parsing) becomes "/".
+ * <p>
+ * When an object declares the same property twice, the content of the previous value is removed from memory,
+ * and the parts already written to the runs are left out of the merge.
+ */
+final class ExternalSorter implements FlatWriter {
+
+	/**
+	 * Estimated memory used by a pair in a {@link TreeMapStore}, in addition to the characters of the key
+	 * and of the value: the entry of the TreeMap, and the two String objects with their arrays
+	 * (the other storages use less)
+	 */
+	private static final int ENTRY_OVERHEAD = 120;
+
+	/**
+	 * Estimated memory used by an array in {@link ArrayIndex}, in addition to the characters of its path
+	 */
+	private static final int ARRAY_OVERHEAD = 60;
+
+	private final Path file;
+	private final long memoryBudget;
+	private final FlatStorage storage;
+	private final List<Path> runs = new ArrayList<Path>();
+
+	private FlatStore buffer;
+	private final ArrayIndex arrays = new ArrayIndex();
+	private long memory = 0;
+	private int countedArrays = 0;
+	private int spilled = 0;
+
+	/**
+	 * Paths of the values removed after some runs were written, with the number of runs written at that time:
+	 * the keys and arrays of these runs at these paths (or under them) are not merged
+	 */
+	private final Map<String, Integer> removed = new HashMap<String, Integer>();
+
+	/**
+	 * Encoded characters of the Strings written to the runs
+	 */
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * @param file The file to write (the runs are written in the same directory)
+	 * @param memoryBudget Maximum memory to use for the pairs and the arrays, in bytes
+	 * @param storage How to store the pairs in memory, until they're written to a run
+	 */
+	ExternalSorter(Path file, long memoryBudget, FlatStorage storage) {
+		this.file = file.toAbsolutePath();
+		this.memoryBudget = memoryBudget;
+		this.storage = storage;
+		this.buffer = storage.newStore();
+	}
+
+	/**
+	 * @return Where to register the arrays of the document, followed by a call to {@link #arrayRegistered(String)}
+	 * (emptied after each run, so its content is not the complete list of the arrays)
+	 */
+	ArrayIndex getArrays() {
+		return arrays;
+	}
+
+	/**
+	 * @return The number of runs written so far
+	 */
+	int getRunCount() {
+		return runs.size();
+	}
+
+	@Override
+	public void put(String key, String value) {
+		buffer.put(key, value);
+		memory += ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+		checkBudget();
+	}
+
+	@Override
+	public void arrayRegistered(String path) {
+		// The first array registered with a path is kept, the others are not in memory
+		if (arrays.size() > countedArrays) {
+			countedArrays = arrays.size();
+			memory += ARRAY_OVERHEAD + 2L * path.length();
+			checkBudget();
+		}
+	}
+
+	/**
+	 * Remove a value with its content (the keys and arrays at the specified path or under it),
+	 * when the property that contains it is declared again
+	 *
+	 * @param path Path of the value (case sensitive)
+	 */
+	void removeSubtree(String path) {
+		List<String> keys = new ArrayList<String>();
+		Iterator<Entry<String, String>> entries = buffer.withPrefix(path);
+		while (entries.hasNext()) {
+			Entry<String, String> entry = entries.next();
+			if (JFlat.isInSubtree(entry.getKey(), path)) {
+				keys.add(entry.getKey());
+				memory -= ENTRY_OVERHEAD + 2L * (entry.getKey().length() + entry.getValue().length());
+			}
+		}
+		for (String key : keys) {
+			buffer.remove(key);
+		}
+		arrays.removeSubtree(path);
+		countedArrays = arrays.size();
+
+		// The runs already written are filtered when they're merged
+		if (!runs.isEmpty()) {
+			removed.put(path, runs.size());
+		}
+	}
+
+	/**
+	 * @param key A key or the path of an array, read from a run
+	 * @param run Index of the run
+	 * @return Whether the key was removed after the run was written
+	 */
+	private boolean isRemoved(String key, int run) {
+		if (removed.isEmpty()) {
+			return false;
+		}
+		for (int end = 0; end <= key.length(); end++) {
+			if (end == key.length() || key.charAt(end) == '/' || key.charAt(end) == '[') {
+				Integer runCount = removed.get(key.substring(0, end));
+				if (runCount != null && runCount > run) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Write the pairs and the arrays in memory to a new run if they exceed the memory budget
+	 */
+	private void checkBudget() {
+		if (memory > memoryBudget) {
+			try {
+				spill();
+			} catch (IOException e) {
+				// Unwrapped by JFlat once the parser has been closed
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return spilled + buffer.size();
+	}
+
+	/**
+	 * Write the pairs and the arrays in memory to a new run, and release them
+	 *
+	 * @throws IOException when the run cannot be written
+	 */
+	private void spill() throws IOException {
+		Path run = Files.createTempFile(file.getParent(), "jflat", ".run");
+		runs.add(run);
+		try (
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 65536))
+		) {
+			out.writeInt(buffer.size());
+			for (Entry<String, String> entry : buffer) {
+				writeString(out, entry.getKey());
+				writeString(out, entry.getValue());
+			}
+			String[] paths = arrays.getPaths();
+			out.writeInt(paths.length);
+			for (String path : paths) {
+				writeString(out, path);
+				out.writeInt(arrays.getLength(path));
+			}
+		}
+
+		spilled += buffer.size();
+		buffer = storage.newStore();
+		arrays.clear();
+		memory = 0;
+		countedArrays = 0;
+	}
+
+	/**
+	 * Write the final file: merge the runs (if any) with what is still in memory
+	 *
+	 * @return The store that reads the file
+	 * @throws IOException when the runs cannot be read, or the file cannot be written
+	 */
+	BinaryStore finish() throws IOException {
+		List<RunReader> readers = new ArrayList<RunReader>();
+		try {
+			// Everything fits in memory: no need to merge anything
+			Iterator<Entry<String, String>> entries;
+			if (runs.isEmpty()) {
+				entries = buffer.iterator();
+			} else {
+				spill();
+				for (Path run : runs) {
+					readers.add(new RunReader(run, readers.size()));
+				}
+				entries = new MergeIterator(readers, this);
+			}
+
+			try (OutputStream out = Files.newOutputStream(file)) {
+				JFlatBinary.Writer writer = new JFlatBinary.Writer(out);
+				try {
+					writeEntries(writer, entries);
+				} catch (UncheckedIOException e) {
+					// From the merge of the runs
+					throw e.getCause();
+				}
+
+				// Then the arrays, in the order of the runs, so that the first one is kept
+				if (readers.isEmpty()) {
+					for (String path : arrays.getPaths()) {
+						writer.writeArray(path, arrays.getLength(path));
+					}
+				} else {
+					for (RunReader reader : readers) {
+						for (int i = reader.in.readInt(); i > 0; i--) {
+							String path = reader.readString();
+							int length = reader.in.readInt();
+							if (!isRemoved(path, reader.index)) {
+								writer.writeArray(path, length);
+							}
+						}
+					}
+				}
+				writer.finish();
+			}
+		} finally {
+			for (RunReader reader : readers) {
+				reader.close();
+			}
+			discard();
+		}
+
+		return JFlatBinary.readStore(MappedBytes.map(file));
+	}
+
+	/**
+	 * Delete the runs
+	 *
+	 * @throws IOException when a run cannot be deleted
+	 */
+	void discard() throws IOException {
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Write the sorted pairs, with the root ("") as "/"
+	 * <p>
+	 * "" and "/" are the first two keys, since all the others start with "/". Like {@link JFlat},
+	 * the root replaces the value of a "/" key (a property with an empty name at the root).
+	 *
+	 * @param writer Where to write the pairs
+	 * @param entries The sorted pairs
+	 * @throws IOException when writing fails
+	 */
+	private static void writeEntries(JFlatBinary.Writer writer, Iterator<Entry<String, String>> entries)
+		throws IOException {
+		String root = null;
+		while (entries.hasNext()) {
+			Entry<String, String> entry = entries.next();
+			if (entry.getKey().isEmpty()) {
+				root = entry.getValue();
+				continue;
+			}
+			if (root != null) {
+				if (entry.getKey().equals("/")) {
+					writer.writeEntry("/", root);
+					root = null;
+					continue;
+				}
+				writer.writeEntry("/", root);
+				root = null;
+			}
+			writer.writeEntry(entry.getKey(), entry.getValue());
+		}
+		if (root != null) {
+			writer.writeEntry("/", root);
+		}
+	}
+
+	/**
+	 * Write a String of any length: its length, then its characters (2 bytes each)
+	 *
+	 * @param out Where to write it
+	 * @param value The String
+	 * @throws IOException when writing fails
+	 */
+	private void writeString(DataOutputStream out, String value) throws IOException {
+		int length = value.length();
+		if (scratch.length < 2 * length) {
+			scratch = new byte[2 * length];
+		}
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			scratch[2 * i] = (byte) (c >>> 8);
+			scratch[2 * i + 1] = (byte) c;
+		}
+		out.writeInt(length);
+		out.write(scratch, 0, 2 * length);
+	}
+
+	/**
+	 * Sequential reader of the pairs of a run
+	 */
+	private static final class RunReader implements Closeable {
+
+		private final DataInputStream in;
+
+		/**
+		 * Index of the run: for the same key, the later runs have the latest value
+		 */
+		private final int index;
+
+		private int remaining;
+		private String key;
+		private String value;
+		private byte[] scratch = new byte[256];
+
+		private RunReader(Path run, int index) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 65536));
+			this.index = index;
+			remaining = in.readInt();
+		}
+
+		/**
+		 * Read the next pair
+		 *
+		 * @return Whether there was a pair to read
+		 * @throws IOException when reading fails
+		 */
+		private boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			key = readString();
+			value = readString();
+			return true;
+		}
+
+		/**
+		 * @return The String written by {@link ExternalSorter#writeString(DataOutputStream, String)}
+		 * @throws IOException when reading fails
+		 */
+		private String readString() throws IOException {
+			int length = in.readInt();
+			if (scratch.length < 2 * length) {
+				scratch = new byte[2 * length];
+			}
+			in.readFully(scratch, 0, 2 * length);
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char) (((scratch[2 * i] & 0xFF) << 8) | (scratch[2 * i + 1] & 0xFF));
+			}
+			return new String(chars);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Merge of the sorted runs
+	 * <p>
+	 * The same key may be in several runs: the first key is returned (with its case) with the value of the last run.
+	 * The keys removed after their run was written are skipped.
+	 */
+	private static final class MergeIterator implements Iterator<Entry<String, String>> {
+
+		private final ExternalSorter sorter;
+
+		private final PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+			(a, b) -> {
+				int result = String.CASE_INSENSITIVE_ORDER.compare(a.key, b.key);
+				return result != 0 ? result : Integer.compare(a.index, b.index);
+			}
+		);
+
+		private MergeIterator(List<RunReader> readers, ExternalSorter sorter) throws IOException {
+			this.sorter = sorter;
+			for (RunReader reader : readers) {
+				advance(reader);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public Entry<String, String> next() {
+			if (queue.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				RunReader reader = queue.poll();
+				String key = reader.key;
+				String value = reader.value;
+				advance(reader);
+
+				// The same key in the next runs
+				while (!queue.isEmpty() && queue.peek().key.equalsIgnoreCase(key)) {
+					reader = queue.poll();
+					value = reader.value;
+					advance(reader);
+				}
+				return new SimpleImmutableEntry<String, String>(key, value);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * Read the next pair of the run that was not removed, and put it back in the queue (unless it's finished)
+		 */
+		private void advance(RunReader reader) throws IOException {
+			while (reader.next()) {
+				if (!sorter.isRemoved(reader.key, reader.index)) {
+					queue.add(reader);
+					return;
+				}
+			}
+		}
+	}
+}
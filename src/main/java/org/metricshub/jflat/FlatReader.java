@@ -0,0 +1,96 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * Read access to the flat map: pairs of keys (paths in the JSON document) and values.
+ * <p>
+ * Implementations must behave like a {@link java.util.TreeMap} with {@link String#CASE_INSENSITIVE_ORDER}:
+ * keys are case iNsEnSiTiVe, the first key stored keeps its case when the same key is put again with
+ * a different case, and the entries are iterated in the order of {@link String#CASE_INSENSITIVE_ORDER}.
+ * <p>
+ * This is the read side of {@link FlatStore}, for the stores that cannot be modified once built
+ * (the snapshots, and the documents in the format of {@link JFlatBinary}).
+ */
+interface FlatReader extends Iterable<Entry<String, String>> {
+	/**
+	 * @param key The key (case insensitive)
+	 * @return The value associated to the key, or null if none
+	 */
+	String get(String key);
+
+	/**
+	 * @param key The key (case insensitive)
+	 * @return The key as it has been stored (with its original case), or null if none
+	 */
+	String getKey(String key);
+
+	/**
+	 * @param key The key (case insensitive)
+	 * @return Whether there is a value for this key
+	 */
+	default boolean containsKey(String key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * @return The number of entries
+	 */
+	int size();
+
+	/**
+	 * @return Whether there is no entry
+	 */
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Range scan of the keys that start with the specified prefix
+	 * <p>
+	 * Since entries are sorted, these keys are next to each other: the scan costs O(log n + k),
+	 * where k is the number of entries returned.
+	 *
+	 * @param prefix The prefix of the keys (case insensitive)
+	 * @return An iterator on the matching entries, in the order of {@link String#CASE_INSENSITIVE_ORDER}
+	 */
+	Iterator<Entry<String, String>> withPrefix(String prefix);
+
+	/**
+	 * Range scan of the keys that are greater than or equal to the specified key
+	 * <p>
+	 * Like {@link #withPrefix(String)}, the scan starts in O(log n), so that a caller going through
+	 * the entries can jump over a range of keys it doesn't need.
+	 *
+	 * @param fromKey The lowest key to return (case insensitive), which doesn't need to be in the store
+	 * @return An iterator on the matching entries, in the order of {@link String#CASE_INSENSITIVE_ORDER}
+	 */
+	Iterator<Entry<String, String>> tailIterator(String fromKey);
+
+	/**
+	 * @return An iterator on the entries, in the order of {@link String#CASE_INSENSITIVE_ORDER}
+	 */
+	@Override
+	Iterator<Entry<String, String>> iterator();
+}
@@ -0,0 +1,40 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+
+/**
+ * Receives the pairs of key/value of a JSON document, one at a time, as soon as they are read.
+ *
+ * @see JFlat#parseStream(boolean, FlatSink)
+ */
+@FunctionalInterface
+public interface FlatSink {
+	/**
+	 * Handle one pair of key/value
+	 *
+	 * @param key Path of the value in the document (<code>/</code> for the root)
+	 * @param value The value (<code>{object}</code> or <code>{array}</code> when it's an object or an array)
+	 * @throws IOException when the pair cannot be written
+	 */
+	void accept(String key, String value) throws IOException;
+}
@@ -0,0 +1,71 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+/**
+ * How the flat map of a JSON document is stored in memory.
+ *
+ * @see JFlat#setStorage(FlatStorage)
+ */
+public enum FlatStorage {
+	/**
+	 * A {@link java.util.TreeMap} of complete keys (the default)
+	 */
+	TREE_MAP {
+		@Override
+		FlatStore newStore() {
+			return new TreeMapStore();
+		}
+	},
+
+	/**
+	 * A tree of key prefixes, each shared prefix is stored only once.
+	 * <p>
+	 * This uses much less memory for the keys of large documents, where keys like
+	 * <code>/obj/array[123]/sub/field</code> repeat the same prefixes many times,
+	 * but lookups and insertions are a little slower.
+	 */
+	TRIE {
+		@Override
+		FlatStore newStore() {
+			return new TrieStore();
+		}
+	},
+
+	/**
+	 * A hash table of complete keys, sorted only once, when the entries are first iterated.
+	 * <p>
+	 * Parsing is faster, since an insertion never compares keys, and so are the lookups of
+	 * {@link JFlat#toCSV(String, String[], String)}. The output is the same as with {@link #TREE_MAP},
+	 * but the first ordered iteration (like {@link JFlat#getFlatTree()}) pays for the sort.
+	 */
+	HASH {
+		@Override
+		FlatStore newStore() {
+			return new HashStore();
+		}
+	};
+
+	/**
+	 * @return A new, empty store of this kind
+	 */
+	abstract FlatStore newStore();
+}
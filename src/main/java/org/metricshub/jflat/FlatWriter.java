@@ -0,0 +1,51 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+/**
+ * Receives the pairs of key/value of a document while it is flattened.
+ * <p>
+ * This is the write side of {@link FlatStore}, for the destinations of the streaming parser that are not
+ * stores that can be read (the temporary files of the external mode, for instance).
+ */
+interface FlatWriter {
+	/**
+	 * Associate the specified value with the specified key
+	 *
+	 * @param key The key (case insensitive)
+	 * @param value The value (not null)
+	 */
+	void put(String key, String value);
+
+	/**
+	 * @return The number of pairs received so far
+	 */
+	int size();
+
+	/**
+	 * Called when an array has been registered in the index of the arrays that goes with the pairs
+	 * <p>
+	 * Nothing to do by default: this is for the writers that account for the memory used by the index.
+	 *
+	 * @param path Path of the array
+	 */
+	default void arrayRegistered(String path) {}
+}
@@ -0,0 +1,304 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * Storage of the flat map in a hash table, sorted only when the entries are iterated.
+ * <p>
+ * Like {@link ArrayIndex}, the table is open-addressing, with the hash of the case-folded key computed once
+ * per key: an insertion or a lookup costs O(1), and never compares the key with the O(log n) keys of a tree,
+ * which share long prefixes in a flattened document. The entries are stored in the order of their insertion.
+ * <p>
+ * The first ordered iteration ({@link #iterator()}, {@link #tailIterator(String)}) sorts the keys in the order
+ * of {@link String#CASE_INSENSITIVE_ORDER}. This order is kept until a key is added or removed, so that
+ * {@link JFlat#getFlatTree()} and the other operations produce the same result as with a {@link java.util.TreeMap},
+ * while point lookups (like in {@link JFlat#toCSV(String, String[], String)}) never sort anything.
+ * Without this order, {@link #withPrefix(String)} scans the table and only sorts the matching keys.
+ */
+final class HashStore implements FlatStore {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The entries, in the order of their insertion (a removed entry has a null key)
+	 */
+	private String[] keys = new String[INITIAL_CAPACITY];
+	private String[] values = new String[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private int count = 0;
+	private int size = 0;
+
+	/**
+	 * The hash table: index of the entry + 1 in each slot (0 for an empty slot)
+	 */
+	private int[] table = new int[2 * INITIAL_CAPACITY];
+
+	/**
+	 * Index of the entries in the order of their keys, or null if it must be computed again
+	 */
+	private int[] order;
+
+	@Override
+	public void put(String key, String value) {
+		int hash = ArrayIndex.hash(key);
+		int index = indexOf(key, hash);
+		if (index >= 0) {
+			// The first key keeps its case
+			values[index] = value;
+			return;
+		}
+
+		if (count == keys.length) {
+			grow();
+		}
+		keys[count] = key;
+		values[count] = value;
+		hashes[count] = hash;
+		insert(count, hash);
+		count++;
+		size++;
+		order = null;
+	}
+
+	@Override
+	public String get(String key) {
+		int index = indexOf(key, ArrayIndex.hash(key));
+		return index < 0 ? null : values[index];
+	}
+
+	@Override
+	public String getKey(String key) {
+		int index = indexOf(key, ArrayIndex.hash(key));
+		return index < 0 ? null : keys[index];
+	}
+
+	@Override
+	public String remove(String key) {
+		int index = indexOf(key, ArrayIndex.hash(key));
+		if (index < 0) {
+			return null;
+		}
+
+		// The slot keeps pointing to the removed entry, so that the keys after it are still found
+		String value = values[index];
+		keys[index] = null;
+		values[index] = null;
+		size--;
+		order = null;
+		return value;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> withPrefix(String prefix) {
+		// While the store is being modified (a property declared twice, during the parsing), scan the table
+		// and only sort the matching keys, rather than sorting all the keys again after each modification
+		if (order == null) {
+			String[] matches = new String[INITIAL_CAPACITY];
+			int matchCount = 0;
+			int last = prefix.length() - 1;
+			char lastChar = last < 0 ? 0 : ArrayIndex.fold(prefix.charAt(last));
+			for (int index = 0; index < count; index++) {
+				String key = keys[index];
+				// The keys share long prefixes: compare the last character first
+				if (
+					key != null &&
+					key.length() > last &&
+					(last < 0 || ArrayIndex.fold(key.charAt(last)) == lastChar) &&
+					key.regionMatches(true, 0, prefix, 0, prefix.length())
+				) {
+					if (matchCount == matches.length) {
+						matches = Arrays.copyOf(matches, matchCount * 2);
+					}
+					matches[matchCount++] = key;
+				}
+			}
+			return iterator(sortIndices(matches, matchCount), 0, matchCount);
+		}
+
+		int[] sorted = order;
+		int start = search(sorted, prefix);
+		int end = start;
+		while (end < sorted.length && keys[sorted[end]].regionMatches(true, 0, prefix, 0, prefix.length())) {
+			end++;
+		}
+		return iterator(sorted, start, end);
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> tailIterator(String fromKey) {
+		int[] sorted = getOrder();
+		return iterator(sorted, search(sorted, fromKey), sorted.length);
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		int[] sorted = getOrder();
+		return iterator(sorted, 0, sorted.length);
+	}
+
+	/**
+	 * @param key The key (case insensitive)
+	 * @param hash Hash of the case-folded key
+	 * @return The index of the entry, or -1 if not found
+	 */
+	private int indexOf(String key, int hash) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			int index = table[slot] - 1;
+			if (hashes[index] == hash && keys[index] != null && keys[index].equalsIgnoreCase(key)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add an entry to the hash table
+	 *
+	 * @param index Index of the entry
+	 * @param hash Hash of its case-folded key
+	 */
+	private void insert(int index, int hash) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = index + 1;
+	}
+
+	/**
+	 * Make room for more entries: drop the removed ones, or double the capacity
+	 */
+	private void grow() {
+		int capacity = size < keys.length / 2 ? keys.length : keys.length * 2;
+		String[] oldKeys = keys;
+		String[] oldValues = values;
+		int[] oldHashes = hashes;
+
+		keys = new String[capacity];
+		values = new String[capacity];
+		hashes = new int[capacity];
+		table = new int[2 * capacity];
+		count = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				keys[count] = oldKeys[i];
+				values[count] = oldValues[i];
+				hashes[count] = oldHashes[i];
+				insert(count, hashes[count]);
+				count++;
+			}
+		}
+		order = null;
+	}
+
+	/**
+	 * @return The index of the entries, in the order of their keys (sorted if needed)
+	 */
+	private int[] getOrder() {
+		if (order == null) {
+			String[] allKeys = new String[size];
+			int i = 0;
+			for (int index = 0; index < count; index++) {
+				if (keys[index] != null) {
+					allKeys[i++] = keys[index];
+				}
+			}
+			order = sortIndices(allKeys, allKeys.length);
+		}
+		return order;
+	}
+
+	/**
+	 * Sort the specified keys, then find the index of each one (a key is unique, ignoring case)
+	 *
+	 * @param someKeys Keys of the store (sorted in place)
+	 * @param length Number of keys to sort, at the beginning of the array
+	 * @return The index of the entries, in the order of their keys
+	 */
+	private int[] sortIndices(String[] someKeys, int length) {
+		Arrays.sort(someKeys, 0, length, String.CASE_INSENSITIVE_ORDER);
+		int[] sorted = new int[length];
+		for (int i = 0; i < length; i++) {
+			sorted[i] = indexOf(someKeys[i], ArrayIndex.hash(someKeys[i]));
+		}
+		return sorted;
+	}
+
+	/**
+	 * @param sorted The index of the entries, in the order of their keys
+	 * @param key A key (case insensitive)
+	 * @return The position of the first key that is greater than or equal to the specified key
+	 */
+	private int search(int[] sorted, String key) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (String.CASE_INSENSITIVE_ORDER.compare(keys[sorted[middle]], key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param sorted The index of the entries, in the order of their keys
+	 * @param start Position of the first entry
+	 * @param end Position after the last entry
+	 * @return An iterator on the specified entries
+	 */
+	private Iterator<Entry<String, String>> iterator(int[] sorted, int start, int end) {
+		return new Iterator<Entry<String, String>>() {
+			private int next = start;
+
+			@Override
+			public boolean hasNext() {
+				return next < end;
+			}
+
+			@Override
+			public Entry<String, String> next() {
+				if (next >= end) {
+					throw new NoSuchElementException();
+				}
+				int index = sorted[next++];
+				return new SimpleImmutableEntry<String, String>(keys[index], values[index]);
+			}
+		};
+	}
+}
@@ -20,23 +20,48 @@ package org.metricshub.jflat;
  * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
-import javax.json.Json;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
 import javax.json.JsonArray;
 import javax.json.JsonException;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
 import javax.json.JsonString;
 import javax.json.JsonStructure;
 import javax.json.JsonValue;
+import javax.json.JsonValue.ValueType;
+import javax.json.spi.JsonProvider;
 import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
 import javax.json.stream.JsonParsingException;
 
 /**
@@ -46,11 +71,32 @@ import javax.json.stream.JsonParsingException;
  */
 public class JFlat {
 
-	private TreeMap<String, String> map = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER); // IMPORTANT: The map is case iNsEnSiTiVe!
-	private ArrayList<String> arrayPaths = new ArrayList<String>();
-	private ArrayList<Integer> arrayLengths = new ArrayList<Integer>();
+	/**
+	 * The default JSON provider and its factories, looked up only once (they are thread-safe)
+	 */
+	private static final class DefaultFactories {
+
+		private static final JsonProvider PROVIDER = JsonProvider.provider();
+		private static final JsonReaderFactory READER_FACTORY = PROVIDER.createReaderFactory(Collections.emptyMap());
+		private static final JsonParserFactory PARSER_FACTORY = PROVIDER.createParserFactory(Collections.emptyMap());
+	}
+
+	private FlatStorage storage = FlatStorage.TREE_MAP;
+	private FlatReader map = storage.newStore(); // IMPORTANT: The map is case iNsEnSiTiVe!
+	private ArrayIndex arrays = new ArrayIndex();
 	private Reader inputReader;
+	private InputStream inputStream;
+	private Charset inputCharset;
 	private boolean parsed = false;
+	private int parallelThreshold = 0;
+	private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+	private JsonReaderFactory readerFactory;
+	private JsonParserFactory parserFactory;
+	private SubtreeHashes hashes;
+	private ValueIndex values;
+	private Path externalFile;
+	private long memoryBudget;
+	private JFlatListener listener;
 
 	/**
 	 * Create a new JFlat instance
@@ -68,6 +114,231 @@ public class JFlat {
 		this(pJsonSource == null ? new StringReader("") : new StringReader(pJsonSource));
 	}
 
+	/**
+	 * Create a new JFlat instance that reads the JSON document from bytes
+	 * <p>
+	 * The bytes are decoded while parsing, without building an intermediate String.
+	 *
+	 * @param pJsonStream The stream of bytes of the JSON document
+	 * @param charset Encoding of the document (null to detect UTF-8, UTF-16 or UTF-32 automatically)
+	 */
+	public JFlat(InputStream pJsonStream, Charset charset) {
+		inputStream = pJsonStream;
+		inputCharset = charset;
+	}
+
+	/**
+	 * @param pJsonBytes JSON document to be parsed, encoded in UTF-8 (or UTF-16 or UTF-32, detected automatically)
+	 */
+	public JFlat(byte[] pJsonBytes) {
+		this(new ByteArrayInputStream(pJsonBytes == null ? new byte[0] : pJsonBytes), null);
+	}
+
+	/**
+	 * @param pJsonBuffer JSON document to be parsed (from the position to the limit of the buffer, which are not
+	 * modified), encoded in UTF-8 (or UTF-16 or UTF-32, detected automatically)
+	 */
+	public JFlat(ByteBuffer pJsonBuffer) {
+		this(new ByteBufferInputStream(pJsonBuffer == null ? ByteBuffer.allocate(0) : pJsonBuffer), null);
+	}
+
+	/**
+	 * Create a new JFlat instance that reads the specified file, mapped in memory
+	 * <p>
+	 * The file is not loaded in the heap: the parser reads the mapped bytes directly.
+	 * The encoding (UTF-8, UTF-16 or UTF-32) is detected automatically.
+	 *
+	 * @param path Path to the JSON file
+	 * @return A new JFlat instance for the file (to be parsed)
+	 * @throws IOException when the file cannot be opened or mapped
+	 */
+	public static JFlat fromFile(Path path) throws IOException {
+		List<InputStream> segments = new ArrayList<InputStream>();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// A mapping cannot exceed 2 GB, so larger files are mapped in several segments
+			long size = channel.size();
+			for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+				long length = Math.min(Integer.MAX_VALUE, size - position);
+				ByteBuffer segment = channel.map(MapMode.READ_ONLY, position, length);
+				segments.add(new ByteBufferInputStream(segment));
+			}
+		}
+
+		// The mappings remain valid after the channel is closed
+		if (segments.size() == 1) {
+			return new JFlat(segments.get(0), null);
+		}
+		return new JFlat(new SequenceInputStream(Collections.enumeration(segments)), null);
+	}
+
+	/**
+	 * Choose how the flat map is stored in memory (a TreeMap by default)
+	 * <p>
+	 * Use {@link FlatStorage#TRIE} to reduce the memory used by large documents.
+	 * The result of all operations is the same, whatever the storage.
+	 *
+	 * @param storage The kind of storage to use for the flat map
+	 * @throws IllegalArgumentException when storage is null
+	 * @throws IllegalStateException when the document has already been parsed
+	 */
+	public void setStorage(FlatStorage storage) throws IllegalArgumentException, IllegalStateException {
+		if (storage == null) {
+			throw new IllegalArgumentException("storage cannot be null");
+		}
+		if (parsed) {
+			throw new IllegalStateException("Storage must be chosen before parsing the JSON document");
+		}
+		this.storage = storage;
+	}
+
+	/**
+	 * Compute a hash of each object and array of the document while parsing it (disabled by default),
+	 * so that {@link JFlatDiff} can skip the parts that didn't change since another version of the document
+	 * <p>
+	 * The hashes are not computed when {@link #parseStream(CsvQuery, boolean)} only parses a part of the document.
+	 *
+	 * @param enabled Whether to compute the hashes
+	 * @throws IllegalStateException when the document has already been parsed
+	 */
+	public void setSubtreeHashes(boolean enabled) throws IllegalStateException {
+		if (parsed) {
+			throw new IllegalStateException("Hashes must be enabled before parsing the JSON document");
+		}
+		hashes = enabled ? new SubtreeHashes() : null;
+	}
+
+	/**
+	 * Keep the type of each value while parsing the document (disabled by default), and the numbers themselves
+	 * as primitives, so that {@link #toColumns(String, String[])} returns columns of longs and doubles without
+	 * formatting or parsing any String
+	 * <p>
+	 * The flat map is the same. The types are not kept in external mode (see {@link #setExternal(Path, long)}),
+	 * nor in the snapshots of the document.
+	 *
+	 * @param enabled Whether to keep the type of the values
+	 * @throws IllegalStateException when the document has already been parsed
+	 */
+	public void setTypedValues(boolean enabled) throws IllegalStateException {
+		if (parsed) {
+			throw new IllegalStateException("Typed values must be enabled before parsing the JSON document");
+		}
+		values = enabled ? new ValueIndex() : null;
+	}
+
+	/**
+	 * Parse the document in external mode, for documents that don't fit in memory (disabled by default)
+	 * <p>
+	 * The document is read with the streaming parser (by {@link #parse(boolean)} as well), and the pairs
+	 * of key/value are written to temporary files, sorted, whenever they exceed the memory budget.
+	 * These files are then merged into the specified file, in the format of {@link JFlatBinary}, which is mapped
+	 * in memory: {@link #getFlatTree()}, {@link #toCSV(String, String[], String)} and the other operations
+	 * read it directly, with the same result as in memory. Only the lengths of the arrays are loaded in memory.
+	 * <p>
+	 * The temporary files are created in the directory of the file. The file is kept once parsed: it can be opened
+	 * later with {@link JFlatBinary#open(Path)}. The hashes of {@link #setSubtreeHashes(boolean)} are not computed,
+	 * and the storage of {@link #setStorage(FlatStorage)} is used for the pairs kept in memory until they're written
+	 * to a temporary file.
+	 *
+	 * @param file The file to write the flattened document to (replaced if it exists), or null to disable the external mode
+	 * @param memoryBudget Approximate maximum memory used by the pairs of key/value (and the arrays) during the parsing, in bytes
+	 * @throws IllegalArgumentException when memoryBudget is not positive
+	 * @throws IllegalStateException when the document has already been parsed
+	 */
+	public void setExternal(Path file, long memoryBudget) throws IllegalArgumentException, IllegalStateException {
+		if (file != null && memoryBudget <= 0) {
+			throw new IllegalArgumentException("memoryBudget must be positive");
+		}
+		if (parsed) {
+			throw new IllegalStateException("External mode must be enabled before parsing the JSON document");
+		}
+		this.externalFile = file;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Use the specified JSON provider to parse the document, instead of the default one
+	 * (which is looked up only once and shared by all JFlat instances)
+	 *
+	 * @param provider The JSON provider
+	 * @param config Configuration of the reader and parser factories (provider specific, may be empty)
+	 * @throws IllegalArgumentException when provider is null
+	 */
+	public void setJsonProvider(JsonProvider provider, Map<String, ?> config) throws IllegalArgumentException {
+		if (provider == null) {
+			throw new IllegalArgumentException("provider cannot be null");
+		}
+		if (config == null) {
+			config = Collections.emptyMap();
+		}
+		readerFactory = provider.createReaderFactory(config);
+		parserFactory = provider.createParserFactory(config);
+	}
+
+	/**
+	 * Use the specified factory to read the document with {@link #parse(boolean)}
+	 * <p>
+	 * Factories are thread-safe: create them once and share them between all JFlat instances.
+	 *
+	 * @param factory The JSON reader factory (null for the default one)
+	 */
+	public void setReaderFactory(JsonReaderFactory factory) {
+		readerFactory = factory;
+	}
+
+	/**
+	 * Use the specified factory to read the document with {@link #parseStream(boolean)}
+	 * <p>
+	 * Factories are thread-safe: create them once and share them between all JFlat instances.
+	 *
+	 * @param factory The JSON parser factory (null for the default one)
+	 */
+	public void setParserFactory(JsonParserFactory factory) {
+		parserFactory = factory;
+	}
+
+	/**
+	 * Flatten the large arrays of the document in parallel, with {@link #parse(boolean)}
+	 * <p>
+	 * Arrays with at least the specified number of entries are split into chunks that are flattened
+	 * concurrently, then merged in order: the result is exactly the same as with a sequential parsing.
+	 * This is only worth it for very large arrays (tens of thousands of entries).
+	 * The streaming parser ({@link #parseStream(boolean)}) always runs sequentially.
+	 *
+	 * @param threshold Minimum number of entries of an array to flatten it in parallel (0 to disable, the default)
+	 * @throws IllegalArgumentException when threshold is negative
+	 */
+	public void setParallelThreshold(int threshold) throws IllegalArgumentException {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("threshold cannot be negative");
+		}
+		parallelThreshold = threshold;
+	}
+
+	/**
+	 * @param pool The pool that flattens large arrays in parallel (the common pool by default)
+	 * @throws IllegalArgumentException when pool is null
+	 * @see #setParallelThreshold(int)
+	 */
+	public void setForkJoinPool(ForkJoinPool pool) throws IllegalArgumentException {
+		if (pool == null) {
+			throw new IllegalArgumentException("pool cannot be null");
+		}
+		forkJoinPool = pool;
+	}
+
+	/**
+	 * Report the duration of each phase of the parsing and of the CSV conversions, and the counters of the document
+	 * (length, number of values of each type, arrays, size of the flat map), to the specified listener
+	 * <p>
+	 * Without a listener (the default), nothing is measured or counted.
+	 *
+	 * @param listener The listener (null to disable), which may be shared by several JFlat instances
+	 * @see JFlatMetrics
+	 */
+	public void setListener(JFlatListener listener) {
+		this.listener = listener;
+	}
+
 	/**
 	 * Parse the JSON document
 	 * <p>
@@ -93,23 +364,32 @@ public class JFlat {
 	 * @throws IllegalStateException when... actually never in a single-thread context
 	 */
 	public void parse(boolean removeNodes) throws ParseException, IOException, IllegalStateException {
+		// The tree would not fit in memory either
+		if (externalFile != null) {
+			parseStream((PathFilter) null, removeNodes, null);
+			return;
+		}
+
+		// Count the values only when there is a listener
+		ParseCounters counters = listener == null ? null : new ParseCounters();
+		long start = listener == null ? 0 : System.nanoTime();
+
 		// Read the JSON source
-		JsonReader reader = Json.createReader(inputReader);
+		JsonReader reader = null;
 		JsonStructure root;
 
 		try {
-			root = reader.read();
+			reader = createJsonReader(counters);
+			JsonValue value = reader.readValue();
+			if (!(value instanceof JsonStructure)) {
+				// Same as the streaming parser
+				throw new IOException("JSON document must be an object or an array");
+			}
+			root = (JsonStructure) value;
 		} catch (JsonParsingException e) {
-			JsonLocation location = e.getLocation();
-			throw new ParseException(
-				"JSON syntax error in the specified source at line " +
-				location.getLineNumber() +
-				", column " +
-				location.getColumnNumber(),
-				(int) location.getStreamOffset()
-			);
+			throw toParseException(e);
 		} catch (JsonException e) {
-			throw new IOException(e.getCause());
+			throw toIOException(e);
 		} finally {
 			// In any case, close the reader
 			if (reader != null) {
@@ -117,18 +397,291 @@ public class JFlat {
 			}
 		}
 
+		start = phaseCompleted(JFlatListener.Phase.READ, start);
+
 		// Parse it and build the hash map
-		navigateTree(root, "", removeNodes);
+		FlatStore store = storage.newStore();
+		navigateTree(root, new StringBuilder(), removeNodes, store, arrays, hashes, values, counters);
+		start = phaseCompleted(JFlatListener.Phase.FLATTEN, start);
+
+		// Some adjustments for the root value
+		fixRoot(store);
+		map = store;
+		phaseCompleted(JFlatListener.Phase.ROOT_FIXUP, start);
+
+		// Remember that the parsing has been done
+		parsed = true;
+		if (counters != null) {
+			counters.report(listener, map.size());
+		}
+	}
+
+	/**
+	 * Parse the JSON document with a streaming parser
+	 * <p>
+	 * This is an alternative to {@link #parse()} that never builds the JSON tree in memory.
+	 *
+	 * @throws ParseException when any error occurs during the parsing
+	 * @throws IOException when the stream cannot be read
+	 * @throws IllegalStateException when... actually never in a single-thread context
+	 */
+	public void parseStream() throws ParseException, IOException, IllegalStateException {
+		parseStream(false);
+	}
+
+	/**
+	 * Parse the JSON document with a streaming parser
+	 * <p>
+	 * This is an alternative to {@link #parse(boolean)} that never builds the JSON tree in memory:
+	 * the flat map and the array metadata are populated in one forward pass over the parser events,
+	 * with the same result. Only the paths of the enclosing objects and arrays are kept during the parsing.
+	 * <p>
+	 * Like the tree, when an object declares the same property twice, only the last value is kept: the keys
+	 * and arrays of the previous value are removed (and the hashes of {@link #setSubtreeHashes(boolean)}
+	 * are not computed for such a document). Properties whose names only differ by case are merged,
+	 * like with {@link #parse(boolean)}, but in the order of the document.
+	 *
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 *
+	 * @throws ParseException when any error occurs during the parsing
+	 * @throws IOException when the stream cannot be read
+	 * @throws IllegalStateException when... actually never in a single-thread context
+	 */
+	public void parseStream(boolean removeNodes) throws ParseException, IOException, IllegalStateException {
+		parseStream((PathFilter) null, removeNodes, null);
+	}
+
+	/**
+	 * Parse the JSON document with a streaming parser, and pass each pair of key/value to the specified sink
+	 * as soon as it is read, instead of storing it in the flat map
+	 * <p>
+	 * The pairs are the same as with {@link #parseStream(boolean)}, but in the order of the document (not sorted),
+	 * and the keys that appear several times in an object are passed each time. Only the paths of the enclosing
+	 * objects and arrays are kept in memory. The flat map is not built: the other operations of this instance
+	 * (like {@link #getFlatTree()}) cannot be used afterward.
+	 * <p>
+	 * The external mode ({@link #setExternal(Path, long)}), the hashes ({@link #setSubtreeHashes(boolean)})
+	 * and the typed values ({@link #setTypedValues(boolean)}) are ignored.
+	 *
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @param sink Receives each pair of key/value
+	 *
+	 * @throws ParseException when any error occurs during the parsing
+	 * @throws IOException when the stream cannot be read, or when the sink fails
+	 * @throws IllegalArgumentException when sink is null
+	 */
+	public void parseStream(boolean removeNodes, FlatSink sink)
+		throws ParseException, IOException, IllegalArgumentException {
+		if (sink == null) {
+			throw new IllegalArgumentException("sink cannot be null");
+		}
+		parseStream((PathFilter) null, removeNodes, new SinkWriter(sink));
+	}
+
+	/**
+	 * Parse only the parts of the JSON document that are needed by the specified CSV query
+	 * <p>
+	 * Like {@link #parseStream(boolean)}, but the objects and arrays that the query doesn't need are skipped
+	 * without storing their keys and values, and only the lengths of the arrays the query goes through
+	 * are recorded. {@link #toCSV(String, String[], String)} (or the query itself) produces the same result
+	 * as after a complete parsing, as long as it's called with the same entry key and properties,
+	 * while {@link #getFlatTree()} only shows the values that have been kept.
+	 *
+	 * @param query The CSV query that will be run against the document
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 *
+	 * @throws ParseException when any error occurs during the parsing
+	 * @throws IOException when the stream cannot be read
+	 * @throws IllegalStateException when... actually never in a single-thread context
+	 */
+	public void parseStream(CsvQuery query, boolean removeNodes)
+		throws ParseException, IOException, IllegalStateException {
+		parseStream(new PathFilter(query), removeNodes, null);
+	}
+
+	/**
+	 * Parse the JSON document with a streaming parser
+	 *
+	 * @param filter The paths to keep (null to keep everything)
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @param sink Where to pass the pairs of key/value instead of the flat map (null to build the flat map)
+	 *
+	 * @throws ParseException when any error occurs during the parsing
+	 * @throws IOException when the stream cannot be read (or when the sink fails)
+	 */
+	private void parseStream(PathFilter filter, boolean removeNodes, SinkWriter sink)
+		throws ParseException, IOException {
+		// Read the JSON source
+		JsonParser parser = null;
+
+		// The hashes would only describe the parts of the document that are kept
+		// (and they are not written to the file in external mode, or to the sink)
+		if (filter != null || externalFile != null || sink != null) {
+			hashes = null;
+		}
+
+		// The types are not written to the file in external mode either
+		if (externalFile != null) {
+			values = null;
+		}
+
+		// Count the values only when there is a listener
+		ParseCounters counters = listener == null ? null : new ParseCounters();
+		long start = listener == null ? 0 : System.nanoTime();
+
+		// In external mode, the pairs go through temporary files
+		boolean external = externalFile != null && sink == null;
+		ExternalSorter sorter = external ? new ExternalSorter(externalFile, memoryBudget, storage) : null;
+		FlatStore store = sink == null && sorter == null ? storage.newStore() : null;
+		boolean success = false;
+
+		try {
+			parser = createJsonParser(counters);
+
+			// Parse it and build the hash map (or pass the pairs to the sink, without keeping the arrays)
+			if (sink != null) {
+				navigateStream(parser, filter, removeNodes, sink, null, null, counters);
+			} else if (sorter == null) {
+				navigateStream(parser, filter, removeNodes, store, arrays, values, counters);
+			} else {
+				navigateStream(parser, filter, removeNodes, sorter, sorter.getArrays(), null, counters);
+			}
+			success = true;
+		} catch (UncheckedIOException e) {
+			// A temporary file of the external mode could not be written (or the sink failed)
+			throw e.getCause();
+		} catch (JsonParsingException e) {
+			throw toParseException(e);
+		} catch (JsonException e) {
+			throw toIOException(e);
+		} finally {
+			// In any case, close the parser
+			if (parser != null) {
+				parser.close();
+			}
+			// And delete the temporary files if the parsing failed
+			if (sorter != null && !success) {
+				sorter.discard();
+			}
+		}
+
+		// Nothing is stored with a sink (the root was already passed as "/")
+		if (sink != null) {
+			phaseCompleted(JFlatListener.Phase.FLATTEN, start);
+			if (counters != null) {
+				counters.report(listener, sink.size());
+			}
+			return;
+		}
 
-		// Some adjustments for the root value:
-		// at this stage it is represented as the "" key, but it should be "/"
-		if (map.containsKey("")) {
-			map.put("/", map.get(""));
-			map.remove("");
+		if (sorter == null) {
+			start = phaseCompleted(JFlatListener.Phase.FLATTEN, start);
+
+			// Some adjustments for the root value
+			fixRoot(store);
+			map = store;
+			phaseCompleted(JFlatListener.Phase.ROOT_FIXUP, start);
+		} else {
+			// Merge the temporary files into the file, and read it from now on
+			// (the root value is adjusted during the merge)
+			BinaryStore binary = sorter.finish();
+			map = binary;
+			arrays = binary.getArrays();
+			phaseCompleted(JFlatListener.Phase.FLATTEN, start);
 		}
 
 		// Remember that the parsing has been done
 		parsed = true;
+		if (counters != null) {
+			counters.report(listener, map.size());
+		}
+	}
+
+	/**
+	 * Report the duration of a phase to the listener (if any)
+	 *
+	 * @param phase The phase that has completed
+	 * @param start When it started (see {@link System#nanoTime()})
+	 * @return When it completed, which is when the next phase starts (0 without a listener)
+	 */
+	private long phaseCompleted(JFlatListener.Phase phase, long start) {
+		if (listener == null) {
+			return 0;
+		}
+		long end = System.nanoTime();
+		listener.phaseCompleted(phase, end - start);
+		return end;
+	}
+
+	/**
+	 * @param counters Counts the characters or bytes read (null to not count them)
+	 * @return A JSON reader for the source of the document (characters or bytes)
+	 */
+	private JsonReader createJsonReader(ParseCounters counters) {
+		JsonReaderFactory factory = readerFactory != null ? readerFactory : DefaultFactories.READER_FACTORY;
+		if (inputStream == null) {
+			return factory.createReader(counters == null ? inputReader : counters.count(inputReader));
+		}
+		InputStream stream = counters == null ? inputStream : counters.count(inputStream);
+		return inputCharset == null ? factory.createReader(stream) : factory.createReader(stream, inputCharset);
+	}
+
+	/**
+	 * @param counters Counts the characters or bytes read (null to not count them)
+	 * @return A JSON parser for the source of the document (characters or bytes)
+	 */
+	private JsonParser createJsonParser(ParseCounters counters) {
+		JsonParserFactory factory = parserFactory != null ? parserFactory : DefaultFactories.PARSER_FACTORY;
+		if (inputStream == null) {
+			return factory.createParser(counters == null ? inputReader : counters.count(inputReader));
+		}
+		InputStream stream = counters == null ? inputStream : counters.count(inputStream);
+		return inputCharset == null ? factory.createParser(stream) : factory.createParser(stream, inputCharset);
+	}
+
+	/**
+	 * Convert a syntax error reported by the JSON parser into a ParseException
+	 *
+	 * @param e The exception thrown by the parser
+	 * @return A ParseException with the line and column of the error
+	 */
+	private static ParseException toParseException(JsonParsingException e) {
+		JsonLocation location = e.getLocation();
+		return new ParseException(
+			"JSON syntax error in the specified source at line " +
+			location.getLineNumber() +
+			", column " +
+			location.getColumnNumber(),
+			(int) location.getStreamOffset()
+		);
+	}
+
+	/**
+	 * Convert an error reported by the JSON parser that is not a syntax error into an IOException
+	 *
+	 * @param e The exception thrown by the parser
+	 * @return An IOException with the cause of the error
+	 * @throws ParseException when the encoding of the bytes couldn't be detected (empty document, typically)
+	 */
+	private IOException toIOException(JsonException e) throws ParseException {
+		// The encoding is only detected for bytes without a charset, and this error has no cause
+		if (inputStream != null && inputCharset == null && e.getCause() == null) {
+			throw new ParseException(e.getMessage(), 0);
+		}
+		return new IOException(e.getCause() == null ? e : e.getCause());
+	}
+
+	/**
+	 * Some adjustments for the root value:
+	 * at this stage it is represented as the "" key, but it should be "/"
+	 *
+	 * @param store The flat map that has just been populated
+	 */
+	private static void fixRoot(FlatStore store) {
+		if (store.containsKey("")) {
+			store.put("/", store.get(""));
+			store.remove("");
+		}
 	}
 
 	/**
@@ -140,18 +693,37 @@ public class JFlat {
 	 * obj1.propC.arr[0].name = value
 	 * obj2.propC.arr[1].id = value
 	 * etc.
-	 * The method is recursive.
+	 * The method is recursive. The path of each value is built in the same buffer: the name of a property
+	 * (or the index of an entry) is appended to it before going through the value, and removed afterwards.
+	 * A String is only created for the keys that are stored.
 	 * @param tree Root of the JSON object to be parsed (can be an object or an array)
 	 * @param path Current path of the object (when originally called, the path is "" (root). Recursive call will specify where we are in the tree.
+	 * It is left as is when the method returns.
 	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @param map Where to add the pairs of keys/value (the document's map, or a partial one)
+	 * @param arrays Where to register the arrays (the document's index, or a partial one)
+	 * @param hashes Where to register the hashes of the objects and arrays (null to not compute them)
+	 * @param values Where to register the type of the values (null to not keep them)
+	 * @param counters Where to count the values and arrays (null to not count them)
+	 * @return The hash of the value (0 when not computing the hashes)
 	 */
-	private void navigateTree(JsonValue tree, String path, boolean removeNodes) {
+	private long navigateTree(
+		JsonValue tree,
+		StringBuilder path,
+		boolean removeNodes,
+		FlatStore map,
+		ArrayIndex arrays,
+		SubtreeHashes hashes,
+		ValueIndex values,
+		ParseCounters counters
+	) {
 		// Sanity check
 		if (tree == null) {
-			return;
+			return 0;
 		}
-		if (path == null) {
-			path = "";
+		int pathLength = path.length();
+		if (counters != null) {
+			counters.value(tree.getValueType());
 		}
 
 		// Depending on the type of the value where we are...
@@ -161,98 +733,733 @@ public class JFlat {
 				JsonObject object = (JsonObject) tree;
 
 				// Add it to the map as an object (if it wasn't asked to remove it)
+				String objectPath = removeNodes && hashes == null ? null : path.toString();
 				if (!removeNodes) {
-					map.put(path, "{object}");
+					map.put(objectPath, "{object}");
+					putType(values, objectPath, ValueIndex.OTHER);
 				}
+				int objectStart = map.size();
 
 				// Go through each property of the object
-				for (String name : object.keySet()) {
+				long objectHash = SubtreeHashes.object(removeNodes);
+				for (Entry<String, JsonValue> property : object.entrySet()) {
 					// The syntax of the path is object.propertyA
-					navigateTree(object.get(name), path + "/" + name, removeNodes);
+					path.append('/').append(property.getKey());
+					long valueHash = navigateTree(
+						property.getValue(),
+						path,
+						removeNodes,
+						map,
+						arrays,
+						hashes,
+						values,
+						counters
+					);
+					path.setLength(pathLength);
+					if (hashes != null) {
+						objectHash = SubtreeHashes.combine(objectHash, hashes.name(property.getKey()));
+						objectHash = SubtreeHashes.combine(objectHash, valueHash);
+					}
 				}
-				break;
+				return register(hashes, objectPath, objectHash, map.size() - objectStart);
 			case ARRAY:
 				// We have an array, that's the interesting case
 				JsonArray array = (JsonArray) tree;
 
 				// Add it to the map as an array (if it wasn't asked to remove it)
+				String arrayPath = path.toString();
 				if (!removeNodes) {
-					map.put(path, "{array}");
+					map.put(arrayPath, "{array}");
+					putType(values, arrayPath, ValueIndex.OTHER);
 				}
+				int arrayStart = map.size();
 
-				// Go through each entry in the array
+				// Go through each entry in the array (in parallel if it's large enough)
 				int i = 0;
-				for (JsonValue val : array) {
-					// Go through
-					navigateTree(val, path + "[" + i + "]", removeNodes);
-					i++;
+				long entriesHash = 0;
+				if (parallelThreshold > 0 && array.size() >= parallelThreshold) {
+					entriesHash = navigateArrayInParallel(
+						array,
+						arrayPath,
+						removeNodes,
+						map,
+						arrays,
+						hashes,
+						values,
+						counters
+					);
+					i = array.size();
+				} else {
+					for (JsonValue val : array) {
+						// Go through
+						path.append('[').append(i).append(']');
+						long valueHash = navigateTree(val, path, removeNodes, map, arrays, hashes, values, counters);
+						path.setLength(pathLength);
+						if (hashes != null) {
+							entriesHash += SubtreeHashes.entry(i, valueHash);
+						}
+						i++;
+					}
 				}
 
 				// Remember its path and length so we properly (and efficiently) parse it later
-				arrayPaths.add(path);
-				arrayLengths.add(i);
+				arrays.put(arrayPath, i);
+				if (counters != null) {
+					counters.array(i);
+				}
 
-				break;
+				long arrayHash = SubtreeHashes.array(entriesHash, i, removeNodes);
+				return register(hashes, arrayPath, arrayHash, map.size() - arrayStart);
 			case STRING:
 				// We got a string
 				JsonString st = (JsonString) tree;
 
 				// If so, add it to the map
-				map.put(path, st.getString());
-
-				break;
+				return putValue(map, hashes, values, path.toString(), st.getString(), ValueIndex.OTHER);
 			case NUMBER:
 				JsonNumber num = (JsonNumber) tree;
-				map.put(path, num.toString());
-				break;
+				return putNumber(map, hashes, values, path.toString(), num);
 			case TRUE:
 			case FALSE:
+				return putValue(map, hashes, values, path.toString(), tree.getValueType().toString(), ValueIndex.OTHER);
 			case NULL:
-				map.put(path, tree.getValueType().toString());
-				break;
+				return putValue(map, hashes, values, path.toString(), tree.getValueType().toString(), ValueIndex.NULL);
 			default:
-				break;
+				return 0;
 		}
 	}
 
 	/**
-	 * Dump the JSON tree as a String in the form: <br>
-	 * /object/array[0]/id=<i>0</i> <br>
-	 * /object/array[0]/name=<i>some value</i> <br>
-	 * /object/array[1]/id=... <br>
-	 * ... <br>
+	 * Add a value to the map
 	 *
-	 * @param valueSeparator String to be placed between each pair of key and value
+	 * @param map Where to add the value
+	 * @param hashes The hashes of the document (null when not computing them)
+	 * @param values The types of the values of the document (null when not keeping them)
+	 * @param path Path of the value
+	 * @param value The value
+	 * @param type Its type in the index of values ({@link ValueIndex#OTHER} or {@link ValueIndex#NULL})
+	 * @return The hash of the value (0 when not computing the hashes)
+	 */
+	private static long putValue(
+		FlatWriter map,
+		SubtreeHashes hashes,
+		ValueIndex values,
+		String path,
+		String value,
+		byte type
+	) {
+		map.put(path, value);
+		putType(values, path, type);
+		return hashes == null ? 0 : SubtreeHashes.value(value);
+	}
+
+	/**
+	 * Add a number to the map (and to the index of values, as a primitive)
 	 *
-	 * @return The String described above.
-	 * @throws IllegalStateException when the document has not been parsed first (call parse() first!)
+	 * @param map Where to add the number
+	 * @param hashes The hashes of the document (null when not computing them)
+	 * @param values The types of the values of the document (null when not keeping them)
+	 * @param path Path of the number
+	 * @param number The number, as read by the parser
+	 * @return The hash of the value (0 when not computing the hashes)
 	 */
-	public StringBuilder getFlatTree(String valueSeparator, String replaceEndOfLines) throws IllegalStateException {
-		// Did we parse the thing yet?
-		if (!parsed) {
-			throw new IllegalStateException("JSON document has not been parsed");
+	private static long putNumber(
+		FlatWriter map,
+		SubtreeHashes hashes,
+		ValueIndex values,
+		String path,
+		JsonNumber number
+	) {
+		if (values != null) {
+			values.putNumber(path, number);
 		}
+		return putValue(map, hashes, null, path, number.toString(), ValueIndex.OTHER);
+	}
 
-		// Use a StringBuilder to hold the result
-		StringBuilder result = new StringBuilder();
-
-		// Dump the tree
-		for (Entry<String, String> entry : map.entrySet()) {
-			result.append(entry.getKey()).append(valueSeparator);
-			// If we need to replace end of lines
-			if (replaceEndOfLines != null) {
-				result.append(entry.getValue().replace("\n", replaceEndOfLines)).append("\n");
-			} else {
-				result.append(entry.getValue()).append("\n");
-			}
+	/**
+	 * Register the type of a value that is not a number
+	 *
+	 * @param values The types of the values of the document (null when not keeping them)
+	 * @param path Path of the value
+	 * @param type Its type ({@link ValueIndex#OTHER} or {@link ValueIndex#NULL})
+	 */
+	private static void putType(ValueIndex values, String path, byte type) {
+		if (values != null) {
+			values.put(path, type, 0);
 		}
-
-		// Return
-		return result;
 	}
 
 	/**
-	 * Dump the JSON tree as a String in the form: <br>
+	 * Register the hash of an object or array
+	 *
+	 * @param hashes The hashes of the document (null when not computing them)
+	 * @param path Path of the object or array
+	 * @param hash Hash of its content
+	 * @param size Number of entries added to the map by its content
+	 * @return The hash (0 when not computing the hashes)
+	 */
+	private static long register(SubtreeHashes hashes, String path, long hash, int size) {
+		if (hashes == null) {
+			return 0;
+		}
+		hashes.put(path, hash, size);
+		return hash;
+	}
+
+	/**
+	 * Flatten the entries of a large array in parallel
+	 * <p>
+	 * The array is split into chunks, each one flattened into its own partial map and array index,
+	 * which are then merged in the order of the chunks. Since a later put replaces the value but keeps
+	 * the case of the first key (in the map), and the first array registered with a path is kept (in the index),
+	 * the merged result is the same as if the entries had been flattened one after the other.
+	 *
+	 * @param array The array to flatten
+	 * @param path Path of the array
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @param map Where to add the keys/values of the entries
+	 * @param arrays Where to register the arrays found in the entries
+	 * @param hashes Where to register the hashes of the objects and arrays of the entries (null to not compute them)
+	 * @param values Where to register the type of the values of the entries (null to not keep them)
+	 * @param counters Where to count the values and arrays of the entries (null to not count them)
+	 * @return The sum of the hashes of the entries (see {@link SubtreeHashes#entry(int, long)})
+	 */
+	private long navigateArrayInParallel(
+		JsonArray array,
+		String path,
+		boolean removeNodes,
+		FlatStore map,
+		ArrayIndex arrays,
+		SubtreeHashes hashes,
+		ValueIndex values,
+		ParseCounters counters
+	) {
+		// A few chunks per thread, so that they're well balanced
+		int size = array.size();
+		int chunkCount = Math.min(size, 4 * forkJoinPool.getParallelism());
+		ChunkTask[] chunks = new ChunkTask[chunkCount];
+		for (int c = 0; c < chunkCount; c++) {
+			int from = (int) ((long) size * c / chunkCount);
+			int to = (int) ((long) size * (c + 1) / chunkCount);
+			chunks[c] = new ChunkTask(
+				array,
+				path,
+				from,
+				to,
+				removeNodes,
+				hashes != null,
+				values != null,
+				counters != null
+			);
+		}
+
+		// Nested arrays are flattened in the pool we're already in (a JFlat running in another pool uses its own)
+		if (ForkJoinTask.getPool() == forkJoinPool) {
+			ForkJoinTask.invokeAll(chunks);
+		} else {
+			forkJoinPool.invoke(
+				new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(chunks);
+					}
+				}
+			);
+		}
+
+		// Merge, in order
+		long entriesHash = 0;
+		for (ChunkTask chunk : chunks) {
+			for (Entry<String, String> entry : chunk.map) {
+				map.put(entry.getKey(), entry.getValue());
+			}
+			arrays.putAll(chunk.arrays);
+			if (hashes != null) {
+				hashes.putAll(chunk.hashes);
+				entriesHash += chunk.entriesHash;
+			}
+			if (values != null) {
+				values.putAll(chunk.values);
+			}
+			if (counters != null) {
+				counters.addAll(chunk.counters);
+			}
+		}
+		return entriesHash;
+	}
+
+	/**
+	 * Flattens a range of entries of an array into a partial map and array index
+	 */
+	private final class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient JsonArray array;
+		private final String path;
+		private final int from;
+		private final int to;
+		private final boolean removeNodes;
+		private final transient FlatStore map = new TreeMapStore();
+		private final transient ArrayIndex arrays = new ArrayIndex();
+		private final transient SubtreeHashes hashes;
+		private final transient ValueIndex values;
+		private final transient ParseCounters counters;
+		private long entriesHash = 0;
+
+		private ChunkTask(
+			JsonArray array,
+			String path,
+			int from,
+			int to,
+			boolean removeNodes,
+			boolean hashing,
+			boolean typing,
+			boolean counting
+		) {
+			this.array = array;
+			this.path = path;
+			this.from = from;
+			this.to = to;
+			this.removeNodes = removeNodes;
+			this.hashes = hashing ? new SubtreeHashes() : null;
+			this.values = typing ? new ValueIndex() : null;
+			this.counters = counting ? new ParseCounters() : null;
+		}
+
+		@Override
+		protected void compute() {
+			StringBuilder entryPath = new StringBuilder(path);
+			for (int i = from; i < to; i++) {
+				entryPath.setLength(path.length());
+				entryPath.append('[').append(i).append(']');
+				long valueHash = navigateTree(
+					array.get(i),
+					entryPath,
+					removeNodes,
+					map,
+					arrays,
+					hashes,
+					values,
+					counters
+				);
+				if (hashes != null) {
+					entriesHash += SubtreeHashes.entry(i, valueHash);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the events of the JSON parser and populate the hash map with the same pairs of keys/value
+	 * as {@link #navigateTree(JsonValue, StringBuilder, boolean, FlatStore, ArrayIndex, SubtreeHashes, ValueIndex, ParseCounters)}.
+	 * <p>
+	 * The method is not recursive: the objects and arrays we are currently in are kept in a stack, with the length
+	 * of their path and the number of entries already read in each array. Like in navigateTree(), the path of
+	 * the current value is built in a single buffer, and a String is only created for the keys that are stored.
+	 * Reading stops as soon as the root object or array is closed.
+	 * <p>
+	 * With a filter, the properties that are not needed are skipped: their path is never built,
+	 * and their content is read through without being stored.
+	 *
+	 * @param parser The JSON parser, positioned before the root value
+	 * @param filter The paths to keep (null to keep everything)
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @param map Where to add the pairs of keys/value (the flat map, or another destination)
+	 * @param arrays Where to register the arrays (null to not register them)
+	 * @param values Where to register the type of the values (null to not keep them)
+	 * @param counters Where to count the values and arrays (null to not count them)
+	 * @throws IOException when the root value is neither an object nor an array
+	 */
+	private void navigateStream(
+		JsonParser parser,
+		PathFilter filter,
+		boolean removeNodes,
+		FlatWriter map,
+		ArrayIndex arrays,
+		ValueIndex values,
+		ParseCounters counters
+	) throws IOException {
+		// Length of the path of each enclosing object or array (the beginning of the current path),
+		// and its key in the map when it has been stored
+		int[] parentEnds = new int[16];
+		String[] parentKeys = new String[16];
+
+		// Number of entries read so far in each enclosing array (-1 for objects)
+		int[] parentLengths = new int[16];
+
+		// Filter node of each enclosing object or array (when filtering)
+		PathFilter.Node[] parentNodes = new PathFilter.Node[16];
+
+		// Hash of the content read so far in each enclosing object or array, and size of the map when
+		// it started (when computing the hashes)
+		long[] parentHashes = new long[16];
+		int[] parentStarts = new int[16];
+		int depth = 0;
+
+		// Names of the properties read so far in each enclosing object, to find those that are declared twice
+		// (only when the pairs go to the flat map or to the files of the external mode, where the previous value
+		// can be removed)
+		FlatStore store = map instanceof FlatStore ? (FlatStore) map : null;
+		ExternalSorter sorter = map instanceof ExternalSorter ? (ExternalSorter) map : null;
+		boolean lastValueWins = store != null || sorter != null;
+		List<Set<String>> parentNames = new ArrayList<Set<String>>();
+
+		// Path (and filter node) of the value we're about to read
+		StringBuilder path = new StringBuilder();
+		PathFilter.Node node = filter == null ? null : filter.getRoot();
+
+		do {
+			Event event = parser.next();
+
+			// Inside an array, the path of each value is path[i]
+			if (depth > 0 && parentLengths[depth - 1] >= 0 && event != Event.END_ARRAY) {
+				path.setLength(parentEnds[depth - 1]);
+				path.append('[').append(parentLengths[depth - 1]++).append(']');
+				node = parentNodes[depth - 1];
+			} else if (depth == 0 && event != Event.START_OBJECT && event != Event.START_ARRAY) {
+				// Same as parse()
+				throw new IOException("JSON document must be an object or an array");
+			}
+
+			// Whether the value is to be stored in the map
+			boolean keep = node == null || node.isKept();
+			if (counters != null) {
+				counters.value(event);
+			}
+
+			switch (event) {
+				case START_OBJECT:
+				case START_ARRAY:
+					// Add it to the map as an object or array (if it wasn't asked to remove it)
+					boolean isArray = event == Event.START_ARRAY;
+					String key = null;
+					if (!removeNodes && keep) {
+						key = path.toString();
+						map.put(key, isArray ? "{array}" : "{object}");
+						putType(values, key, ValueIndex.OTHER);
+					}
+
+					// Skip its content if it's not needed
+					if (node != null && !node.isTraversed()) {
+						skip(parser, event);
+						break;
+					}
+
+					// Enter the object or array
+					if (depth == parentEnds.length) {
+						parentEnds = Arrays.copyOf(parentEnds, depth * 2);
+						parentKeys = Arrays.copyOf(parentKeys, depth * 2);
+						parentLengths = Arrays.copyOf(parentLengths, depth * 2);
+						parentNodes = Arrays.copyOf(parentNodes, depth * 2);
+						parentHashes = Arrays.copyOf(parentHashes, depth * 2);
+						parentStarts = Arrays.copyOf(parentStarts, depth * 2);
+					}
+					parentEnds[depth] = path.length();
+					parentKeys[depth] = key;
+					parentLengths[depth] = isArray ? 0 : -1;
+					parentNodes[depth] = node;
+					parentHashes[depth] = isArray ? 0 : SubtreeHashes.object(removeNodes);
+					parentStarts[depth] = map.size();
+					if (lastValueWins && !isArray) {
+						resetNames(parentNames, depth);
+					}
+					depth++;
+					break;
+				case KEY_NAME:
+					String name = parser.getString();
+
+					// Skip the value of this property if it's not needed
+					if (filter != null) {
+						node = parentNodes[depth - 1].getChild(name);
+						if (node == null) {
+							skip(parser, parser.next());
+							break;
+						}
+					}
+
+					// The syntax of the path is object.propertyA
+					path.setLength(parentEnds[depth - 1]);
+					path.append('/').append(name);
+
+					// Same property again in this object: only its last value is kept, like in the tree
+					if (lastValueWins && !parentNames.get(depth - 1).add(name)) {
+						if (store != null) {
+							removeSubtree(store, arrays, values, path.toString());
+						} else {
+							sorter.removeSubtree(path.toString());
+						}
+						hashes = null;
+					}
+
+					// The name is part of the hash of the object, before the hash of the value
+					if (hashes != null) {
+						parentHashes[depth - 1] = SubtreeHashes.combine(parentHashes[depth - 1], hashes.name(name));
+					}
+					break;
+				case END_OBJECT:
+					depth--;
+					int objectSize = map.size() - parentStarts[depth];
+					String objectPath = hashes == null ? null : parentPath(path, parentEnds, parentKeys, depth);
+					long objectHash = register(hashes, objectPath, parentHashes[depth], objectSize);
+					addHash(parentHashes, parentLengths, depth, objectHash);
+					break;
+				case END_ARRAY:
+					depth--;
+
+					// Remember its path and length so we properly (and efficiently) parse it later
+					String arrayPath = parentPath(path, parentEnds, parentKeys, depth);
+					if (arrays != null) {
+						arrays.put(arrayPath, parentLengths[depth]);
+						map.arrayRegistered(arrayPath);
+					}
+					if (counters != null) {
+						counters.array(parentLengths[depth]);
+					}
+					long arrayHash = SubtreeHashes.array(parentHashes[depth], parentLengths[depth], removeNodes);
+					int arraySize = map.size() - parentStarts[depth];
+					arrayHash = register(hashes, arrayPath, arrayHash, arraySize);
+					addHash(parentHashes, parentLengths, depth, arrayHash);
+					break;
+				case VALUE_STRING:
+					if (keep) {
+						long stringHash = putValue(
+							map,
+							hashes,
+							values,
+							path.toString(),
+							parser.getString(),
+							ValueIndex.OTHER
+						);
+						addHash(parentHashes, parentLengths, depth, stringHash);
+					}
+					break;
+				case VALUE_NUMBER:
+					// Same representation as the JsonNumber of the tree
+					if (keep) {
+						long numberHash = putNumber(
+							map,
+							hashes,
+							values,
+							path.toString(),
+							(JsonNumber) parser.getValue()
+						);
+						addHash(parentHashes, parentLengths, depth, numberHash);
+					}
+					break;
+				case VALUE_TRUE:
+				case VALUE_FALSE:
+				case VALUE_NULL:
+					if (keep) {
+						ValueType literal = toValueType(event);
+						byte type = literal == ValueType.NULL ? ValueIndex.NULL : ValueIndex.OTHER;
+						long literalHash = putValue(map, hashes, values, path.toString(), literal.toString(), type);
+						addHash(parentHashes, parentLengths, depth, literalHash);
+					}
+					break;
+				default:
+					break;
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Forget the names of the properties of the previous object read at the specified depth
+	 *
+	 * @param parentNames Names of the properties read so far in each enclosing object
+	 * @param depth Depth of the object we're entering
+	 */
+	private static void resetNames(List<Set<String>> parentNames, int depth) {
+		while (parentNames.size() <= depth) {
+			parentNames.add(new HashSet<String>());
+		}
+		if (parentNames.get(depth).size() > 64) {
+			// Clearing a large set would cost its capacity for each of the next (small) objects
+			parentNames.set(depth, new HashSet<String>());
+		} else {
+			parentNames.get(depth).clear();
+		}
+	}
+
+	/**
+	 * Remove a value from the map, with its content: the keys, the arrays and the types of the values
+	 * at the specified path or under it
+	 * <p>
+	 * This costs a range scan of the map and a scan of the index of the arrays, but it only happens
+	 * with objects that declare the same property twice.
+	 *
+	 * @param map The flat map
+	 * @param arrays The index of the arrays (null if none)
+	 * @param values The types of the values (null if none)
+	 * @param path Path of the value (case sensitive)
+	 */
+	private static void removeSubtree(FlatStore map, ArrayIndex arrays, ValueIndex values, String path) {
+		List<String> keys = new ArrayList<String>();
+		Iterator<Entry<String, String>> entries = map.withPrefix(path);
+		while (entries.hasNext()) {
+			String key = entries.next().getKey();
+			if (isInSubtree(key, path)) {
+				keys.add(key);
+			}
+		}
+		for (String key : keys) {
+			map.remove(key);
+			putType(values, key, ValueIndex.OTHER);
+		}
+		if (arrays != null) {
+			arrays.removeSubtree(path);
+		}
+	}
+
+	/**
+	 * @param key A key of the flat map
+	 * @param path Path of a value
+	 * @return Whether the key is the path itself, or the path of a value inside it (case sensitive)
+	 */
+	static boolean isInSubtree(String key, String path) {
+		if (!key.startsWith(path)) {
+			return false;
+		}
+		if (key.length() == path.length()) {
+			return true;
+		}
+		char next = key.charAt(path.length());
+		return next == '/' || next == '[';
+	}
+
+	/**
+	 * Get the path of an enclosing object or array, at the beginning of the current path
+	 *
+	 * @param path The current path
+	 * @param parentEnds Length of the path of each enclosing object or array
+	 * @param parentKeys Key of each enclosing object or array in the map (null when not stored)
+	 * @param depth Index of the object or array in the stack
+	 * @return Its path (the same String as its key, when it has been stored)
+	 */
+	private static String parentPath(StringBuilder path, int[] parentEnds, String[] parentKeys, int depth) {
+		return parentKeys[depth] != null ? parentKeys[depth] : path.substring(0, parentEnds[depth]);
+	}
+
+	/**
+	 * Add the hash of a value to the hash of the object or array that contains it
+	 *
+	 * @param parentHashes Hash of the content read so far in each enclosing object or array
+	 * @param parentLengths Number of entries read so far in each enclosing array (-1 for objects)
+	 * @param depth Number of enclosing objects and arrays of the value
+	 * @param hash Hash of the value (ignored when not computing the hashes)
+	 */
+	private void addHash(long[] parentHashes, int[] parentLengths, int depth, long hash) {
+		if (hashes != null && depth > 0) {
+			int parent = depth - 1;
+			if (parentLengths[parent] >= 0) {
+				parentHashes[parent] += SubtreeHashes.entry(parentLengths[parent] - 1, hash);
+			} else {
+				parentHashes[parent] = SubtreeHashes.combine(parentHashes[parent], hash);
+			}
+		}
+	}
+
+	/**
+	 * Skip the value that starts with the specified event
+	 * <p>
+	 * We go through the events rather than using {@link JsonParser#skipObject()} so that the syntax
+	 * of the skipped content is still validated by the parser.
+	 *
+	 * @param parser The JSON parser
+	 * @param event The first event of the value
+	 */
+	private static void skip(JsonParser parser, Event event) {
+		if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+			return;
+		}
+
+		int depth = 1;
+		do {
+			switch (parser.next()) {
+				case START_OBJECT:
+				case START_ARRAY:
+					depth++;
+					break;
+				case END_OBJECT:
+				case END_ARRAY:
+					depth--;
+					break;
+				default:
+					break;
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * @param event A VALUE_TRUE, VALUE_FALSE or VALUE_NULL parser event
+	 * @return The corresponding type of value
+	 */
+	private static ValueType toValueType(Event event) {
+		switch (event) {
+			case VALUE_TRUE:
+				return ValueType.TRUE;
+			case VALUE_FALSE:
+				return ValueType.FALSE;
+			default:
+				return ValueType.NULL;
+		}
+	}
+
+	/**
+	 * Build the path of a property of an object: path/name
+	 * <p>
+	 * The StringBuilder is sized upfront so that it never needs to grow.
+	 *
+	 * @param path Path of the object
+	 * @param name Name of the property
+	 * @return The path of the property
+	 */
+	static String childPath(String path, String name) {
+		return new StringBuilder(path.length() + 1 + name.length()).append(path).append('/').append(name).toString();
+	}
+
+	/**
+	 * Build the path of an entry of an array: path[index]
+	 *
+	 * @param path Path of the array
+	 * @param index Index of the entry in the array
+	 * @return The path of the entry
+	 */
+	static String indexPath(String path, int index) {
+		return new StringBuilder(path.length() + 12).append(path).append('[').append(index).append(']').toString();
+	}
+
+	/**
+	 * Dump the JSON tree as a String in the form: <br>
+	 * /object/array[0]/id=<i>0</i> <br>
+	 * /object/array[0]/name=<i>some value</i> <br>
+	 * /object/array[1]/id=... <br>
+	 * ... <br>
+	 *
+	 * @param valueSeparator String to be placed between each pair of key and value
+	 *
+	 * @return The String described above.
+	 * @throws IllegalStateException when the document has not been parsed first (call parse() first!)
+	 */
+	public StringBuilder getFlatTree(String valueSeparator, String replaceEndOfLines) throws IllegalStateException {
+		// Use a StringBuilder to hold the result
+		StringBuilder result = new StringBuilder();
+
+		try {
+			writeFlatTree(result, valueSeparator, replaceEndOfLines);
+		} catch (IOException e) {
+			// Never happens with a StringBuilder
+			throw new IllegalStateException(e);
+		}
+
+		// Return
+		return result;
+	}
+
+	/**
+	 * Dump the JSON tree as a String in the form: <br>
 	 * /object/array[0]/id=<i>0</i> <br>
 	 * /object/array[0]/name=<i>some value</i> <br>
 	 * /object/array[1]/id=... <br>
@@ -276,6 +1483,48 @@ public class JFlat {
 		return getFlatTree("=", null);
 	}
 
+	/**
+	 * Write the JSON tree to the specified output in the same form as {@link #getFlatTree(String, String)}
+	 * <p>
+	 * Each line is written as soon as it is produced, so that the whole result never needs to be held in memory.
+	 *
+	 * @param out Where to write the result (Writer, PrintStream, StringBuilder, etc.)
+	 * @param valueSeparator String to be placed between each pair of key and value
+	 * @param replaceEndOfLines String to replace the end of lines in the values with (null to leave them as is)
+	 * @throws IOException when writing to the output fails
+	 * @throws IllegalStateException when the document has not been parsed first (call parse() first!)
+	 */
+	public void writeFlatTree(Appendable out, String valueSeparator, String replaceEndOfLines)
+		throws IOException, IllegalStateException {
+		// Did we parse the thing yet?
+		checkParsed();
+
+		writeFlatTree(map, out, valueSeparator, replaceEndOfLines);
+	}
+
+	/**
+	 * Write the specified flat map to the specified output (see {@link #writeFlatTree(Appendable, String, String)})
+	 *
+	 * @param map The flat map of the document
+	 * @param out Where to write the result
+	 * @param valueSeparator String to be placed between each pair of key and value
+	 * @param replaceEndOfLines String to replace the end of lines in the values with (null to leave them as is)
+	 * @throws IOException when writing to the output fails
+	 */
+	static void writeFlatTree(FlatReader map, Appendable out, String valueSeparator, String replaceEndOfLines)
+		throws IOException {
+		// Dump the tree
+		for (Entry<String, String> entry : map) {
+			out.append(entry.getKey()).append(valueSeparator);
+			// If we need to replace end of lines
+			if (replaceEndOfLines != null) {
+				out.append(entry.getValue().replace("\n", replaceEndOfLines)).append('\n');
+			} else {
+				out.append(entry.getValue()).append('\n');
+			}
+		}
+	}
+
 	/**
 	 * Translates (flattens) a JSON structure into a CSV string
 	 *
@@ -288,186 +1537,164 @@ public class JFlat {
 	 */
 	public StringBuilder toCSV(String csvEntryKey, String[] csvProperties, String separator)
 		throws IllegalStateException, IllegalArgumentException {
-		// Did we parse the thing yet?
-		if (!parsed) {
-			throw new IllegalStateException("JSON document has not been parsed");
-		}
-
-		// Sanity check: If anything is null, throw an IllegalArgument exception (avoid null, which will surely trigger a NullPointerException somewhere)
-		if (csvEntryKey == null) {
-			throw new IllegalArgumentException("Cannot convert JSON to CSV without a proper entry key (non-null)");
-		}
-		// Replace a null array with an empty array
-		if (csvProperties == null) {
-			csvProperties = new String[] {};
-		}
-		// Check for nullness in the array
-		for (String property : csvProperties) {
-			if (property == null) {
-				throw new IllegalArgumentException("Cannot convert JSON to CSV without a proper list of properties (non-null)");
-			}
-		}
-
-		// Clean the properties
-		for (int i = 0; i < csvProperties.length; i++) {
-			if (csvProperties[i].startsWith("./")) {
-				csvProperties[i] = csvProperties[i].substring(2);
-			}
-			while (csvProperties[i].startsWith("/")) {
-				csvProperties[i] = csvProperties[i].substring(1);
-			}
-		}
-
-		// Default separator is ";"
-		if (separator == null) {
-			separator = ";";
-		}
-
 		// Initialize the StringBuilder to hold the result
 		StringBuilder csvResult = new StringBuilder();
 
-		// Empty TreeMap?
-		if (map == null || map.size() == 0) {
-			return csvResult;
-		}
-
-		// Add a "/" at the beginning of the entry key, if necessary
-		if (csvEntryKey.isEmpty()) {
-			csvEntryKey = "/";
-		}
-		if (!csvEntryKey.startsWith("/")) {
-			csvEntryKey = "/" + csvEntryKey;
+		try {
+			writeCSV(csvResult, csvEntryKey, csvProperties, separator);
+		} catch (IOException e) {
+			// Never happens with a StringBuilder
+			throw new IllegalStateException(e);
 		}
 
-		// Build the list of entries that will constitutes CSV records (new lines)
-		ArrayList<String> entries = new ArrayList<String>();
-
-		// csvEntryKey is specified as a path (e.g. /objectA/array1/subobject)
-		// We will deconstruct the specified path and check whether each "subfolder" is an array or not
-		// If it's an array we will add all of the array entries to the list
-		// So, we will start with the "root" object.
-		// If that object is an array, we will add each entry of the array to the entries list.
-		// Then, we will take each entry in the entries list and add the next "subfolder"
-		// For each of these that are arrays, we will add each entries of that array
-		// and so on and so on.
-		// Note that the initial parsing of the JSON source already built the list of paths
-		// that are arrays
+		// Return
+		return csvResult;
+	}
 
-		// Retrieve each element in the specified path
-		String[] pathElementArray = csvEntryKey.split("/");
+	/**
+	 * Translates (flattens) a JSON structure into CSV, written to the specified output
+	 * <p>
+	 * Same as {@link #toCSV(String, String[], String)}, except that each line is written as soon as it is produced,
+	 * so that the whole result never needs to be held in memory.
+	 *
+	 * @param out Where to write the CSV (Writer, PrintStream, StringBuilder, etc.)
+	 * @param csvEntryKey The key in the JSON data that will be shown as a new entry in the resulting CSV (i.e. a new line)
+	 * @param csvProperties Array of strings specifying the properties of the entry key to be added to the CSV as new fields
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @throws IOException when writing to the output fails
+	 * @throws IllegalArgumentException when any of the specified arguments is null (or an entry in the csvProperties array is null)
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 */
+	public void writeCSV(Appendable out, String csvEntryKey, String[] csvProperties, String separator)
+		throws IOException, IllegalStateException, IllegalArgumentException {
+		// Did we parse the thing yet?
+		checkParsed();
 
-		// In case the JSON doc is an array, we will add its root entries
-		// Note: this means that "" (empty string) is in the list of arrays found in the doc
-		int arrayLength = 0;
-		for (int i = 0; i < arrayPaths.size(); i++) {
-			if ("".equals(arrayPaths.get(i))) {
-				arrayLength = arrayLengths.get(i);
-				break;
-			}
-		}
-		if (arrayLength > 0) {
-			// Start with [0], [1], etc.
-			for (int i = 0; i < arrayLength; i++) {
-				entries.add("[" + i + "]");
-			}
-		} else {
-			// Start with "/"
-			entries.add("/");
-		}
+		CsvQuery.compile(csvEntryKey, csvProperties).writeCSV(this, out, separator);
+	}
 
-		// Now, process each element, as described above
-		for (String pathElement : pathElementArray) {
-			// Empty pathElement? Skip.
-			if (pathElement == null || pathElement.isEmpty()) {
-				continue;
-			}
+	/**
+	 * Translates (flattens) a JSON structure into CSV records, passed to the specified handler
+	 * <p>
+	 * Each record (line) is passed to the handler as soon as it is produced, in the same order as in
+	 * {@link #toCSV(String, String[], String)}. The entries are expanded on the fly, so the memory used
+	 * does not depend on the number of records.
+	 *
+	 * @param csvEntryKey The key in the JSON data that will be shown as a new entry in the resulting CSV (i.e. a new line)
+	 * @param csvProperties Array of strings specifying the properties of the entry key to be added to the CSV as new fields
+	 * @param handler Receives each record: the key of the entry, and the value of each property ("" when not found)
+	 * @throws IOException when the handler fails
+	 * @throws IllegalArgumentException when any of the specified arguments is null (or an entry in the csvProperties array is null)
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 */
+	public void forEachCSVRecord(String csvEntryKey, String[] csvProperties, CsvRecordHandler handler)
+		throws IOException, IllegalStateException, IllegalArgumentException {
+		// Did we parse the thing yet?
+		checkParsed();
 
-			// Temporary list where we will store the new entries
-			ArrayList<String> newEntries = new ArrayList<String>();
+		CsvQuery.compile(csvEntryKey, csvProperties).forEachRecord(this, handler);
+	}
 
-			// For each existing entry, check whether entry/pathElement is an array
-			for (String existingEntry : entries) {
-				String path;
-				if (existingEntry.equals("/")) {
-					path = "/" + pathElement;
-				} else {
-					path = existingEntry + "/" + pathElement;
-				}
+	/**
+	 * Extract the records of a JSON structure into typed columns, one per property, instead of CSV lines
+	 * <p>
+	 * The records are the same as with {@link #toCSV(String, String[], String)}, but the properties whose values
+	 * are all numbers are returned as arrays of longs or doubles, built from the numbers read by the parser,
+	 * with a bitmap of the null values. The typed values must be enabled with {@link #setTypedValues(boolean)}
+	 * before parsing the document.
+	 *
+	 * @param csvEntryKey The key in the JSON data that will be shown as a new entry in the result (i.e. a new record)
+	 * @param csvProperties Array of strings specifying the properties of the entry key to be extracted as columns
+	 * @return The columns
+	 * @throws IllegalArgumentException when any of the specified arguments is null (or an entry in the csvProperties array is null)
+	 * @throws IllegalStateException when the JSON document has not been parsed yet, or without typed values
+	 */
+	public CsvColumns toColumns(String csvEntryKey, String[] csvProperties)
+		throws IllegalStateException, IllegalArgumentException {
+		return CsvQuery.compile(csvEntryKey, csvProperties).toColumns(this);
+	}
 
-				// Check whether path is listed in arrayPaths
-				arrayLength = 0;
-				for (int i = 0; i < arrayPaths.size(); i++) {
-					if (path.equalsIgnoreCase(arrayPaths.get(i))) {
-						arrayLength = arrayLengths.get(i);
-						break;
-					}
-				}
+	/**
+	 * Select the pairs of key/value whose key matches the specified path expression, with wildcards
+	 * (e.g. <code>/hosts[*]/cpu/*</code>, see {@link PathQuery})
+	 * <p>
+	 * The pairs are looked up as the stream is consumed, the whole tree is never dumped.
+	 *
+	 * @param pathExpression The path, with wildcards
+	 * @return A stream of the matching pairs of key/value
+	 * @throws IllegalArgumentException when the expression is invalid
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 */
+	public Stream<Entry<String, String>> select(String pathExpression)
+		throws IllegalArgumentException, IllegalStateException {
+		return PathQuery.compile(pathExpression).stream(this);
+	}
 
-				if (arrayLength > 0) {
-					// So, path is an array
-					// Then add each entry of the array to the newEntries list
-					for (int i = 0; i < arrayLength; i++) {
-						newEntries.add(path + "[" + i + "]");
-					}
-				} else {
-					// This is not an array, simply add path to the newEntries list
-					newEntries.add(path);
-				}
-			}
+	/**
+	 * Create an immutable copy of the parsed document, that can be shared between threads
+	 * <p>
+	 * The snapshot is stored in sorted arrays, which are more compact and faster to read than the flat map.
+	 * The JFlat instance can be discarded afterward.
+	 *
+	 * @return The snapshot of the parsed document
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 */
+	public JFlatSnapshot snapshot() throws IllegalStateException {
+		// Did we parse the thing yet?
+		checkParsed();
 
-			// Now, transfer newEntries to entries
-			entries = newEntries;
+		// In external mode, the file is never modified
+		if (map instanceof BinaryStore) {
+			return new JFlatSnapshot(map, null, null);
 		}
 
-		// And now, build the CSV
-		for (String entry : entries) {
-			// Check that the entry actually exists (in case, the user has put an invalid entryKey)
-			if (!map.containsKey(entry)) {
-				continue;
-			}
-
-			// First, add the "ID" of the entry
-			csvResult.append(map.floorKey(entry)).append(separator);
-
-			// If it's the root ("/"), replace it with "", so that future concatenation with the property name will work properly
-			if (entry.equals("/")) {
-				entry = "";
-			}
+		// Copy the index of the arrays, so that this instance can still be modified
+		ArrayIndex arraysCopy = new ArrayIndex();
+		arraysCopy.putAll(arrays);
+		return new JFlatSnapshot(new SortedArrayStore(map), arraysCopy, hashes);
+	}
 
-			// Then add the value of each column (empty string for null)
-			for (String property : csvProperties) {
-				// Path of the property to get
-				// If property is just ".", then it's the entryKey itself that we want,
-				// like when the entry key is just a simple array of integers or strings
-				String path;
-				if (property.equals(".")) {
-					path = entry;
-				} else {
-					path = entry + "/" + property;
-				}
+	/**
+	 * @throws IllegalStateException when the JSON document has not been parsed yet
+	 */
+	void checkParsed() throws IllegalStateException {
+		if (!parsed) {
+			throw new IllegalStateException("JSON document has not been parsed");
+		}
+	}
 
-				// Process ../ (reference to the parent)
-				while (path.contains("/../")) {
-					int pos2 = path.indexOf("/../");
-					int pos1 = path.lastIndexOf("/", pos2 - 1);
-					path = path.substring(0, pos1) + path.substring(pos2 + 3);
-				}
+	/**
+	 * @return The flat map of the document (case insensitive)
+	 */
+	FlatReader getMap() {
+		return map;
+	}
 
-				// Get the value
-				String value = map.get(path);
-				if (value == null) {
-					value = "";
-				}
+	/**
+	 * @return The index of the arrays of the document
+	 */
+	ArrayIndex getArrays() {
+		return arrays;
+	}
 
-				// Append to the result
-				csvResult.append(value).append(separator);
-			}
+	/**
+	 * @return The hashes of the objects and arrays of the document (null if they were not computed)
+	 */
+	SubtreeHashes getHashes() {
+		return hashes;
+	}
 
-			// End of line, new record!
-			csvResult.append("\n");
-		}
+	/**
+	 * @return The types of the values of the document (null if they were not kept)
+	 */
+	ValueIndex getValues() {
+		return values;
+	}
 
-		// Return
-		return csvResult;
+	/**
+	 * @return The listener of the document (null if none)
+	 */
+	JFlatListener getListener() {
+		return listener;
 	}
 }
@@ -0,0 +1,350 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Parses many independent JSON documents in parallel.
+ * <p>
+ * The documents are read by the calling thread, parsed (with {@link JFlat#parseStream(boolean)}) by the tasks
+ * of an executor, and handed over to a {@link BatchResultHandler}, in the calling thread again.
+ * The results are delivered in the order of the input (by default), or as soon as they are ready.
+ * <p>
+ * At most {@link #setMaxInFlight(int) maxInFlight} documents are read and not yet handled at any time,
+ * so that the memory used by the batch is bounded, whatever the number of documents.
+ * <p>
+ * Example:
+ * <pre>
+ * JFlatBatch batch = new JFlatBatch();
+ * batch.processLines(Paths.get("events.ndjson"), result -&gt; {
+ *     if (result.getError() == null) {
+ *         System.out.print(query.toCSV(result.getJFlat(), ";"));
+ *     }
+ * });
+ * </pre>
+ */
+public final class JFlatBatch {
+
+	/**
+	 * The result of the parsing of one document of the batch
+	 */
+	public static final class Result {
+
+		private final long index;
+		private final JFlat jFlat;
+		private final Exception error;
+
+		private Result(long index, JFlat jFlat, Exception error) {
+			this.index = index;
+			this.jFlat = jFlat;
+			this.error = error;
+		}
+
+		/**
+		 * @return Position of the document in the input (starting at 0, blank lines in NDJSON are not counted)
+		 */
+		public long getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return The parsed document, or null if it couldn't be parsed
+		 */
+		public JFlat getJFlat() {
+			return jFlat;
+		}
+
+		/**
+		 * @return The error (typically a {@link java.text.ParseException}) that prevented the parsing, or null
+		 */
+		public Exception getError() {
+			return error;
+		}
+	}
+
+	private final Executor executor;
+	private int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+	private boolean ordered = true;
+	private boolean removeNodes = false;
+	private FlatStorage storage = FlatStorage.TREE_MAP;
+	private CsvQuery query;
+	private JFlatListener listener;
+
+	/**
+	 * Create a batch that runs on the common fork-join pool
+	 */
+	public JFlatBatch() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a batch that runs on the specified executor (a fixed thread pool, a fork-join pool, etc.)
+	 *
+	 * @param executor Runs the parsing tasks
+	 * @throws IllegalArgumentException when executor is null
+	 */
+	public JFlatBatch(Executor executor) throws IllegalArgumentException {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor cannot be null");
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * @param maxInFlight Maximum number of documents that have been read but not handled yet
+	 * (2 × the number of processors by default)
+	 * @throws IllegalArgumentException when maxInFlight is less than 1
+	 */
+	public void setMaxInFlight(int maxInFlight) throws IllegalArgumentException {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		}
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * @param ordered Whether results are delivered in the order of the input (true, the default),
+	 * or as soon as they are ready (false)
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 */
+	public void setRemoveNodes(boolean removeNodes) {
+		this.removeNodes = removeNodes;
+	}
+
+	/**
+	 * @param storage How the flat map of each document is stored
+	 * @throws IllegalArgumentException when storage is null
+	 * @see JFlat#setStorage(FlatStorage)
+	 */
+	public void setStorage(FlatStorage storage) throws IllegalArgumentException {
+		if (storage == null) {
+			throw new IllegalArgumentException("storage cannot be null");
+		}
+		this.storage = storage;
+	}
+
+	/**
+	 * @param query When set, only the parts of the documents needed by this query are parsed (null for everything)
+	 * @see JFlat#parseStream(CsvQuery, boolean)
+	 */
+	public void setQuery(CsvQuery query) {
+		this.query = query;
+	}
+
+	/**
+	 * @param listener Receives the timings and counters of every document (null for none), from the executor threads
+	 * @see JFlat#setListener(JFlatListener)
+	 * @see JFlatMetrics
+	 */
+	public void setListener(JFlatListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Parse newline-delimited JSON (one document per line, blank lines are ignored)
+	 *
+	 * @param ndjson The NDJSON source
+	 * @param handler Receives each parsed document
+	 * @throws IOException when the source cannot be read, or the handler fails
+	 * @throws IllegalArgumentException when handler is null
+	 */
+	public void processLines(Reader ndjson, BatchResultHandler handler) throws IOException, IllegalArgumentException {
+		BufferedReader reader = ndjson instanceof BufferedReader ? (BufferedReader) ndjson : new BufferedReader(ndjson);
+		process(new LineIterator(reader), handler);
+	}
+
+	/**
+	 * Parse a newline-delimited JSON file (UTF-8, one document per line, blank lines are ignored)
+	 *
+	 * @param ndjsonFile Path to the NDJSON file
+	 * @param handler Receives each parsed document
+	 * @throws IOException when the file cannot be read, or the handler fails
+	 * @throws IllegalArgumentException when handler is null
+	 */
+	public void processLines(Path ndjsonFile, BatchResultHandler handler) throws IOException, IllegalArgumentException {
+		try (BufferedReader reader = Files.newBufferedReader(ndjsonFile, StandardCharsets.UTF_8)) {
+			processLines(reader, handler);
+		}
+	}
+
+	/**
+	 * Parse the specified documents
+	 *
+	 * @param documents The JSON sources
+	 * @param handler Receives each parsed document
+	 * @throws IOException when the handler fails
+	 * @throws IllegalArgumentException when handler is null
+	 */
+	public void process(Iterable<String> documents, BatchResultHandler handler)
+		throws IOException, IllegalArgumentException {
+		process(documents.iterator(), handler);
+	}
+
+	/**
+	 * Parse the specified documents
+	 *
+	 * @param documents The JSON sources, read as the batch progresses
+	 * @param handler Receives each parsed document
+	 * @throws IOException when the documents cannot be read, or the handler fails
+	 */
+	private void process(Iterator<String> documents, BatchResultHandler handler) throws IOException {
+		if (handler == null) {
+			throw new IllegalArgumentException("handler cannot be null");
+		}
+
+		CompletionService<Result> completionService = new ExecutorCompletionService<Result>(executor);
+
+		// Results that are ready, but wait for the previous ones (in ordered mode)
+		Map<Long, Result> pending = new HashMap<Long, Result>();
+
+		long submitted = 0;
+		long delivered = 0;
+
+		try {
+			while (true) {
+				// Submit as many documents as allowed
+				while (submitted - delivered < maxInFlight && documents.hasNext()) {
+					String source = documents.next();
+					long index = submitted++;
+					completionService.submit(() -> parse(index, source));
+				}
+
+				// Done?
+				if (submitted == delivered) {
+					return;
+				}
+
+				// Wait for the next result
+				Result result = completionService.take().get();
+				if (!ordered) {
+					handler.handle(result);
+					delivered++;
+					continue;
+				}
+
+				// Deliver it, and the next ones that were waiting for it
+				pending.put(result.index, result);
+				while ((result = pending.remove(delivered)) != null) {
+					handler.handle(result);
+					delivered++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the documents to be parsed");
+		} catch (ExecutionException e) {
+			// parse() catches every Exception, so this is an Error (OutOfMemoryError, etc.), which is rethrown as is
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Parse one document (in an executor thread)
+	 *
+	 * @param index Position of the document in the input
+	 * @param source The JSON source
+	 * @return The result (never throws)
+	 */
+	private Result parse(long index, String source) {
+		JFlat jFlat = new JFlat(source);
+		jFlat.setStorage(storage);
+		jFlat.setListener(listener);
+		try {
+			if (query != null) {
+				jFlat.parseStream(query, removeNodes);
+			} else {
+				jFlat.parseStream(removeNodes);
+			}
+			return new Result(index, jFlat, null);
+		} catch (Exception e) {
+			return new Result(index, null, e);
+		}
+	}
+
+	/**
+	 * Iterates over the non-blank lines of a Reader
+	 */
+	private static final class LineIterator implements Iterator<String> {
+
+		private final BufferedReader reader;
+		private String next;
+
+		private LineIterator(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (next == null) {
+					String line = reader.readLine();
+					if (line == null) {
+						return false;
+					}
+					if (!line.trim().isEmpty()) {
+						next = line;
+					}
+				}
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String line = next;
+			next = null;
+			return line;
+		}
+	}
+}
@@ -0,0 +1,448 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+/**
+ * Compact binary format of a parsed JSON document, to store it and load it again without parsing the JSON,
+ * or the text of {@link JFlat#getFlatTree()} (which cannot represent all values, with their end of lines).
+ * <p>
+ * The pairs of key/value are stored sorted by key, in blocks of {@value #BLOCK_SIZE}. In each block, a key is
+ * only stored as the number of characters it shares with the previous key, followed by the rest of it
+ * (front coding), since consecutive keys share long prefixes. Values are tagged with their type, so that
+ * objects, arrays, booleans, null and integers take one byte or a few. The index of the blocks and the lengths
+ * of the arrays come after the pairs.
+ * <p>
+ * {@link #open(Path)} maps the file in memory and returns a {@link JFlatSnapshot} that reads it directly:
+ * nothing is loaded when opening the file (the lengths of the arrays are loaded by the first CSV conversion).
+ * A lookup is a binary search on the first key of each block, then a scan of one block;
+ * {@link JFlatSnapshot#toCSV(String, String[], String)} and the other operations read only the blocks they need.
+ */
+public final class JFlatBinary {
+
+	/**
+	 * "JFLB", at the beginning and at the end of the file
+	 */
+	static final int MAGIC = 0x4a464c42;
+	static final int VERSION = 1;
+
+	/**
+	 * Number of pairs of key/value in a block
+	 */
+	static final int BLOCK_SIZE = 16;
+
+	/**
+	 * Header: magic and version
+	 */
+	static final int HEADER_SIZE = 8;
+
+	/**
+	 * Trailer: offset of the block index, offset of the arrays, number of pairs, of blocks, of arrays, and magic
+	 */
+	static final int TRAILER_SIZE = 32;
+
+	static final byte TAG_STRING = 0;
+	static final byte TAG_OBJECT = 1;
+	static final byte TAG_ARRAY = 2;
+	static final byte TAG_TRUE = 3;
+	static final byte TAG_FALSE = 4;
+	static final byte TAG_NULL = 5;
+	static final byte TAG_INTEGER = 6;
+
+	private JFlatBinary() {}
+
+	/**
+	 * Write the specified parsed document in the binary format
+	 *
+	 * @param jFlat The parsed document
+	 * @param out Where to write it (not closed)
+	 * @throws IOException when writing fails
+	 * @throws IllegalStateException when the document has not been parsed
+	 */
+	public static void write(JFlat jFlat, OutputStream out) throws IOException, IllegalStateException {
+		jFlat.checkParsed();
+		write(jFlat.getMap(), jFlat.getArrays(), out);
+	}
+
+	/**
+	 * Write the specified snapshot in the binary format
+	 *
+	 * @param snapshot The snapshot of a parsed document
+	 * @param out Where to write it (not closed)
+	 * @throws IOException when writing fails
+	 */
+	public static void write(JFlatSnapshot snapshot, OutputStream out) throws IOException {
+		write(snapshot.getMap(), snapshot.getArrays(), out);
+	}
+
+	/**
+	 * Write the specified parsed document to a file in the binary format
+	 *
+	 * @param jFlat The parsed document
+	 * @param path Path to the file (replaced if it exists)
+	 * @throws IOException when the file cannot be written
+	 * @throws IllegalStateException when the document has not been parsed
+	 */
+	public static void write(JFlat jFlat, Path path) throws IOException, IllegalStateException {
+		jFlat.checkParsed();
+		try (OutputStream out = Files.newOutputStream(path)) {
+			write(jFlat.getMap(), jFlat.getArrays(), out);
+		}
+	}
+
+	/**
+	 * Open a file written by {@link #write(JFlat, Path)}, mapped in memory
+	 * <p>
+	 * The mapping is released when the snapshot is garbage collected.
+	 *
+	 * @param path Path to the file
+	 * @return A snapshot that reads the file directly
+	 * @throws IOException when the file cannot be mapped, or is not in the binary format
+	 */
+	public static JFlatSnapshot open(Path path) throws IOException {
+		return read(MappedBytes.map(path));
+	}
+
+	/**
+	 * Read a document in the binary format
+	 *
+	 * @param buffer The bytes of the document (from the position to the limit of the buffer, which are not modified).
+	 * They are read directly, so they must not be modified while the snapshot is used.
+	 * @return A snapshot that reads the buffer directly
+	 * @throws IOException when the bytes are not in the binary format
+	 */
+	public static JFlatSnapshot read(ByteBuffer buffer) throws IOException {
+		return read(new MappedBytes(buffer));
+	}
+
+	/**
+	 * @param bytes The bytes of the document
+	 * @return A snapshot that reads the bytes directly
+	 * @throws IOException when the bytes are not in the binary format
+	 */
+	private static JFlatSnapshot read(MappedBytes bytes) throws IOException {
+		return new JFlatSnapshot(readStore(bytes), null, null);
+	}
+
+	/**
+	 * @param bytes The bytes of the document
+	 * @return A store that reads the bytes directly
+	 * @throws IOException when the bytes are not in the binary format
+	 */
+	static BinaryStore readStore(MappedBytes bytes) throws IOException {
+		long size = bytes.size();
+		if (
+			size < HEADER_SIZE + TRAILER_SIZE ||
+			bytes.getInt(0) != MAGIC ||
+			bytes.getInt(size - 4) != MAGIC
+		) {
+			throw new IOException("Not a JFlat binary document");
+		}
+		if (bytes.getInt(4) != VERSION) {
+			throw new IOException("Unsupported version of JFlat binary document: " + bytes.getInt(4));
+		}
+
+		long trailer = size - TRAILER_SIZE;
+		return new BinaryStore(
+			bytes,
+			bytes.getInt(trailer + 16),
+			bytes.getInt(trailer + 20),
+			bytes.getLong(trailer),
+			bytes.getLong(trailer + 8),
+			bytes.getInt(trailer + 24)
+		);
+	}
+
+	/**
+	 * Write the flat map and the arrays of a document
+	 *
+	 * @param map The flat map
+	 * @param arrays The index of the arrays
+	 * @param out Where to write them
+	 * @throws IOException when writing fails
+	 */
+	private static void write(FlatReader map, ArrayIndex arrays, OutputStream out) throws IOException {
+		Writer writer = new Writer(out);
+		for (Entry<String, String> entry : map) {
+			writer.writeEntry(entry.getKey(), entry.getValue());
+		}
+		for (String path : arrays.getPaths()) {
+			writer.writeArray(path, arrays.getLength(path));
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Write a value with its tag
+	 *
+	 * @param output Where to write the value
+	 * @param value The value
+	 * @throws IOException when writing fails
+	 */
+	private static void writeValue(Output output, String value) throws IOException {
+		switch (value) {
+			case "{object}":
+				output.write(TAG_OBJECT);
+				break;
+			case "{array}":
+				output.write(TAG_ARRAY);
+				break;
+			case "TRUE":
+				output.write(TAG_TRUE);
+				break;
+			case "FALSE":
+				output.write(TAG_FALSE);
+				break;
+			case "NULL":
+				output.write(TAG_NULL);
+				break;
+			default:
+				if (isInteger(value)) {
+					// Zigzag encoding, so that small negative numbers are small too
+					long number = Long.parseLong(value);
+					output.write(TAG_INTEGER);
+					output.writeVarLong((number << 1) ^ (number >> 63));
+				} else {
+					output.write(TAG_STRING);
+					output.writeString(value, 0);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * @param value A value
+	 * @return Whether the value is an integer that Long.toString() would write the same way
+	 * (no leading zero, no "+", no "-0")
+	 */
+	private static boolean isInteger(String value) {
+		int start = value.startsWith("-") ? 1 : 0;
+		int length = value.length() - start;
+		if (length == 0 || length > 18 || (value.charAt(start) == '0' && (length > 1 || start > 0))) {
+			return false;
+		}
+		for (int i = start; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a document in the binary format, one pair at a time, so that the pairs don't need to be in memory
+	 * (only the position of each block is kept until the end).
+	 */
+	static final class Writer {
+
+		private final Output output;
+		private long[] blocks = new long[16];
+		private int count = 0;
+		private String previous = "";
+		private long blockIndex = -1;
+		private long arraysOffset;
+		private int arrayCount = 0;
+
+		/**
+		 * @param out Where to write the document (not closed)
+		 * @throws IOException when writing fails
+		 */
+		Writer(OutputStream out) throws IOException {
+			output = new Output(out);
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+		}
+
+		/**
+		 * Write a pair of key/value
+		 *
+		 * @param key The key, greater than the previous one in the order of {@link String#CASE_INSENSITIVE_ORDER}
+		 * @param value The value
+		 * @throws IOException when writing fails
+		 */
+		void writeEntry(String key, String value) throws IOException {
+			if (count % BLOCK_SIZE == 0) {
+				if (count / BLOCK_SIZE == blocks.length) {
+					blocks = Arrays.copyOf(blocks, blocks.length * 2);
+				}
+				blocks[count / BLOCK_SIZE] = output.position;
+				previous = "";
+			}
+
+			// Front coding of the key
+			int shared = 0;
+			int max = Math.min(previous.length(), key.length());
+			while (shared < max && previous.charAt(shared) == key.charAt(shared)) {
+				shared++;
+			}
+			output.writeVarInt(shared);
+			output.writeString(key, shared);
+
+			writeValue(output, value);
+			previous = key;
+			count++;
+		}
+
+		/**
+		 * Write the length of an array, after all the pairs of key/value
+		 *
+		 * @param path The path of the array
+		 * @param length Its number of entries
+		 * @throws IOException when writing fails
+		 */
+		void writeArray(String path, int length) throws IOException {
+			if (blockIndex < 0) {
+				writeBlockIndex();
+			}
+			output.writeString(path, 0);
+			output.writeVarInt(length);
+			arrayCount++;
+		}
+
+		/**
+		 * Write the end of the document, and flush it
+		 *
+		 * @throws IOException when writing fails
+		 */
+		void finish() throws IOException {
+			if (blockIndex < 0) {
+				writeBlockIndex();
+			}
+			output.writeLong(blockIndex);
+			output.writeLong(arraysOffset);
+			output.writeInt(count);
+			output.writeInt((count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+			output.writeInt(arrayCount);
+			output.writeInt(MAGIC);
+			output.flush();
+		}
+
+		/**
+		 * Write the index of the blocks, after the pairs (the lengths of the arrays come next)
+		 *
+		 * @throws IOException when writing fails
+		 */
+		private void writeBlockIndex() throws IOException {
+			blockIndex = output.position;
+			for (int i = 0; i < (count + BLOCK_SIZE - 1) / BLOCK_SIZE; i++) {
+				output.writeLong(blocks[i]);
+			}
+			arraysOffset = output.position;
+		}
+	}
+
+	/**
+	 * Buffered output that keeps track of its position (which may exceed 2 GB)
+	 */
+	private static final class Output {
+
+		private final OutputStream out;
+		private final byte[] buffer = new byte[8192];
+		private int count = 0;
+		private long position = 0;
+
+		private Output(OutputStream out) {
+			this.out = out;
+		}
+
+		private void write(int b) throws IOException {
+			if (count == buffer.length) {
+				out.write(buffer, 0, count);
+				count = 0;
+			}
+			buffer[count++] = (byte) b;
+			position++;
+		}
+
+		private void writeInt(int value) throws IOException {
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				write(value >>> shift);
+			}
+		}
+
+		private void writeLong(long value) throws IOException {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				write((int) (value >>> shift));
+			}
+		}
+
+		/**
+		 * Write an unsigned number on 1 to 5 bytes, 7 bits at a time
+		 */
+		private void writeVarInt(int value) throws IOException {
+			writeVarLong(value & 0xFFFFFFFFL);
+		}
+
+		/**
+		 * Write an unsigned number on 1 to 10 bytes, 7 bits at a time
+		 */
+		private void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		/**
+		 * Write the end of a String: its length in bytes, then each character on 1 to 3 bytes
+		 * (like UTF-8, but each char is encoded separately, so that any String is written as is)
+		 *
+		 * @param value The String
+		 * @param start Index of the first character to write
+		 */
+		private void writeString(String value, int start) throws IOException {
+			int length = 0;
+			for (int i = start; i < value.length(); i++) {
+				char c = value.charAt(i);
+				length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+			}
+			writeVarInt(length);
+			for (int i = start; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					write(c);
+				} else if (c < 0x800) {
+					write(0xC0 | (c >> 6));
+					write(0x80 | (c & 0x3F));
+				} else {
+					write(0xE0 | (c >> 12));
+					write(0x80 | ((c >> 6) & 0x3F));
+					write(0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		private void flush() throws IOException {
+			out.write(buffer, 0, count);
+			count = 0;
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,441 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of parsed documents (and of their CSV conversions), for sources that often return the same JSON document.
+ * <p>
+ * Documents are identified by a 128-bit hash of their content, with the parsing options: when the same JSON is
+ * submitted again, its snapshot (or the CSV already produced with the same query) is returned without parsing it.
+ * The source itself is not kept. The least recently used documents are evicted when there are more than
+ * the maximum number of documents, or when the total size of the cached documents (the length of their source,
+ * plus the length of their CSV conversions) exceeds the maximum size.
+ * <p>
+ * The cache is thread-safe. Documents are parsed outside of any lock: the same new document submitted
+ * by several threads at the same time may be parsed more than once.
+ *
+ * <pre>
+ * JFlatCache cache = new JFlatCache(100, 50_000_000);
+ * String csv = cache.toCSV(json, false, CsvQuery.compile("/hosts", "name", "cpu"), ";");
+ * </pre>
+ */
+public final class JFlatCache {
+
+	private final int maxDocuments;
+	private final long maxSize;
+
+	/**
+	 * The cached documents, in access order (the least recently used first)
+	 */
+	private final LinkedHashMap<Key, Document> documents = new LinkedHashMap<Key, Document>(16, 0.75f, true);
+
+	private long size = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	/**
+	 * Create a cache limited to the specified number of documents
+	 *
+	 * @param maxDocuments Maximum number of documents in the cache
+	 * @throws IllegalArgumentException when maxDocuments is not positive
+	 */
+	public JFlatCache(int maxDocuments) throws IllegalArgumentException {
+		this(maxDocuments, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Create a cache limited to the specified number of documents, and the specified size
+	 *
+	 * @param maxDocuments Maximum number of documents in the cache
+	 * @param maxSize Maximum total size of the cached documents: the length of their JSON source
+	 * (in characters or bytes), plus the length of the CSV strings cached for them
+	 * @throws IllegalArgumentException when maxDocuments or maxSize is not positive
+	 */
+	public JFlatCache(int maxDocuments, long maxSize) throws IllegalArgumentException {
+		if (maxDocuments <= 0) {
+			throw new IllegalArgumentException("maxDocuments must be positive");
+		}
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		this.maxDocuments = maxDocuments;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get the snapshot of the specified JSON document, parsed only if it's not in the cache
+	 *
+	 * @param json The JSON source
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @return The snapshot of the parsed document (shared with the other callers)
+	 * @throws ParseException when the document is not valid JSON
+	 * @throws IOException when the document cannot be read
+	 */
+	public JFlatSnapshot parse(String json, boolean removeNodes) throws ParseException, IOException {
+		return getDocument(Key.of(json, removeNodes), json, null).snapshot;
+	}
+
+	/**
+	 * Get the snapshot of the specified JSON document, parsed only if it's not in the cache
+	 *
+	 * @param json The JSON source, encoded in UTF-8, UTF-16 or UTF-32 (not modified)
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @return The snapshot of the parsed document (shared with the other callers)
+	 * @throws ParseException when the document is not valid JSON
+	 * @throws IOException when the document cannot be read
+	 */
+	public JFlatSnapshot parse(byte[] json, boolean removeNodes) throws ParseException, IOException {
+		return getDocument(Key.of(json, removeNodes), null, json).snapshot;
+	}
+
+	/**
+	 * Translate the specified JSON document into CSV, unless the same document has already been translated
+	 * with the same query and separator
+	 *
+	 * @param json The JSON source
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @param query The CSV query
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @return The CSV string
+	 * @throws ParseException when the document is not valid JSON
+	 * @throws IOException when the document cannot be read
+	 */
+	public String toCSV(String json, boolean removeNodes, CsvQuery query, String separator)
+		throws ParseException, IOException {
+		return toCSV(getDocument(Key.of(json, removeNodes), json, null), query, separator);
+	}
+
+	/**
+	 * Translate the specified JSON document into CSV, unless the same document has already been translated
+	 * with the same query and separator
+	 *
+	 * @param json The JSON source, encoded in UTF-8, UTF-16 or UTF-32 (not modified)
+	 * @param removeNodes Whether to remove "artificial" nodes without values ({object} and {array})
+	 * @param query The CSV query
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @return The CSV string
+	 * @throws ParseException when the document is not valid JSON
+	 * @throws IOException when the document cannot be read
+	 */
+	public String toCSV(byte[] json, boolean removeNodes, CsvQuery query, String separator)
+		throws ParseException, IOException {
+		return toCSV(getDocument(Key.of(json, removeNodes), null, json), query, separator);
+	}
+
+	/**
+	 * @return The number of documents in the cache
+	 */
+	public synchronized int size() {
+		return documents.size();
+	}
+
+	/**
+	 * @return The number of times a document (or its CSV conversion) has been found in the cache
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return The number of times a document (or its CSV conversion) had to be parsed (or converted)
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return The number of documents that have been evicted from the cache to make room for others
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Remove all the documents from the cache (the counters are kept)
+	 */
+	public synchronized void clear() {
+		for (Document document : documents.values()) {
+			document.evicted = true;
+		}
+		documents.clear();
+		size = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return (
+			"JFlatCache [documents=" +
+			documents.size() +
+			", size=" +
+			size +
+			", hits=" +
+			hitCount +
+			", misses=" +
+			missCount +
+			", evictions=" +
+			evictionCount +
+			"]"
+		);
+	}
+
+	/**
+	 * Get the cached document, or parse it
+	 *
+	 * @param key The key of the document
+	 * @param json The JSON source (if a String)
+	 * @param bytes The JSON source (if bytes)
+	 * @return The cached document
+	 * @throws ParseException when the document is not valid JSON
+	 * @throws IOException when the document cannot be read
+	 */
+	private Document getDocument(Key key, String json, byte[] bytes) throws ParseException, IOException {
+		synchronized (this) {
+			Document document = documents.get(key);
+			if (document != null) {
+				hitCount++;
+				return document;
+			}
+			missCount++;
+		}
+
+		// Parse the document outside of the lock
+		JFlat jFlat = json != null ? new JFlat(json) : new JFlat(bytes);
+		jFlat.parseStream(key.removeNodes);
+		Document document = new Document(jFlat.snapshot(), key.length);
+
+		synchronized (this) {
+			Document existing = documents.get(key);
+			if (existing != null) {
+				// Another thread parsed it in the meantime
+				return existing;
+			}
+			documents.put(key, document);
+			size += document.size;
+			evict(document);
+			return document;
+		}
+	}
+
+	/**
+	 * Get the cached CSV of the document, or convert it
+	 *
+	 * @param document The cached document
+	 * @param query The CSV query
+	 * @param separator The separator between fields
+	 * @return The CSV string
+	 */
+	private String toCSV(Document document, CsvQuery query, String separator) {
+		CsvKey csvKey = new CsvKey(query, separator == null ? ";" : separator);
+		synchronized (this) {
+			String csv = document.csv.get(csvKey);
+			if (csv != null) {
+				hitCount++;
+				return csv;
+			}
+			missCount++;
+		}
+
+		String csv = query.toCSV(document.snapshot, csvKey.separator).toString();
+
+		synchronized (this) {
+			// Unless the document has been evicted in the meantime
+			if (!document.evicted && document.csv.putIfAbsent(csvKey, csv) == null) {
+				document.size += csv.length();
+				size += csv.length();
+				evict(document);
+			}
+		}
+		return csv;
+	}
+
+	/**
+	 * Evict the least recently used documents until the cache is within its limits
+	 *
+	 * @param keep The document that has just been added (never evicted, even if it's larger than the cache)
+	 */
+	private void evict(Document keep) {
+		Iterator<Document> iterator = documents.values().iterator();
+		while ((documents.size() > maxDocuments || size > maxSize) && iterator.hasNext()) {
+			Document document = iterator.next();
+			if (document != keep) {
+				iterator.remove();
+				document.evicted = true;
+				size -= document.size;
+				evictionCount++;
+			}
+		}
+	}
+
+	/**
+	 * A parsed document in the cache, with its CSV conversions
+	 */
+	private static final class Document {
+
+		private final JFlatSnapshot snapshot;
+		private final Map<CsvKey, String> csv = new HashMap<CsvKey, String>();
+
+		/**
+		 * Length of the source, plus the length of the CSV strings
+		 */
+		private long size;
+
+		private boolean evicted = false;
+
+		private Document(JFlatSnapshot snapshot, long size) {
+			this.snapshot = snapshot;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Identifies a CSV conversion of a document
+	 */
+	private static final class CsvKey {
+
+		private final CsvQuery query;
+		private final String separator;
+
+		private CsvKey(CsvQuery query, String separator) {
+			this.query = query;
+			this.separator = separator;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CsvKey)) {
+				return false;
+			}
+			CsvKey other = (CsvKey) obj;
+			return query.equals(other.query) && separator.equals(other.separator);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * query.hashCode() + separator.hashCode();
+		}
+	}
+
+	/**
+	 * Identifies a document: a 128-bit hash of its content, its length and the parsing options
+	 * <p>
+	 * The content is hashed in two independent lanes of 64 bits, so that two different documents
+	 * have practically no chance of having the same key.
+	 */
+	private static final class Key {
+
+		private static final long PRIME1 = 0x9E3779B97F4A7C15L;
+		private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+
+		private final long high;
+		private final long low;
+		private final long length;
+		private final boolean removeNodes;
+
+		private Key(long high, long low, long length, boolean removeNodes) {
+			this.high = high;
+			this.low = low;
+			this.length = length;
+			this.removeNodes = removeNodes;
+		}
+
+		/**
+		 * @param json The JSON source
+		 * @param removeNodes The parsing option
+		 * @return The key of the document
+		 */
+		private static Key of(String json, boolean removeNodes) {
+			long h1 = PRIME1;
+			long h2 = PRIME2;
+			int length = json.length();
+			int i = 0;
+
+			// 4 characters at a time
+			for (; i + 4 <= length; i += 4) {
+				long block =
+					((long) json.charAt(i) << 48) |
+					((long) json.charAt(i + 1) << 32) |
+					((long) json.charAt(i + 2) << 16) |
+					json.charAt(i + 3);
+				h1 = Long.rotateLeft(h1 ^ block, 29) * PRIME2;
+				h2 = Long.rotateLeft(h2 + block, 31) * PRIME1;
+			}
+			for (; i < length; i++) {
+				h1 = Long.rotateLeft(h1 ^ json.charAt(i), 29) * PRIME2;
+				h2 = Long.rotateLeft(h2 + json.charAt(i), 31) * PRIME1;
+			}
+			return new Key(SubtreeHashes.mix(h1 ^ length), SubtreeHashes.mix(h2 + length), length, removeNodes);
+		}
+
+		/**
+		 * @param json The JSON source (bytes)
+		 * @param removeNodes The parsing option
+		 * @return The key of the document
+		 */
+		private static Key of(byte[] json, boolean removeNodes) {
+			long h1 = PRIME1;
+			long h2 = PRIME2;
+			int i = 0;
+
+			// 8 bytes at a time
+			for (; i + 8 <= json.length; i += 8) {
+				long block = 0;
+				for (int j = 0; j < 8; j++) {
+					block = (block << 8) | (json[i + j] & 0xFF);
+				}
+				h1 = Long.rotateLeft(h1 ^ block, 29) * PRIME2;
+				h2 = Long.rotateLeft(h2 + block, 31) * PRIME1;
+			}
+			for (; i < json.length; i++) {
+				h1 = Long.rotateLeft(h1 ^ json[i], 29) * PRIME2;
+				h2 = Long.rotateLeft(h2 + json[i], 31) * PRIME1;
+			}
+			// Not finalized like Strings: the same document in a String and in bytes are different keys
+			return new Key(
+				SubtreeHashes.mix(h1 ^ json.length),
+				SubtreeHashes.mix(h2 - json.length),
+				json.length,
+				removeNodes
+			);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return high == other.high && low == other.low && length == other.length && removeNodes == other.removeNodes;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (high ^ (high >>> 32));
+		}
+	}
+}
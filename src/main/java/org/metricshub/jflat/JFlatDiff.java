@@ -0,0 +1,280 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Compares two versions of a flattened JSON document, and reports the keys that have been added,
+ * removed, or whose value changed.
+ * <p>
+ * The keys of both flat maps are sorted, so they're compared in a single pass over the two maps,
+ * like the merge of two sorted lists: the comparison costs O(n + m) and doesn't build anything in memory.
+ * Keys are case iNsEnSiTiVe: a key whose case changed (but not its value) is not reported.
+ * <p>
+ * When both versions have been parsed with {@link JFlat#setSubtreeHashes(boolean)}, the objects and arrays
+ * whose content didn't change are jumped over instead of being compared key by key, and the comparison of
+ * two identical documents returns immediately. This is what makes polling a large document cheap when only
+ * a few of its values change:
+ * <pre>
+ * JFlat current = new JFlat(json);
+ * current.setSubtreeHashes(true);
+ * current.parse();
+ * JFlatDiff.compare(previous, current, (change, key, oldValue, newValue) -&gt; ...);
+ * previous = current.snapshot();
+ * </pre>
+ */
+public final class JFlatDiff {
+
+	/**
+	 * The kinds of differences
+	 */
+	public enum Change {
+		/**
+		 * The key is only in the second version
+		 */
+		ADDED,
+
+		/**
+		 * The key is only in the first version
+		 */
+		REMOVED,
+
+		/**
+		 * The key is in both versions, with a different value
+		 */
+		CHANGED
+	}
+
+	/**
+	 * Minimum number of entries below an identical object or array to jump over them: for smaller ones,
+	 * going through the entries is cheaper than a lookup in the flat map
+	 */
+	private static final int MIN_SKIPPED_SIZE = 32;
+
+	/**
+	 * The current entry of a flat map, in the merge-walk
+	 */
+	private static final class Cursor {
+
+		private final FlatReader map;
+		private Iterator<Entry<String, String>> iterator;
+		private Entry<String, String> entry;
+
+		private Cursor(FlatReader map) {
+			this.map = map;
+			iterator = map.iterator();
+			next();
+		}
+
+		/**
+		 * Move to the next entry (null at the end of the map)
+		 */
+		private void next() {
+			entry = iterator.hasNext() ? iterator.next() : null;
+		}
+
+		/**
+		 * @param prefix The prefix of the keys of an object or array (may be null)
+		 * @return Whether the current key starts with the prefix (ignoring case)
+		 */
+		private boolean startsWith(String prefix) {
+			if (entry == null || prefix == null) {
+				return false;
+			}
+
+			// The keys of an object usually have the same case as the object: try the (much faster) exact match first
+			String key = entry.getKey();
+			return key.startsWith(prefix) || key.regionMatches(true, 0, prefix, 0, prefix.length());
+		}
+
+		/**
+		 * Jump to the first key after the ones that start with the specified prefix
+		 * ("/obj0" for "/obj/", "/arr\" for "/arr[")
+		 *
+		 * @param prefix The prefix of the keys of an object or array, ending with "/" or "["
+		 */
+		private void skip(String prefix) {
+			int last = prefix.length() - 1;
+			iterator = map.tailIterator(prefix.substring(0, last) + (char) (prefix.charAt(last) + 1));
+			next();
+		}
+
+		/**
+		 * @param prefix The prefix of the keys of an object or array
+		 * @return Whether the current entry is after all the keys with the specified prefix
+		 */
+		private boolean isPast(String prefix) {
+			return (
+				entry == null ||
+				(String.CASE_INSENSITIVE_ORDER.compare(entry.getKey(), prefix) > 0 && !startsWith(prefix))
+			);
+		}
+	}
+
+	private JFlatDiff() {}
+
+	/**
+	 * @param value A value of the flat map
+	 * @return Whether it's the value of an object or array
+	 */
+	private static boolean isNode(String value) {
+		return "{object}".equals(value) || "{array}".equals(value);
+	}
+
+	/**
+	 * Compare two parsed documents
+	 *
+	 * @param before The first version of the document
+	 * @param after The second version of the document
+	 * @param handler Receives each difference, in the order of the keys
+	 * @throws IOException when the handler fails
+	 * @throws IllegalStateException when one of the documents has not been parsed
+	 */
+	public static void compare(JFlat before, JFlat after, DiffHandler handler)
+		throws IOException, IllegalStateException {
+		before.checkParsed();
+		after.checkParsed();
+		compare(before.getMap(), before.getHashes(), after.getMap(), after.getHashes(), handler);
+	}
+
+	/**
+	 * Compare a snapshot of a document with a new version of it
+	 *
+	 * @param before The first version of the document
+	 * @param after The second version of the document
+	 * @param handler Receives each difference, in the order of the keys
+	 * @throws IOException when the handler fails
+	 * @throws IllegalStateException when the second document has not been parsed
+	 */
+	public static void compare(JFlatSnapshot before, JFlat after, DiffHandler handler)
+		throws IOException, IllegalStateException {
+		after.checkParsed();
+		compare(before.getMap(), before.getHashes(), after.getMap(), after.getHashes(), handler);
+	}
+
+	/**
+	 * Compare two snapshots
+	 *
+	 * @param before The first version of the document
+	 * @param after The second version of the document
+	 * @param handler Receives each difference, in the order of the keys
+	 * @throws IOException when the handler fails
+	 */
+	public static void compare(JFlatSnapshot before, JFlatSnapshot after, DiffHandler handler) throws IOException {
+		compare(before.getMap(), before.getHashes(), after.getMap(), after.getHashes(), handler);
+	}
+
+	/**
+	 * Merge-walk the keys of both flat maps
+	 *
+	 * @param beforeMap The flat map of the first version
+	 * @param beforeHashes The hashes of the first version (null if not computed)
+	 * @param afterMap The flat map of the second version
+	 * @param afterHashes The hashes of the second version (null if not computed)
+	 * @param handler Receives each difference
+	 * @throws IOException when the handler fails
+	 */
+	private static void compare(
+		FlatReader beforeMap,
+		SubtreeHashes beforeHashes,
+		FlatReader afterMap,
+		SubtreeHashes afterHashes,
+		DiffHandler handler
+	) throws IOException {
+		boolean hashed = beforeHashes != null && afterHashes != null;
+		if (hashed && beforeHashes.isSameDocument(afterHashes)) {
+			return;
+		}
+
+		// Prefixes of the keys of the large identical objects and arrays, which we skip when we get there.
+		// An object (or array) and its content are not next to each other in the maps: the keys of the siblings
+		// that start with the same name (e.g. /obj-2 for /obj) come in between.
+		List<String> skipped = new ArrayList<String>();
+
+		// Prefix of the keys of the last small identical object or array, whose content we go through
+		// without looking up the hashes of the objects and arrays it contains
+		String identical = null;
+
+		Cursor before = new Cursor(beforeMap);
+		Cursor after = new Cursor(afterMap);
+		while (before.entry != null || after.entry != null) {
+			// Skip the content of the identical objects and arrays (the keys are the same on both sides)
+			if (!skipped.isEmpty()) {
+				boolean moved = false;
+				for (int i = skipped.size() - 1; i >= 0; i--) {
+					String prefix = skipped.get(i);
+					if (before.startsWith(prefix)) {
+						before.skip(prefix);
+						moved = true;
+					}
+					if (after.startsWith(prefix)) {
+						after.skip(prefix);
+						moved = true;
+					}
+					if (before.isPast(prefix) && after.isPast(prefix)) {
+						skipped.remove(i);
+					}
+				}
+				if (moved) {
+					continue;
+				}
+			}
+
+			int comparison;
+			if (before.entry == null) {
+				comparison = 1;
+			} else if (after.entry == null) {
+				comparison = -1;
+			} else {
+				comparison = String.CASE_INSENSITIVE_ORDER.compare(before.entry.getKey(), after.entry.getKey());
+			}
+
+			if (comparison < 0) {
+				handler.handle(Change.REMOVED, before.entry.getKey(), before.entry.getValue(), null);
+				before.next();
+			} else if (comparison > 0) {
+				handler.handle(Change.ADDED, after.entry.getKey(), null, after.entry.getValue());
+				after.next();
+			} else {
+				String key = after.entry.getKey();
+				String value = after.entry.getValue();
+				if (!before.entry.getValue().equals(value)) {
+					handler.handle(Change.CHANGED, key, before.entry.getValue(), value);
+				} else if (hashed && isNode(value) && !"/".equals(key) && !after.startsWith(identical)) {
+					// The content of an object is under "key/", and the content of an array under "key["
+					int size = beforeHashes.getSameSubtreeSize(key, afterHashes);
+					if (size >= MIN_SKIPPED_SIZE) {
+						skipped.add(key + ("{object}".equals(value) ? "/" : "["));
+					} else if (size >= 0) {
+						identical = key + ("{object}".equals(value) ? "/" : "[");
+					}
+				}
+				before.next();
+				after.next();
+			}
+		}
+	}
+}
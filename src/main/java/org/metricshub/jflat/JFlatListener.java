@@ -0,0 +1,111 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import javax.json.JsonValue.ValueType;
+
+/**
+ * Receives the timings and counters of the parsing and CSV conversions of a JFlat document.
+ * <p>
+ * Every method does nothing by default: implement only the ones you need. They are called once per phase
+ * or per operation (never per value), from the thread that parses or converts the document. The same listener
+ * may therefore be called concurrently for different documents.
+ * <p>
+ * Without a listener, nothing is measured or counted.
+ *
+ * @see JFlat#setListener(JFlatListener)
+ * @see JFlatMetrics
+ */
+public interface JFlatListener {
+	/**
+	 * The phases of the processing of a document
+	 */
+	enum Phase {
+		/**
+		 * Reading the JSON document into a tree, with {@link JFlat#parse(boolean)}
+		 * (the streaming parser reads the document while flattening it)
+		 */
+		READ,
+
+		/**
+		 * Flattening the JSON document into the flat map (including the reading of the document by
+		 * {@link JFlat#parseStream(boolean)}, and the merge of the temporary files in external mode)
+		 */
+		FLATTEN,
+
+		/**
+		 * Storing the root value as "/" instead of ""
+		 */
+		ROOT_FIXUP,
+
+		/**
+		 * Expanding the entries of a CSV conversion and reading their properties (including the time spent
+		 * in the handler of the records, or writing them)
+		 */
+		CSV
+	}
+
+	/**
+	 * A phase has completed
+	 *
+	 * @param phase The phase
+	 * @param durationNanos How long it took, in nanoseconds
+	 */
+	default void phaseCompleted(Phase phase, long durationNanos) {}
+
+	/**
+	 * The parsing has read the JSON document
+	 *
+	 * @param length Number of bytes read when the document is read from bytes (InputStream, byte[], ByteBuffer
+	 * or file), or number of characters otherwise
+	 */
+	default void inputRead(long length) {}
+
+	/**
+	 * The parsing has flattened values of the specified type (called for each type found in the document)
+	 *
+	 * @param type The type of the values
+	 * @param count The number of values (with a CsvQuery, the parts of the document that are skipped are not counted)
+	 */
+	default void valuesFlattened(ValueType type, long count) {}
+
+	/**
+	 * The parsing has flattened arrays (called only when the document contains arrays)
+	 *
+	 * @param count The number of arrays
+	 * @param maxLength The length of the largest one
+	 */
+	default void arraysFlattened(long count, int maxLength) {}
+
+	/**
+	 * The parsing is complete
+	 *
+	 * @param size The number of entries in the flat map
+	 */
+	default void flatMapBuilt(int size) {}
+
+	/**
+	 * A CSV conversion is complete
+	 *
+	 * @param count The number of records (lines) produced
+	 */
+	default void csvRecordsProduced(long count) {}
+}
@@ -0,0 +1,255 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.json.JsonValue.ValueType;
+
+/**
+ * A {@link JFlatListener} that aggregates the timings and counters of any number of documents.
+ * <p>
+ * The counters are {@link LongAdder}s, and the distributions are histograms of LongAdders: an instance can be
+ * shared by all the JFlat instances of an application, parsed concurrently, without any locking.
+ *
+ * <pre>
+ * JFlatMetrics metrics = new JFlatMetrics();
+ * jFlat.setListener(metrics);
+ * jFlat.parse();
+ * ...
+ * System.out.println(metrics.getPhaseDurations(Phase.FLATTEN).getPercentile(99) + " ns");
+ * </pre>
+ */
+public final class JFlatMetrics implements JFlatListener {
+
+	/**
+	 * Distribution of positive values, in buckets of powers of 2: 0, 1, 2-3, 4-7, 8-15, etc.
+	 */
+	public static final class Histogram {
+
+		private final LongAdder[] buckets = new LongAdder[65];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		private Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Record a value
+		 *
+		 * @param value The value (negative values are recorded as 0)
+		 */
+		void record(long value) {
+			value = Math.max(0, value);
+
+			// Bucket i holds the values of i bits
+			buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		/**
+		 * @return The number of values recorded
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * @return The sum of the values recorded
+		 */
+		public long getSum() {
+			return sum.sum();
+		}
+
+		/**
+		 * @return The largest value recorded (0 if none)
+		 */
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * @return The average of the values recorded (0 if none)
+		 */
+		public double getMean() {
+			long n = getCount();
+			return n == 0 ? 0 : (double) getSum() / n;
+		}
+
+		/**
+		 * Estimate the specified percentile of the values
+		 *
+		 * @param percentile The percentile (between 0 and 100)
+		 * @return An upper bound of the percentile: the top of the bucket it falls in, within a factor of 2 (0 if no values)
+		 */
+		public long getPercentile(double percentile) {
+			long[] counts = new long[buckets.length];
+			long total = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				counts[i] = buckets[i].sum();
+				total += counts[i];
+			}
+			long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (counts[i] > 0 && seen >= rank) {
+					long top = i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+					return Math.min(top, getMax());
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + getCount() + ", mean=" + Math.round(getMean()) + ", p99=" + getPercentile(99) + ", max=" + getMax();
+		}
+	}
+
+	private final Map<Phase, Histogram> phaseDurations = new EnumMap<Phase, Histogram>(Phase.class);
+	private final Histogram inputLengths = new Histogram();
+	private final Histogram mapSizes = new Histogram();
+	private final Histogram maxArrayLengths = new Histogram();
+	private final Histogram csvRecords = new Histogram();
+	private final Map<ValueType, LongAdder> values = new EnumMap<ValueType, LongAdder>(ValueType.class);
+	private final LongAdder arrays = new LongAdder();
+
+	/**
+	 * Create empty metrics
+	 */
+	public JFlatMetrics() {
+		// The maps are filled once, and only read afterward (safe to share between threads)
+		for (Phase phase : Phase.values()) {
+			phaseDurations.put(phase, new Histogram());
+		}
+		for (ValueType type : ValueType.values()) {
+			values.put(type, new LongAdder());
+		}
+	}
+
+	@Override
+	public void phaseCompleted(Phase phase, long durationNanos) {
+		phaseDurations.get(phase).record(durationNanos);
+	}
+
+	@Override
+	public void inputRead(long length) {
+		inputLengths.record(length);
+	}
+
+	@Override
+	public void valuesFlattened(ValueType type, long count) {
+		values.get(type).add(count);
+	}
+
+	@Override
+	public void arraysFlattened(long count, int maxLength) {
+		arrays.add(count);
+		maxArrayLengths.record(maxLength);
+	}
+
+	@Override
+	public void flatMapBuilt(int size) {
+		mapSizes.record(size);
+	}
+
+	@Override
+	public void csvRecordsProduced(long count) {
+		csvRecords.record(count);
+	}
+
+	/**
+	 * @param phase The phase
+	 * @return The durations of the phase, in nanoseconds
+	 */
+	public Histogram getPhaseDurations(Phase phase) {
+		return phaseDurations.get(phase);
+	}
+
+	/**
+	 * @return The length of the documents (bytes or characters, see {@link JFlatListener#inputRead(long)})
+	 */
+	public Histogram getInputLengths() {
+		return inputLengths;
+	}
+
+	/**
+	 * @return The number of entries in the flat map of the documents
+	 */
+	public Histogram getMapSizes() {
+		return mapSizes;
+	}
+
+	/**
+	 * @return The length of the largest array of the documents (that contain arrays)
+	 */
+	public Histogram getMaxArrayLengths() {
+		return maxArrayLengths;
+	}
+
+	/**
+	 * @return The number of records produced by the CSV conversions
+	 */
+	public Histogram getCsvRecords() {
+		return csvRecords;
+	}
+
+	/**
+	 * @param type The type of the values
+	 * @return The total number of values of the specified type in the documents
+	 */
+	public long getValueCount(ValueType type) {
+		return values.get(type).sum();
+	}
+
+	/**
+	 * @return The total number of arrays in the documents
+	 */
+	public long getArrayCount() {
+		return arrays.sum();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Phase phase : Phase.values()) {
+			result.append(phase).append(" (ns): ").append(phaseDurations.get(phase)).append('\n');
+		}
+		result.append("Input length: ").append(inputLengths).append('\n');
+		result.append("Map size: ").append(mapSizes).append('\n');
+		result.append("Max array length: ").append(maxArrayLengths).append('\n');
+		result.append("CSV records: ").append(csvRecords).append('\n');
+		result.append("Values:");
+		for (ValueType type : ValueType.values()) {
+			result.append(' ').append(type).append('=').append(getValueCount(type));
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,200 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.util.Map.Entry;
+import java.util.stream.Stream;
+
+/**
+ * Immutable copy of a parsed JSON document, created with {@link JFlat#snapshot()}.
+ * <p>
+ * A snapshot is safe to use from several threads at the same time, without any locking:
+ * it is never modified once created. The flat map is stored in sorted arrays (looked up with
+ * a binary search), which take less memory than the tree of the JFlat instance.
+ * <p>
+ * A snapshot can also read a file written by {@link JFlatBinary} directly, see {@link JFlatBinary#open(java.nio.file.Path)}.
+ */
+public final class JFlatSnapshot {
+
+	private final FlatReader map;
+	private final ArrayIndex arrays;
+	private final SubtreeHashes hashes;
+
+	/**
+	 * @param map The flat map (read-only)
+	 * @param arrays The index of the arrays (never modified), or null when map is a {@link BinaryStore}
+	 * @param hashes The hashes of the objects and arrays (never modified once the document is parsed), or null
+	 */
+	JFlatSnapshot(FlatReader map, ArrayIndex arrays, SubtreeHashes hashes) {
+		this.map = map;
+		this.arrays = arrays;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Get the value at the specified path
+	 *
+	 * @param key The path in the flat map, e.g. <code>/object/array[0]/id</code> (case insensitive)
+	 * @return The value ("{object}" and "{array}" for objects and arrays), or null if there is nothing at this path
+	 */
+	public String get(String key) {
+		return map.get(key);
+	}
+
+	/**
+	 * @param key The path in the flat map (case insensitive)
+	 * @return Whether there is a value at this path
+	 */
+	public boolean containsKey(String key) {
+		return map.containsKey(key);
+	}
+
+	/**
+	 * @return The number of pairs of key/value in the flat map
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Dump the JSON tree as a String, like {@link JFlat#getFlatTree(String, String)}
+	 *
+	 * @param valueSeparator String to be placed between each pair of key and value
+	 * @param replaceEndOfLines String to replace the end of lines in the values with (null to leave them as is)
+	 * @return The flat tree
+	 */
+	public StringBuilder getFlatTree(String valueSeparator, String replaceEndOfLines) {
+		StringBuilder result = new StringBuilder();
+		try {
+			writeFlatTree(result, valueSeparator, replaceEndOfLines);
+		} catch (IOException e) {
+			// Never happens with a StringBuilder
+			throw new IllegalStateException(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Dump the JSON tree as a String, like {@link JFlat#getFlatTree()}
+	 *
+	 * @return The flat tree
+	 */
+	public StringBuilder getFlatTree() {
+		return getFlatTree("=", null);
+	}
+
+	/**
+	 * Write the JSON tree to the specified output, like {@link JFlat#writeFlatTree(Appendable, String, String)}
+	 *
+	 * @param out Where to write the result (Writer, PrintStream, StringBuilder, etc.)
+	 * @param valueSeparator String to be placed between each pair of key and value
+	 * @param replaceEndOfLines String to replace the end of lines in the values with (null to leave them as is)
+	 * @throws IOException when writing to the output fails
+	 */
+	public void writeFlatTree(Appendable out, String valueSeparator, String replaceEndOfLines) throws IOException {
+		JFlat.writeFlatTree(map, out, valueSeparator, replaceEndOfLines);
+	}
+
+	/**
+	 * Translates (flattens) the document into a CSV string, like {@link JFlat#toCSV(String, String[], String)}
+	 * <p>
+	 * To run the same extraction many times, compile it once with {@link CsvQuery#compile(String, String...)}
+	 * and use {@link CsvQuery#toCSV(JFlatSnapshot, String)}.
+	 *
+	 * @param csvEntryKey The key in the JSON data that will be shown as a new entry in the resulting CSV (i.e. a new line)
+	 * @param csvProperties Array of strings specifying the properties of the entry key to be added to the CSV as new fields
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @return The CSV string
+	 * @throws IllegalArgumentException when any of the specified arguments is null (or an entry in the csvProperties array is null)
+	 */
+	public StringBuilder toCSV(String csvEntryKey, String[] csvProperties, String separator)
+		throws IllegalArgumentException {
+		return CsvQuery.compile(csvEntryKey, csvProperties).toCSV(this, separator);
+	}
+
+	/**
+	 * Translates (flattens) the document into CSV, written to the specified output, like
+	 * {@link JFlat#writeCSV(Appendable, String, String[], String)}
+	 *
+	 * @param out Where to write the CSV (Writer, PrintStream, StringBuilder, etc.)
+	 * @param csvEntryKey The key in the JSON data that will be shown as a new entry in the resulting CSV (i.e. a new line)
+	 * @param csvProperties Array of strings specifying the properties of the entry key to be added to the CSV as new fields
+	 * @param separator The separator between fields in the resulting CSV (";" will be used if null)
+	 * @throws IOException when writing to the output fails
+	 * @throws IllegalArgumentException when any of the specified arguments is null (or an entry in the csvProperties array is null)
+	 */
+	public void writeCSV(Appendable out, String csvEntryKey, String[] csvProperties, String separator)
+		throws IOException, IllegalArgumentException {
+		CsvQuery.compile(csvEntryKey, csvProperties).writeCSV(this, out, separator);
+	}
+
+	/**
+	 * Translates (flattens) the document into CSV records, like
+	 * {@link JFlat#forEachCSVRecord(String, String[], CsvRecordHandler)}
+	 *
+	 * @param csvEntryKey The key in the JSON data that will be shown as a new entry in the resulting CSV (i.e. a new line)
+	 * @param csvProperties Array of strings specifying the properties of the entry key to be added to the CSV as new fields
+	 * @param handler Receives each record: the key of the entry, and the value of each property ("" when not found)
+	 * @throws IOException when the handler fails
+	 * @throws IllegalArgumentException when any of the specified arguments is null (or an entry in the csvProperties array is null)
+	 */
+	public void forEachCSVRecord(String csvEntryKey, String[] csvProperties, CsvRecordHandler handler)
+		throws IOException, IllegalArgumentException {
+		CsvQuery.compile(csvEntryKey, csvProperties).forEachRecord(this, handler);
+	}
+
+	/**
+	 * Select the pairs of key/value whose key matches the specified path expression, with wildcards
+	 * (e.g. <code>/hosts[*]/cpu/*</code>, see {@link PathQuery})
+	 * <p>
+	 * The pairs are looked up as the stream is consumed, the whole tree is never dumped.
+	 *
+	 * @param pathExpression The path, with wildcards
+	 * @return A stream of the matching pairs of key/value
+	 * @throws IllegalArgumentException when the expression is invalid
+	 */
+	public Stream<Entry<String, String>> select(String pathExpression) throws IllegalArgumentException {
+		return PathQuery.compile(pathExpression).stream(this);
+	}
+
+	/**
+	 * @return The flat map of the document (read-only)
+	 */
+	FlatReader getMap() {
+		return map;
+	}
+
+	/**
+	 * @return The index of the arrays of the document (never modified)
+	 */
+	ArrayIndex getArrays() {
+		// The arrays of a binary document are only read when needed
+		return arrays == null ? ((BinaryStore) map).getArrays() : arrays;
+	}
+
+	/**
+	 * @return The hashes of the objects and arrays of the document (null if they were not computed)
+	 */
+	SubtreeHashes getHashes() {
+		return hashes;
+	}
+}
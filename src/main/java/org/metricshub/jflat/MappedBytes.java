@@ -0,0 +1,129 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only bytes of any size, in one or more buffers (typically, a file mapped in memory).
+ * <p>
+ * A single buffer (and a single mapping) cannot exceed 2 GB, so the bytes are split into segments of 1 GB,
+ * and each position (a long) is translated into a segment and a position in this segment.
+ * All reads are absolute: the same instance can be read by several threads at the same time.
+ */
+final class MappedBytes {
+
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final ByteBuffer[] segments;
+	private final long size;
+
+	/**
+	 * @param buffer The bytes (from the position to the limit of the buffer, which are not modified)
+	 */
+	MappedBytes(ByteBuffer buffer) {
+		size = buffer.remaining();
+		segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+		for (int i = 0; i < segments.length; i++) {
+			ByteBuffer segment = buffer.duplicate();
+			segment.position(buffer.position() + (int) (i * SEGMENT_SIZE));
+			segment.limit(segment.position() + (int) Math.min(SEGMENT_SIZE, size - i * SEGMENT_SIZE));
+			segments[i] = segment.slice();
+		}
+	}
+
+	/**
+	 * @param segments The segments (all of them 1 GB, except the last one)
+	 * @param size The total number of bytes
+	 */
+	private MappedBytes(ByteBuffer[] segments, long size) {
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**
+	 * Map the specified file in memory
+	 * <p>
+	 * The file is not read: its pages are loaded by the operating system when they are accessed.
+	 *
+	 * @param path Path to the file
+	 * @return The bytes of the file
+	 * @throws IOException when the file cannot be opened or mapped
+	 */
+	static MappedBytes map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// The mappings remain valid after the channel is closed
+			long size = channel.size();
+			ByteBuffer[] segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long position = i * SEGMENT_SIZE;
+				segments[i] = channel.map(MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+			}
+			return new MappedBytes(segments, size);
+		}
+	}
+
+	/**
+	 * @return The number of bytes
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @param position Position of the byte
+	 * @return The byte at the specified position
+	 */
+	byte get(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+	}
+
+	/**
+	 * @param position Position of the first byte
+	 * @return The int stored at the specified position (big-endian)
+	 */
+	int getInt(long position) {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 8) | (get(position + i) & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * @param position Position of the first byte
+	 * @return The long stored at the specified position (big-endian)
+	 */
+	long getLong(long position) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (get(position + i) & 0xFF);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,182 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import javax.json.JsonValue.ValueType;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * The counters of the parsing of a document, reported to its {@link JFlatListener}.
+ * <p>
+ * An instance is only created when there is a listener, so that the parsing checks a null reference
+ * instead of counting anything. Not thread-safe: the parallel flattening of an array counts each chunk
+ * separately, and adds the chunks together.
+ */
+final class ParseCounters {
+
+	private static final ValueType[] TYPES = ValueType.values();
+
+	private final long[] values = new long[TYPES.length];
+	private long arrays = 0;
+	private int maxArrayLength = 0;
+	private long inputLength = 0;
+
+	/**
+	 * Count a value of the specified type
+	 *
+	 * @param type The type of the value
+	 */
+	void value(ValueType type) {
+		values[type.ordinal()]++;
+	}
+
+	/**
+	 * Count the value that starts with the specified event of the streaming parser
+	 *
+	 * @param event The event (ignored if it doesn't start a value)
+	 */
+	void value(Event event) {
+		switch (event) {
+			case START_OBJECT:
+				value(ValueType.OBJECT);
+				break;
+			case START_ARRAY:
+				value(ValueType.ARRAY);
+				break;
+			case VALUE_STRING:
+				value(ValueType.STRING);
+				break;
+			case VALUE_NUMBER:
+				value(ValueType.NUMBER);
+				break;
+			case VALUE_TRUE:
+				value(ValueType.TRUE);
+				break;
+			case VALUE_FALSE:
+				value(ValueType.FALSE);
+				break;
+			case VALUE_NULL:
+				value(ValueType.NULL);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Count an array
+	 *
+	 * @param length The length of the array
+	 */
+	void array(int length) {
+		arrays++;
+		maxArrayLength = Math.max(maxArrayLength, length);
+	}
+
+	/**
+	 * Add the counters of a part of the document
+	 *
+	 * @param other The counters of the part
+	 */
+	void addAll(ParseCounters other) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] += other.values[i];
+		}
+		arrays += other.arrays;
+		maxArrayLength = Math.max(maxArrayLength, other.maxArrayLength);
+	}
+
+	/**
+	 * @param reader The source of the document
+	 * @return A reader that counts the characters read from the source
+	 */
+	Reader count(Reader reader) {
+		return new FilterReader(reader) {
+			@Override
+			public int read() throws IOException {
+				int c = super.read();
+				if (c >= 0) {
+					inputLength++;
+				}
+				return c;
+			}
+
+			@Override
+			public int read(char[] buffer, int offset, int length) throws IOException {
+				int count = super.read(buffer, offset, length);
+				if (count > 0) {
+					inputLength += count;
+				}
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * @param stream The source of the document
+	 * @return A stream that counts the bytes read from the source
+	 */
+	InputStream count(InputStream stream) {
+		return new FilterInputStream(stream) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					inputLength++;
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				int count = super.read(buffer, offset, length);
+				if (count > 0) {
+					inputLength += count;
+				}
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Pass the counters to the listener
+	 *
+	 * @param listener The listener of the document
+	 * @param mapSize The number of entries in the flat map
+	 */
+	void report(JFlatListener listener, int mapSize) {
+		listener.inputRead(inputLength);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] > 0) {
+				listener.valuesFlattened(TYPES[i], values[i]);
+			}
+		}
+		if (arrays > 0) {
+			listener.arraysFlattened(arrays, maxArrayLength);
+		}
+		listener.flatMapBuilt(mapSize);
+	}
+}
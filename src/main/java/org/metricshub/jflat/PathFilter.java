@@ -0,0 +1,174 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The paths of a JSON document that a CSV query needs, so that the parsing can skip everything else.
+ * <p>
+ * The filter is a tree of property names (case insensitive), regardless of array indices:
+ * <code>/items[3]/metrics[0]/id</code> is matched against <code>items</code>, <code>metrics</code>, <code>id</code>.
+ * It may therefore keep more than what the query strictly needs (all the entries of an array referenced
+ * with an explicit index, for instance), but never less: the query produces the same result on the filtered
+ * document as on the complete one.
+ */
+final class PathFilter {
+
+	/**
+	 * A property name in the tree
+	 */
+	static final class Node {
+
+		private final Map<String, Node> children = new HashMap<String, Node>();
+
+		/**
+		 * Whether the value of this node must be stored in the flat map
+		 */
+		private boolean keep;
+
+		/**
+		 * Whether this node is on the path of the entry key, so we need the length of its arrays,
+		 * or is followed by an index in a property, so we need the entries of its arrays
+		 */
+		private boolean expand;
+
+		/**
+		 * Get the node for the specified property of this node
+		 * <p>
+		 * The name is matched the same way as the path elements of the query: a name with slashes
+		 * (like <code>I/O</code>) is several elements in the flat map, and the array indices are ignored.
+		 *
+		 * @param name Name of the property (case insensitive)
+		 * @return The matching node, or null if the property is not needed
+		 */
+		Node getChild(String name) {
+			if (name.indexOf('/') >= 0) {
+				Node node = this;
+				for (String element : name.split("/", -1)) {
+					node = node.getChild(element);
+					if (node == null) {
+						return null;
+					}
+				}
+				return node;
+			}
+			if (children.isEmpty()) {
+				return null;
+			}
+			return children.get(fold(stripIndices(name)));
+		}
+
+		/**
+		 * @return Whether the value of this node must be stored in the flat map
+		 */
+		boolean isKept() {
+			return keep;
+		}
+
+		/**
+		 * @return Whether the content of this node (if an object or array) must be read
+		 */
+		boolean isTraversed() {
+			return expand || !children.isEmpty();
+		}
+
+		/**
+		 * Get the specified child node, create it if needed
+		 *
+		 * @param name Name of the property
+		 * @return The child node
+		 */
+		private Node addChild(String name) {
+			return children.computeIfAbsent(fold(name), k -> new Node());
+		}
+	}
+
+	private final Node root = new Node();
+
+	/**
+	 * Build the filter for the specified query
+	 *
+	 * @param query The CSV query
+	 */
+	PathFilter(CsvQuery query) {
+		// Every element of the entry key is needed to expand its arrays
+		String[] pathElements = query.getPathElements();
+		Node[] entryNodes = new Node[pathElements.length + 1];
+		entryNodes[0] = root;
+		root.expand = true;
+		for (int i = 0; i < pathElements.length; i++) {
+			entryNodes[i + 1] = entryNodes[i].addChild(stripIndices(pathElements[i]));
+			entryNodes[i + 1].expand = true;
+		}
+
+		// The entry itself
+		entryNodes[pathElements.length].keep = true;
+
+		// And each property, relative to the entry
+		for (int i = 0; i < query.getProperties().length; i++) {
+			Node node = entryNodes[Math.max(0, pathElements.length - query.getParentLevels(i))];
+			String suffix = query.getSuffix(i);
+			if (!suffix.isEmpty()) {
+				for (String element : suffix.substring(1).split("/", -1)) {
+					node = node.addChild(stripIndices(element));
+					if (element.indexOf('[') >= 0) {
+						node.expand = true;
+					}
+				}
+			}
+			node.keep = true;
+		}
+	}
+
+	/**
+	 * @return The node of the root of the document
+	 */
+	Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Remove the array indices from a path element: "items[3][0]" becomes "items"
+	 *
+	 * @param element The path element
+	 * @return The name of the property
+	 */
+	private static String stripIndices(String element) {
+		int bracket = element.indexOf('[');
+		return bracket < 0 ? element : element.substring(0, bracket);
+	}
+
+	/**
+	 * Case-fold the specified name, the same way {@link String#CASE_INSENSITIVE_ORDER} compares them
+	 *
+	 * @param name The name to fold
+	 * @return The folded name
+	 */
+	private static String fold(String name) {
+		char[] chars = name.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = ArrayIndex.fold(chars[i]);
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,409 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A path expression with wildcards, to select some of the pairs of key/value of a parsed JSON document.
+ * <p>
+ * The expression is a path like the keys of the flat map, where:
+ * <ul>
+ * <li><code>*</code> matches any property name: <code>/hosts[0]/cpu/*</code>
+ * <li><code>[*]</code> matches any entry of an array: <code>/hosts[*]/name</code>
+ * <li><code>[n]</code> matches entry n of an array
+ * <li><code>[a:b]</code> matches the entries from a (included) to b (excluded) of an array,
+ * <code>[:b]</code> and <code>[a:]</code> are also valid
+ * </ul>
+ * Property names are case insensitive, and the whole path must match: <code>/hosts[*]/cpu/*</code> selects
+ * <code>/hosts[0]/cpu/user</code> but not <code>/hosts[0]/cpu/user/max</code>.
+ * <p>
+ * The matching pairs are never collected in memory: they are looked up as the result is iterated.
+ * Array entries are enumerated with the length of the arrays, and property names are looked up directly,
+ * so the cost is O(log n) for each entry of the result. Only <code>*</code> scans the keys, and only those
+ * below its parent. Array entries come in the order of their index, properties in alphabetical order.
+ * <p>
+ * A compiled PathQuery is immutable and can be used by several threads at the same time.
+ */
+public final class PathQuery {
+
+	/**
+	 * A property name
+	 */
+	private static final int NAME = 0;
+
+	/**
+	 * Any property name (*)
+	 */
+	private static final int ANY_NAME = 1;
+
+	/**
+	 * A range of array entries ([n], [a:b] or [*])
+	 */
+	private static final int INDEX = 2;
+
+	/**
+	 * An element of the path expression
+	 */
+	private static final class Element {
+
+		private final int kind;
+		private final String name;
+
+		/**
+		 * For INDEX: the first entry, and the entry after the last one
+		 */
+		private final int from;
+		private final int to;
+
+		private Element(int kind, String name, int from, int to) {
+			this.kind = kind;
+			this.name = name;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	private final String expression;
+	private final Element[] elements;
+
+	private PathQuery(String expression, List<Element> elements) {
+		this.expression = expression;
+		this.elements = elements.toArray(new Element[0]);
+	}
+
+	/**
+	 * Compile the specified path expression
+	 *
+	 * @param expression The path, with wildcards (e.g. <code>/hosts[*]/cpu/*</code>)
+	 * @return The compiled query
+	 * @throws IllegalArgumentException when the expression is null or invalid
+	 */
+	public static PathQuery compile(String expression) throws IllegalArgumentException {
+		if (expression == null) {
+			throw new IllegalArgumentException("Path expression cannot be null");
+		}
+
+		List<Element> elements = new ArrayList<Element>();
+		String path = expression.startsWith("/") ? expression.substring(1) : expression;
+		if (!path.isEmpty()) {
+			String[] parts = path.split("/", -1);
+			for (int p = 0; p < parts.length; p++) {
+				String part = parts[p];
+
+				// The property name, except for the entries of a root array ("[*]/id")
+				int bracket = part.indexOf('[');
+				String name = bracket < 0 ? part : part.substring(0, bracket);
+				if (name.isEmpty()) {
+					if (p > 0 || bracket < 0) {
+						throw new IllegalArgumentException("Empty property name in path expression: " + expression);
+					}
+				} else if ("*".equals(name)) {
+					elements.add(new Element(ANY_NAME, null, 0, 0));
+				} else {
+					elements.add(new Element(NAME, name, 0, 0));
+				}
+
+				// Then the array indices
+				while (bracket >= 0) {
+					int close = part.indexOf(']', bracket);
+					if (close < 0) {
+						throw new IllegalArgumentException("Missing ] in path expression: " + expression);
+					}
+					elements.add(parseIndex(part.substring(bracket + 1, close), expression));
+					if (close + 1 < part.length() && part.charAt(close + 1) != '[') {
+						throw new IllegalArgumentException(
+							"Unexpected characters after ] in path expression: " + expression
+						);
+					}
+					bracket = close + 1 < part.length() ? close + 1 : -1;
+				}
+			}
+		}
+
+		return new PathQuery(expression, elements);
+	}
+
+	/**
+	 * Parse the content of an array selector: "*", "n", "a:b", "a:" or ":b"
+	 *
+	 * @param selector What's between the brackets
+	 * @param expression The whole expression (for error messages)
+	 * @return The element of the query
+	 */
+	private static Element parseIndex(String selector, String expression) {
+		try {
+			if ("*".equals(selector)) {
+				return new Element(INDEX, null, 0, Integer.MAX_VALUE);
+			}
+			int colon = selector.indexOf(':');
+			if (colon < 0) {
+				int index = Integer.parseInt(selector.trim());
+				if (index < 0) {
+					throw new NumberFormatException();
+				}
+				return new Element(INDEX, null, index, index + 1);
+			}
+			String start = selector.substring(0, colon).trim();
+			String end = selector.substring(colon + 1).trim();
+			int first = start.isEmpty() ? 0 : Integer.parseInt(start);
+			int last = end.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(end);
+			if (first < 0 || last < 0) {
+				throw new NumberFormatException();
+			}
+			return new Element(INDEX, null, first, last);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(
+				"Invalid array index [" + selector + "] in path expression: " + expression
+			);
+		}
+	}
+
+	/**
+	 * @return The path expression
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Select the matching pairs of key/value of the specified document
+	 *
+	 * @param jFlat The parsed JSON document
+	 * @return An iterator on the matching pairs (keys as they appear in the flat map)
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 */
+	public Iterator<Entry<String, String>> iterator(JFlat jFlat) throws IllegalStateException {
+		// Did we parse the thing yet?
+		jFlat.checkParsed();
+
+		return new Matches(jFlat.getMap(), jFlat.getArrays());
+	}
+
+	/**
+	 * Select the matching pairs of key/value of the specified snapshot
+	 *
+	 * @param snapshot The parsed JSON document
+	 * @return An iterator on the matching pairs (keys as they appear in the flat map)
+	 */
+	public Iterator<Entry<String, String>> iterator(JFlatSnapshot snapshot) {
+		return new Matches(snapshot.getMap(), snapshot.getArrays());
+	}
+
+	/**
+	 * Select the matching pairs of key/value of the specified document
+	 *
+	 * @param jFlat The parsed JSON document
+	 * @return A (lazy) stream of the matching pairs
+	 * @throws IllegalStateException when the JSON document has not been parsed yet (call parse() first!)
+	 */
+	public Stream<Entry<String, String>> stream(JFlat jFlat) throws IllegalStateException {
+		return toStream(iterator(jFlat));
+	}
+
+	/**
+	 * Select the matching pairs of key/value of the specified snapshot
+	 *
+	 * @param snapshot The parsed JSON document
+	 * @return A (lazy) stream of the matching pairs
+	 */
+	public Stream<Entry<String, String>> stream(JFlatSnapshot snapshot) {
+		return toStream(iterator(snapshot));
+	}
+
+	/**
+	 * @param iterator The matches
+	 * @return A sequential stream of the matches
+	 */
+	private static Stream<Entry<String, String>> toStream(Iterator<Entry<String, String>> iterator) {
+		return StreamSupport.stream(
+			Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+			false
+		);
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	/**
+	 * A path being matched: the prefix resolved so far, and what remains of the expression
+	 */
+	private static final class Frame {
+
+		/**
+		 * Position of the next element of the expression to match
+		 */
+		private final int element;
+
+		/**
+		 * The path matched so far
+		 */
+		private final String prefix;
+
+		/**
+		 * For INDEX: the next entry of the array, and the end of the range
+		 */
+		private int nextIndex = -1;
+		private int endIndex;
+
+		/**
+		 * For ANY_NAME: the keys below the prefix that are left to scan
+		 */
+		private Iterator<Entry<String, String>> scan;
+
+		private Frame(int element, String prefix) {
+			this.element = element;
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * Depth-first evaluation of the expression, one match at a time
+	 */
+	private final class Matches implements Iterator<Entry<String, String>> {
+
+		private final FlatReader map;
+		private final ArrayIndex arrays;
+		private final Deque<Frame> stack = new ArrayDeque<Frame>();
+		private Entry<String, String> next;
+
+		private Matches(FlatReader map, ArrayIndex arrays) {
+			this.map = map;
+			this.arrays = arrays;
+			stack.push(new Frame(0, ""));
+			next = advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry<String, String> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Entry<String, String> result = next;
+			next = advance();
+			return result;
+		}
+
+		/**
+		 * @return The next match, or null if there is none
+		 */
+		private Entry<String, String> advance() {
+			while (!stack.isEmpty()) {
+				Frame frame = stack.peek();
+
+				// The whole expression is matched: does the key exist?
+				if (frame.element == elements.length) {
+					stack.pop();
+					String key = frame.prefix.isEmpty() ? "/" : frame.prefix;
+					String storedKey = map.getKey(key);
+					if (storedKey != null) {
+						return new SimpleImmutableEntry<String, String>(storedKey, map.get(key));
+					}
+					continue;
+				}
+
+				Element element = elements[frame.element];
+				switch (element.kind) {
+					case NAME:
+						stack.pop();
+						stack.push(new Frame(frame.element + 1, JFlat.childPath(frame.prefix, element.name)));
+						break;
+					case INDEX:
+						// Range of entries, limited to the actual length of the array
+						if (frame.nextIndex < 0) {
+							frame.nextIndex = element.from;
+							frame.endIndex = Math.min(element.to, arrays.getLength(frame.prefix));
+						}
+						if (frame.nextIndex < frame.endIndex) {
+							stack.push(new Frame(frame.element + 1, JFlat.indexPath(frame.prefix, frame.nextIndex++)));
+						} else {
+							stack.pop();
+						}
+						break;
+					default:
+						// Any name: scan the keys below the prefix
+						String scanPrefix = frame.prefix + "/";
+						if (frame.scan == null) {
+							frame.scan = map.withPrefix(scanPrefix);
+						}
+						Entry<String, String> entry = frame.scan.hasNext() ? frame.scan.next() : null;
+						String key = entry == null ? null : entry.getKey();
+						int start = scanPrefix.length();
+						if (key == null || !key.regionMatches(true, 0, scanPrefix, 0, start)) {
+							stack.pop();
+							break;
+						}
+						int end = start;
+						while (end < key.length() && key.charAt(end) != '/' && key.charAt(end) != '[') {
+							end++;
+						}
+						if (end == start) {
+							break;
+						}
+
+						// The keys of a property are the property itself, then the keys of its properties ("name/...")
+						// and of its entries ("name[..."), which we jump over like JFlatDiff does. These ranges are not
+						// contiguous ("name-x" is between them), so a range is new only if no previous one exists.
+						String child = key.substring(0, end);
+						boolean isNew = end == key.length();
+						if (!isNew) {
+							char separator = key.charAt(end);
+							frame.scan = map.tailIterator(child + (char) (separator + 1));
+							isNew =
+								map.getKey(child) == null &&
+								(separator == '/' || !map.withPrefix(child + "/").hasNext());
+						}
+
+						if (frame.element == elements.length - 1) {
+							// Last element of the expression: the key itself matches (if it's not further below)
+							if (end == key.length()) {
+								return entry;
+							}
+						} else if (isNew) {
+							// Continue with each property (once)
+							String name = key.substring(start, end);
+							stack.push(new Frame(frame.element + 1, JFlat.childPath(frame.prefix, name)));
+						}
+						break;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Passes the pairs of key/value of a document to a {@link FlatSink} as soon as they are put, in the order
+ * of the document, instead of storing them. The root ("" during the parsing) becomes "/".
+ */
+final class SinkWriter implements FlatWriter {
+
+	private final FlatSink sink;
+	private int size = 0;
+
+	/**
+	 * @param sink Receives the pairs
+	 */
+	SinkWriter(FlatSink sink) {
+		this.sink = sink;
+	}
+
+	@Override
+	public void put(String key, String value) {
+		try {
+			sink.accept(key.isEmpty() ? "/" : key, value);
+		} catch (IOException e) {
+			// Unwrapped by JFlat once the parser has been closed
+			throw new UncheckedIOException(e);
+		}
+		size++;
+	}
+
+	/**
+	 * @return The number of pairs passed to the sink so far (including the duplicate keys)
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,134 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only storage of the flat map in two arrays (keys and values), sorted by key in the order
+ * of {@link String#CASE_INSENSITIVE_ORDER}. Lookups are binary searches.
+ * <p>
+ * The arrays are never modified once built, so the store can be read by several threads at the same time.
+ */
+final class SortedArrayStore implements FlatReader {
+
+	private final String[] keys;
+	private final String[] values;
+
+	/**
+	 * Copy the specified store
+	 *
+	 * @param store The store to copy (iterated in the order of {@link String#CASE_INSENSITIVE_ORDER})
+	 */
+	SortedArrayStore(FlatReader store) {
+		keys = new String[store.size()];
+		values = new String[keys.length];
+		int i = 0;
+		for (Entry<String, String> entry : store) {
+			keys[i] = entry.getKey();
+			values[i] = entry.getValue();
+			i++;
+		}
+	}
+
+	/**
+	 * @param key The key (case insensitive)
+	 * @return The position of the key, or a negative value if not found
+	 */
+	private int indexOf(String key) {
+		return Arrays.binarySearch(keys, key, String.CASE_INSENSITIVE_ORDER);
+	}
+
+	@Override
+	public String get(String key) {
+		int index = indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	@Override
+	public String getKey(String key) {
+		int index = indexOf(key);
+		return index < 0 ? null : keys[index];
+	}
+
+	@Override
+	public int size() {
+		return keys.length;
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> withPrefix(String prefix) {
+		// The first key that is greater or equal to the prefix
+		int start = indexOf(prefix);
+		if (start < 0) {
+			start = -start - 1;
+		}
+
+		// The first key after it that doesn't start with the prefix
+		int end = start;
+		while (end < keys.length && keys[end].regionMatches(true, 0, prefix, 0, prefix.length())) {
+			end++;
+		}
+
+		return iterator(start, end);
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> tailIterator(String fromKey) {
+		int start = indexOf(fromKey);
+		return iterator(start < 0 ? -start - 1 : start, keys.length);
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		return iterator(0, keys.length);
+	}
+
+	/**
+	 * @param start Index of the first entry
+	 * @param end Index after the last entry
+	 * @return An iterator on the specified entries
+	 */
+	private Iterator<Entry<String, String>> iterator(int start, int end) {
+		return new Iterator<Entry<String, String>>() {
+			private int next = start;
+
+			@Override
+			public boolean hasNext() {
+				return next < end;
+			}
+
+			@Override
+			public Entry<String, String> next() {
+				if (next >= end) {
+					throw new NoSuchElementException();
+				}
+				Entry<String, String> entry = new SimpleImmutableEntry<String, String>(keys[next], values[next]);
+				next++;
+				return entry;
+			}
+		};
+	}
+}
@@ -0,0 +1,305 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+/**
+ * Hash of each object and array of a JSON document, computed while it is flattened, so that two versions
+ * of the document can be compared without going through their identical parts.
+ * <p>
+ * The hash of an object or array covers everything below it: the names, values and order of the properties,
+ * the entries of the arrays, and whether the "artificial" nodes ({object} and {array}) were removed.
+ * Two subtrees with the same hash are considered identical: hashes are 64-bit, so a collision is very unlikely,
+ * but not impossible. The number of entries of the flat map below each object or array is kept with its hash.
+ * <p>
+ * Like {@link ArrayIndex}, paths are case iNsEnSiTiVe and the hashes are stored in an open-addressing hash table.
+ * The table doesn't keep the paths, only a 64-bit fingerprint of the case-folded path, next to the hash and
+ * the number of entries, so that a lookup reads a single place in memory.
+ * <p>
+ * Two objects or arrays whose paths only differ in case end up in the same keys of the flat map, which
+ * none of their hashes fully describes: such paths are marked as unusable. Similarly, a property name with
+ * a "/" or a "[" produces keys that can be mistaken for the keys of another subtree: the hashes of the document
+ * are then marked as ambiguous, and only the hash of the root can be used.
+ */
+final class SubtreeHashes {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Each slot of the table takes 3 longs: fingerprint of the path (0 for an empty slot), hash, and number
+	 * of entries (-1 when the path is unusable)
+	 */
+	private static final int STRIDE = 3;
+
+	private static final long OBJECT_SEED = 0x5bd1e9955bd1e995L;
+	private static final long ARRAY_SEED = 0x27d4eb2f165667c5L;
+	private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+	private long[] table = new long[INITIAL_CAPACITY * STRIDE];
+	private int capacity = INITIAL_CAPACITY;
+	private int count = 0;
+	private boolean ambiguous = false;
+
+	/**
+	 * Register the hash of an object or array
+	 * <p>
+	 * If a hash has already been registered with the same path (ignoring case), the path is marked as unusable.
+	 *
+	 * @param path Path of the object or array
+	 * @param hash Hash of its content
+	 * @param size Number of entries added to the flat map by its content
+	 */
+	void put(String path, long hash, int size) {
+		put(fingerprint(path), hash, size);
+	}
+
+	/**
+	 * Register the hashes of another document (or part of a document)
+	 *
+	 * @param other The hashes to copy
+	 */
+	void putAll(SubtreeHashes other) {
+		for (int i = 0; i < other.table.length; i += STRIDE) {
+			if (other.table[i] != 0) {
+				put(other.table[i], other.table[i + 1], other.table[i + 2]);
+			}
+		}
+		ambiguous |= other.ambiguous;
+	}
+
+	/**
+	 * @param fingerprint Fingerprint of the path of the object or array
+	 * @param hash Hash of its content
+	 * @param size Number of entries added to the flat map by its content (-1 if the path is known to be unusable)
+	 */
+	private void put(long fingerprint, long hash, long size) {
+		// Grow the table so that it's never more than half full
+		if (2 * (count + 1) > capacity) {
+			resize(capacity * 2);
+		}
+
+		int slot = slot(fingerprint, capacity);
+		while (table[slot] != 0) {
+			if (table[slot] == fingerprint) {
+				table[slot + 2] = -1;
+				return;
+			}
+			slot = next(slot, capacity);
+		}
+
+		table[slot] = fingerprint;
+		table[slot + 1] = hash;
+		table[slot + 2] = size;
+		count++;
+	}
+
+	/**
+	 * @param path Path of an object or array (case insensitive)
+	 * @param other The hashes of the other document
+	 * @return The number of entries below the object or array at this path if it is the same in both documents,
+	 * -1 otherwise
+	 */
+	int getSameSubtreeSize(String path, SubtreeHashes other) {
+		if (ambiguous || other.ambiguous) {
+			return -1;
+		}
+		long fingerprint = fingerprint(path);
+		int slot = find(fingerprint);
+		int otherSlot = other.find(fingerprint);
+		if (slot < 0 || otherSlot < 0 || table[slot + 1] != other.table[otherSlot + 1]) {
+			return -1;
+		}
+		return table[slot + 2] < 0 || other.table[otherSlot + 2] < 0 ? -1 : (int) table[slot + 2];
+	}
+
+	/**
+	 * @param other The hashes of the other document
+	 * @return Whether both documents are the same (their roots have the same hash)
+	 */
+	boolean isSameDocument(SubtreeHashes other) {
+		long fingerprint = fingerprint("");
+		int slot = find(fingerprint);
+		int otherSlot = other.find(fingerprint);
+		return slot >= 0 && otherSlot >= 0 && table[slot + 1] == other.table[otherSlot + 1];
+	}
+
+	/**
+	 * @param fingerprint Fingerprint of the path
+	 * @return The slot of the path in the table, or -1 if not found
+	 */
+	private int find(long fingerprint) {
+		int slot = slot(fingerprint, capacity);
+		while (table[slot] != 0) {
+			if (table[slot] == fingerprint) {
+				return slot;
+			}
+			slot = next(slot, capacity);
+		}
+		return -1;
+	}
+
+	/**
+	 * Rebuild the table with the specified capacity
+	 *
+	 * @param newCapacity New capacity (a power of 2)
+	 */
+	private void resize(int newCapacity) {
+		long[] oldTable = table;
+		table = new long[newCapacity * STRIDE];
+		capacity = newCapacity;
+		for (int i = 0; i < oldTable.length; i += STRIDE) {
+			if (oldTable[i] != 0) {
+				int slot = slot(oldTable[i], capacity);
+				while (table[slot] != 0) {
+					slot = next(slot, capacity);
+				}
+				System.arraycopy(oldTable, i, table, slot, STRIDE);
+			}
+		}
+	}
+
+	/**
+	 * @param fingerprint Fingerprint of a path
+	 * @param capacity Capacity of the table (a power of 2)
+	 * @return Position of the first slot to try in the table
+	 */
+	private static int slot(long fingerprint, int capacity) {
+		return ((int) fingerprint & (capacity - 1)) * STRIDE;
+	}
+
+	/**
+	 * @param slot Position of a slot in the table
+	 * @param capacity Capacity of the table (a power of 2)
+	 * @return Position of the next slot (linear probing)
+	 */
+	private static int next(int slot, int capacity) {
+		slot += STRIDE;
+		return slot == capacity * STRIDE ? 0 : slot;
+	}
+
+	/**
+	 * 64-bit hash of the case-folded path, consistent with {@link String#equalsIgnoreCase(String)}
+	 * <p>
+	 * Two different paths could have the same fingerprint, but this is as unlikely as two different subtrees with
+	 * the same hash. They would be marked as unusable if they're in the same document.
+	 *
+	 * @param path The path
+	 * @return The fingerprint of the path (never 0)
+	 */
+	static long fingerprint(String path) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < path.length(); i++) {
+			h = (h ^ ArrayIndex.fold(path.charAt(i))) * 0x100000001b3L;
+		}
+		h = mix(h);
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Hash of the name of a property
+	 * <p>
+	 * The hashes are marked as ambiguous if the name contains a "/" or a "[".
+	 *
+	 * @param name Name of the property
+	 * @return The hash of the name
+	 */
+	long name(String name) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '/' || c == '[') {
+				ambiguous = true;
+			}
+			h = (h ^ c) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * @param value A value, as stored in the flat map
+	 * @return The hash of the value
+	 */
+	static long value(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h = (h ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * @param removeNodes Whether the "artificial" nodes are removed from the flat map
+	 * @return The hash of an empty object, to which the name and value of each property are then added
+	 * with {@link #combine(long, long)}
+	 */
+	static long object(boolean removeNodes) {
+		return removeNodes ? ~OBJECT_SEED : OBJECT_SEED;
+	}
+
+	/**
+	 * Add the name or the value of a property to the hash of an object (the order matters)
+	 *
+	 * @param object The hash of the object so far
+	 * @param part The hash of the name or of the value
+	 * @return The new hash of the object
+	 */
+	static long combine(long object, long part) {
+		return mix(object * MULTIPLIER + part);
+	}
+
+	/**
+	 * Hash of an entry of an array
+	 * <p>
+	 * The hashes of the entries are summed, so that parts of the array can be hashed separately
+	 * (see {@link #array(long, int, boolean)}).
+	 *
+	 * @param index Index of the entry in the array
+	 * @param value The hash of the value of the entry
+	 * @return The hash of the entry
+	 */
+	static long entry(int index, long value) {
+		return mix(value + (index + 1) * MULTIPLIER);
+	}
+
+	/**
+	 * @param entries The sum of the hashes of the entries (see {@link #entry(int, long)})
+	 * @param length The number of entries
+	 * @param removeNodes Whether the "artificial" nodes are removed from the flat map
+	 * @return The hash of the array
+	 */
+	static long array(long entries, int length, boolean removeNodes) {
+		return mix((removeNodes ? ~ARRAY_SEED : ARRAY_SEED) + entries * MULTIPLIER + length);
+	}
+
+	/**
+	 * Finalization step of MurmurHash3, so that each bit of the input affects each bit of the result
+	 *
+	 * @param h The value to mix
+	 * @return The mixed value
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93e53ca63c3L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
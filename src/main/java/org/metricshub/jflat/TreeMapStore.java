@@ -0,0 +1,110 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Storage of the flat map in a {@link TreeMap} with {@link String#CASE_INSENSITIVE_ORDER}.
+ */
+final class TreeMapStore implements FlatStore {
+
+	private final TreeMap<String, String> map = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER); // IMPORTANT: The map is case iNsEnSiTiVe!
+
+	@Override
+	public void put(String key, String value) {
+		map.put(key, value);
+	}
+
+	@Override
+	public String get(String key) {
+		return map.get(key);
+	}
+
+	@Override
+	public String getKey(String key) {
+		Entry<String, String> entry = map.floorEntry(key);
+		return entry != null && String.CASE_INSENSITIVE_ORDER.compare(entry.getKey(), key) == 0 ? entry.getKey() : null;
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public String remove(String key) {
+		return map.remove(key);
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> withPrefix(String prefix) {
+		Iterator<Entry<String, String>> tail = map.tailMap(prefix, true).entrySet().iterator();
+
+		// Stop at the first key that doesn't start with the prefix
+		return new Iterator<Entry<String, String>>() {
+			private Entry<String, String> next = advance();
+
+			private Entry<String, String> advance() {
+				if (tail.hasNext()) {
+					Entry<String, String> entry = tail.next();
+					if (entry.getKey().regionMatches(true, 0, prefix, 0, prefix.length())) {
+						return entry;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Entry<String, String> next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				Entry<String, String> result = next;
+				next = advance();
+				return result;
+			}
+		};
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> tailIterator(String fromKey) {
+		return map.tailMap(fromKey, true).entrySet().iterator();
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		return map.entrySet().iterator();
+	}
+}
@@ -0,0 +1,449 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * Storage of the flat map in a radix tree (compressed trie) of the characters of the keys.
+ * <p>
+ * The keys of a flattened document share long prefixes (<code>/obj/array[123]/sub/field</code>,
+ * <code>/obj/array[123]/sub/other</code>, etc.). In the tree, each prefix is stored only once, as the
+ * label of a node, so the keys take a fraction of the memory of a map of complete Strings.
+ * <p>
+ * The children of each node are sorted by their (case-folded) first character, so that a depth-first
+ * traversal of the tree goes through the keys in the order of {@link String#CASE_INSENSITIVE_ORDER}.
+ * Labels are compared ignoring case. The labels keep the case of the key that created them, and the rare
+ * keys that differ in case from the labels they go through keep their original form in their node.
+ */
+final class TrieStore implements FlatStore {
+
+	/**
+	 * A node of the tree
+	 */
+	private static final class Node {
+
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		/**
+		 * The characters from the parent node to this node
+		 */
+		private char[] label;
+
+		/**
+		 * The child nodes, sorted by the case-folded first character of their label
+		 */
+		private Node[] children = NO_CHILDREN;
+
+		/**
+		 * The value of the key that ends at this node (null if no key ends here)
+		 */
+		private String value;
+
+		/**
+		 * The key that ends at this node, only when it doesn't match the labels exactly (case)
+		 */
+		private String exactKey;
+
+		private Node(char[] label) {
+			this.label = label;
+		}
+
+		/**
+		 * Find the child whose label starts with the specified character (case-folded)
+		 *
+		 * @param c The case-folded character
+		 * @return The index of the child if found, or (-(insertion point) - 1)
+		 */
+		private int findChild(char c) {
+			int low = 0;
+			int high = children.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				char midChar = ArrayIndex.fold(children[mid].label[0]);
+				if (midChar < c) {
+					low = mid + 1;
+				} else if (midChar > c) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+		/**
+		 * Insert a child at the specified position
+		 *
+		 * @param index Where to insert the child
+		 * @param child The child node
+		 */
+		private void insertChild(int index, Node child) {
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(children, 0, newChildren, 0, index);
+			newChildren[index] = child;
+			System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+			children = newChildren;
+		}
+	}
+
+	private final Node root = new Node(new char[0]);
+	private int size = 0;
+
+	@Override
+	public void put(String key, String value) {
+		Node node = root;
+		int pos = 0;
+
+		// Whether the key matches the labels exactly so far (case)
+		boolean exact = true;
+
+		while (pos < key.length()) {
+			int index = node.findChild(ArrayIndex.fold(key.charAt(pos)));
+
+			// No child for this character: the rest of the key becomes a new leaf
+			if (index < 0) {
+				Node leaf = new Node(key.substring(pos).toCharArray());
+				node.insertChild(-index - 1, leaf);
+				node = leaf;
+				pos = key.length();
+				break;
+			}
+
+			// Compare the label of the child with the key
+			Node child = node.children[index];
+			char[] label = child.label;
+			int matched = 0;
+			while (matched < label.length && pos + matched < key.length()) {
+				char c = key.charAt(pos + matched);
+				if (label[matched] != c) {
+					if (ArrayIndex.fold(label[matched]) != ArrayIndex.fold(c)) {
+						break;
+					}
+					exact = false;
+				}
+				matched++;
+			}
+
+			// The key diverges (or ends) in the middle of the label: split the child
+			if (matched < label.length) {
+				Node middle = new Node(Arrays.copyOf(label, matched));
+				child.label = Arrays.copyOfRange(label, matched, label.length);
+				middle.children = new Node[] { child };
+				node.children[index] = middle;
+				child = middle;
+			}
+
+			node = child;
+			pos += matched;
+		}
+
+		// New key or existing one?
+		if (node.value == null) {
+			size++;
+			node.exactKey = exact ? null : key;
+		}
+		node.value = value;
+	}
+
+	@Override
+	public String get(String key) {
+		Node node = find(key);
+		return node == null ? null : node.value;
+	}
+
+	@Override
+	public String getKey(String key) {
+		Node node = find(key);
+		if (node == null || node.value == null) {
+			return null;
+		}
+		if (node.exactKey != null) {
+			return node.exactKey;
+		}
+
+		// Rebuild the key from the labels: it's the same as the specified key, ignoring case
+		char[] chars = new char[key.length()];
+		Node current = root;
+		int pos = 0;
+		while (current != node) {
+			current = current.children[current.findChild(ArrayIndex.fold(key.charAt(pos)))];
+			System.arraycopy(current.label, 0, chars, pos, current.label.length);
+			pos += current.label.length;
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public String remove(String key) {
+		Node node = find(key);
+		if (node == null || node.value == null) {
+			return null;
+		}
+
+		// Simply empty the node, the structure of the tree remains valid
+		String value = node.value;
+		node.value = null;
+		node.exactKey = null;
+		size--;
+		return value;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the node where the specified key ends
+	 *
+	 * @param key The key (case insensitive)
+	 * @return The node, or null if the key doesn't end on a node
+	 */
+	private Node find(String key) {
+		Node node = root;
+		int pos = 0;
+		while (pos < key.length()) {
+			int index = node.findChild(ArrayIndex.fold(key.charAt(pos)));
+			if (index < 0) {
+				return null;
+			}
+			node = node.children[index];
+			char[] label = node.label;
+			if (pos + label.length > key.length()) {
+				return null;
+			}
+			for (int i = 0; i < label.length; i++) {
+				if (ArrayIndex.fold(label[i]) != ArrayIndex.fold(key.charAt(pos + i))) {
+					return null;
+				}
+			}
+			pos += label.length;
+		}
+		return node;
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> withPrefix(String prefix) {
+		// Find the node where the prefix ends (possibly in the middle of its label)
+		Node node = root;
+		StringBuilder path = new StringBuilder();
+		int pos = 0;
+		while (pos < prefix.length()) {
+			int index = node.findChild(ArrayIndex.fold(prefix.charAt(pos)));
+			if (index < 0) {
+				return Collections.emptyIterator();
+			}
+			node = node.children[index];
+			char[] label = node.label;
+			int length = Math.min(label.length, prefix.length() - pos);
+			for (int i = 0; i < length; i++) {
+				if (ArrayIndex.fold(label[i]) != ArrayIndex.fold(prefix.charAt(pos + i))) {
+					return Collections.emptyIterator();
+				}
+			}
+			path.append(label);
+			pos += label.length;
+		}
+
+		// All the keys in this subtree start with the prefix
+		return new TrieIterator(node, path);
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> tailIterator(String fromKey) {
+		return new TrieIterator(fromKey);
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		return new TrieIterator(root, new StringBuilder());
+	}
+
+	/**
+	 * Depth-first traversal of a subtree: a node's own key comes before the keys of its children,
+	 * and the children are visited in order.
+	 */
+	private final class TrieIterator implements Iterator<Entry<String, String>> {
+
+		/**
+		 * The nodes from the root to the current node
+		 */
+		private Node[] nodes = new Node[32];
+
+		/**
+		 * Index of the next child to visit for each node in the stack
+		 */
+		private int[] nextChild = new int[32];
+		private int depth = 0;
+
+		/**
+		 * The concatenated labels from the root to the current node
+		 */
+		private final StringBuilder path;
+
+		private Entry<String, String> next;
+
+		/**
+		 * @param start The root of the subtree to go through
+		 * @param startPath The concatenated labels from the root of the tree to the start node
+		 */
+		private TrieIterator(Node start, StringBuilder startPath) {
+			nodes[0] = start;
+			nextChild[0] = 0;
+			path = startPath;
+			next = start.value == null ? null : entry(start);
+			if (next == null) {
+				advance();
+			}
+		}
+
+		/**
+		 * Traversal of the whole tree, starting at the specified key
+		 * <p>
+		 * We go down the tree along the key, and set the position in each node so that the traversal
+		 * resumes right before the first key that is greater than or equal to it.
+		 *
+		 * @param fromKey The lowest key to return (case insensitive)
+		 */
+		private TrieIterator(String fromKey) {
+			nodes[0] = root;
+			path = new StringBuilder();
+			int pos = 0;
+			while (pos < fromKey.length()) {
+				Node node = nodes[depth];
+				int index = node.findChild(ArrayIndex.fold(fromKey.charAt(pos)));
+
+				// No child for this character: resume with the children that come after it
+				if (index < 0) {
+					nextChild[depth] = -index - 1;
+					advance();
+					return;
+				}
+
+				// Compare the label of the child with the key
+				Node child = node.children[index];
+				char[] label = child.label;
+				int matched = 0;
+				while (
+					matched < label.length &&
+					pos + matched < fromKey.length() &&
+					ArrayIndex.fold(label[matched]) == ArrayIndex.fold(fromKey.charAt(pos + matched))
+				) {
+					matched++;
+				}
+
+				// The key diverges (or ends) in the middle of the label: the keys of the child are either
+				// all before it, or all after it
+				if (matched < label.length) {
+					boolean after =
+						pos + matched == fromKey.length() ||
+						ArrayIndex.fold(label[matched]) > ArrayIndex.fold(fromKey.charAt(pos + matched));
+					nextChild[depth] = after ? index : index + 1;
+					advance();
+					return;
+				}
+
+				// Go down, the key of the child itself is before the specified key (it's shorter)
+				nextChild[depth] = index + 1;
+				push(child);
+				pos += label.length;
+			}
+
+			// The specified key ends on this node, its own key comes first
+			Node node = nodes[depth];
+			next = node.value == null ? null : entry(node);
+			if (next == null) {
+				advance();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry<String, String> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Entry<String, String> result = next;
+			advance();
+			return result;
+		}
+
+		/**
+		 * Move to the next node that holds a value
+		 */
+		private void advance() {
+			next = null;
+			while (depth >= 0) {
+				Node node = nodes[depth];
+				if (nextChild[depth] < node.children.length) {
+					// Go down to the next child
+					Node child = node.children[nextChild[depth]++];
+					push(child);
+					if (child.value != null) {
+						next = entry(child);
+						return;
+					}
+				} else {
+					// Done with this node, go back up
+					path.setLength(path.length() - node.label.length);
+					depth--;
+				}
+			}
+		}
+
+		/**
+		 * Go down to the specified child of the current node
+		 *
+		 * @param child The child node
+		 */
+		private void push(Node child) {
+			depth++;
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				nextChild = Arrays.copyOf(nextChild, depth * 2);
+			}
+			nodes[depth] = child;
+			nextChild[depth] = 0;
+			path.append(child.label);
+		}
+
+		/**
+		 * @param node A node with a value
+		 * @return The entry for the specified node
+		 */
+		private Entry<String, String> entry(Node node) {
+			return new SimpleImmutableEntry<String, String>(
+				node.exactKey != null ? node.exactKey : path.toString(),
+				node.value
+			);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package org.metricshub.jflat;
+
+/*-
+ * ╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲
+ * JFlat Utility
+ * ჻჻჻჻჻჻
+ * Copyright (C) 2023 Metricshb
+ * ჻჻჻჻჻჻
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱╲╱
+ */
+
+import java.util.Arrays;
+import javax.json.JsonNumber;
+
+/**
+ * The type of each value of the flat map, and the value itself for numbers, stored as a primitive.
+ * <p>
+ * Like {@link HashStore}, the index is an open-addressing hash table on the case-folded path, and it receives
+ * the same keys as the flat map, in the same order: the first key keeps its case, and the last value wins.
+ * Numbers are converted once, from the JsonNumber of the parser, so that {@link CsvColumns} never parses
+ * the String of the flat map.
+ * <p>
+ * Only the numbers and the null values take room in the index: the other values (strings, booleans, objects
+ * and arrays) are only registered when they replace a number or a null value with the same path,
+ * so a path that is not in the index is looked up in the flat map.
+ *
+ * @see JFlat#setTypedValues(boolean)
+ */
+final class ValueIndex {
+
+	/**
+	 * An integer that fits in a long (the bits are the long itself)
+	 */
+	static final byte LONG = 1;
+
+	/**
+	 * Any other number (the bits are those of the double)
+	 */
+	static final byte DOUBLE = 2;
+
+	/**
+	 * The JSON null value
+	 */
+	static final byte NULL = 3;
+
+	/**
+	 * Anything else: a string, a boolean, an object or an array (the value is in the flat map, and not
+	 * in the index unless it replaced a number or a null value)
+	 */
+	static final byte OTHER = 4;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// The values, in the order they were registered
+	private String[] paths = new String[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private byte[] kinds = new byte[INITIAL_CAPACITY];
+	private long[] bits = new long[INITIAL_CAPACITY];
+	private int size = 0;
+
+	// Open-addressing hash table: index of the value + 1 in each slot (0 when empty), never more than half full
+	private int[] table = new int[2 * INITIAL_CAPACITY];
+
+	/**
+	 * Register a number
+	 *
+	 * @param path Path of the number
+	 * @param number The number, as read by the parser
+	 */
+	void putNumber(String path, JsonNumber number) {
+		if (number.isIntegral()) {
+			try {
+				put(path, LONG, number.longValueExact());
+				return;
+			} catch (ArithmeticException e) {
+				// Too large for a long
+			}
+		}
+		put(path, DOUBLE, Double.doubleToRawLongBits(number.doubleValue()));
+	}
+
+	/**
+	 * Register a value
+	 * <p>
+	 * If a value has already been registered with the same path (ignoring case), it is replaced,
+	 * but the first path is kept. Otherwise, a value of kind {@link #OTHER} is not registered.
+	 *
+	 * @param path Path of the value
+	 * @param kind Its kind ({@link #LONG}, {@link #DOUBLE}, {@link #NULL} or {@link #OTHER})
+	 * @param value The bits of the number (0 for the other kinds)
+	 */
+	void put(String path, byte kind, long value) {
+		int hash = ArrayIndex.hash(path);
+		int index = indexOf(path, hash);
+		if (index >= 0) {
+			kinds[index] = kind;
+			bits[index] = value;
+			return;
+		}
+
+		// The other values are in the flat map
+		if (kind == OTHER) {
+			return;
+		}
+
+		if (size == paths.length) {
+			grow();
+		}
+		paths[size] = path;
+		hashes[size] = hash;
+		kinds[size] = kind;
+		bits[size] = value;
+		insert(size, hash);
+		size++;
+	}
+
+	/**
+	 * Register all the values of another index
+	 * <p>
+	 * Like {@link #put(String, byte, long)}, the values registered here are replaced.
+	 *
+	 * @param other The index to copy
+	 */
+	void putAll(ValueIndex other) {
+		for (int i = 0; i < other.size; i++) {
+			put(other.paths[i], other.kinds[i], other.bits[i]);
+		}
+	}
+
+	/**
+	 * Find the value at the specified path
+	 *
+	 * @param path Path of the value (case insensitive)
+	 * @return Its index, for {@link #getKind(int)} and {@link #getBits(int)}, or -1 if the value is not a number
+	 * or a null value (or if there is no value at this path)
+	 */
+	int find(String path) {
+		return indexOf(path, ArrayIndex.hash(path));
+	}
+
+	/**
+	 * @param index Index of the value, see {@link #find(String)}
+	 * @return The kind of the value
+	 */
+	byte getKind(int index) {
+		return kinds[index];
+	}
+
+	/**
+	 * @param index Index of the value, see {@link #find(String)}
+	 * @return The bits of the number (a long, or the bits of a double)
+	 */
+	long getBits(int index) {
+		return bits[index];
+	}
+
+	/**
+	 * @param path Path of the value (case insensitive)
+	 * @param hash Hash of the case-folded path
+	 * @return The index of the value, or -1 if not found
+	 */
+	private int indexOf(String path, int hash) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			int index = table[slot] - 1;
+			if (hashes[index] == hash && paths[index].equalsIgnoreCase(path)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add a value to the hash table
+	 *
+	 * @param index Index of the value
+	 * @param hash Hash of its case-folded path
+	 */
+	private void insert(int index, int hash) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = index + 1;
+	}
+
+	/**
+	 * Double the capacity, and rebuild the hash table
+	 */
+	private void grow() {
+		int capacity = paths.length * 2;
+		paths = Arrays.copyOf(paths, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		kinds = Arrays.copyOf(kinds, capacity);
+		bits = Arrays.copyOf(bits, capacity);
+		table = new int[2 * capacity];
+		for (int i = 0; i < size; i++) {
+			insert(i, hashes[i]);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class CsvColumnsTest {
+
+	private static final String TYPED =
+		"[{\"id\":1,\"value\":1.5,\"name\":\"a\",\"mixed\":1,\"n\":null,\"big\":12345678901234567890,\"sub\":{\"x\":10}}," +
+		"{\"id\":2,\"value\":3,\"name\":true,\"mixed\":\"x\",\"sub\":{\"x\":20}}," +
+		"{\"id\":3,\"ID\":4,\"value\":-2e3,\"name\":\"c\",\"mixed\":2.50,\"n\":7,\"big\":1,\"sub\":{\"x\":30}}]";
+
+	private static final String[] PROPERTIES = { "id", "value", "name", "mixed", "n", "big", "sub/x", "missing" };
+
+	@Test
+	void types() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat(TYPED);
+		jFlat.setTypedValues(true);
+		jFlat.parse();
+
+		CsvColumns columns = jFlat.toColumns("/", PROPERTIES);
+		assertEquals(3, columns.getRowCount());
+		assertArrayEquals(new String[] { "[0]", "[1]", "[2]" }, columns.getKeys());
+		assertEquals(PROPERTIES.length, columns.getColumnCount());
+
+		// Integers (the last of the duplicate keys wins)
+		CsvColumns.Column id = columns.getColumn(0);
+		assertEquals("id", id.getProperty());
+		assertEquals(CsvColumns.Type.LONG, id.getType());
+		assertArrayEquals(new long[] { 1, 2, 4 }, id.getLongs());
+		assertEquals(0, id.getNullCount());
+		assertThrows(IllegalStateException.class, id::getDoubles);
+		assertThrows(IllegalStateException.class, id::getStrings);
+
+		// Numbers
+		CsvColumns.Column value = columns.getColumn(1);
+		assertEquals(CsvColumns.Type.DOUBLE, value.getType());
+		assertArrayEquals(new double[] { 1.5, 3, -2000 }, value.getDoubles());
+		assertThrows(IllegalStateException.class, value::getLongs);
+
+		// Strings, as in the flat map (even the numbers)
+		assertEquals(CsvColumns.Type.STRING, columns.getColumn(2).getType());
+		assertArrayEquals(new String[] { "a", "TRUE", "c" }, columns.getColumn(2).getStrings());
+		assertArrayEquals(new String[] { "1", "x", "2.50" }, columns.getColumn(3).getStrings());
+
+		// JSON null and missing values
+		CsvColumns.Column n = columns.getColumn(4);
+		assertEquals(CsvColumns.Type.LONG, n.getType());
+		assertArrayEquals(new long[] { 0, 0, 7 }, n.getLongs());
+		assertTrue(n.isNull(0));
+		assertTrue(n.isNull(1));
+		assertFalse(n.isNull(2));
+		assertEquals(2, n.getNullCount());
+
+		// Integers that don't fit in a long
+		CsvColumns.Column big = columns.getColumn(5);
+		assertEquals(CsvColumns.Type.DOUBLE, big.getType());
+		assertEquals(1.2345678901234567e19, big.getDoubles()[0]);
+		assertTrue(Double.isNaN(big.getDoubles()[1]));
+		assertEquals(1, big.getDoubles()[2]);
+		assertTrue(big.isNull(1));
+
+		assertArrayEquals(new long[] { 10, 20, 30 }, columns.getColumn(6).getLongs());
+		assertEquals(3, columns.getColumn(7).getNullCount());
+	}
+
+	@Test
+	void sameAsToCSV() throws IllegalStateException, ParseException, IOException {
+		String json = JFlatTest.getResourceAsString("/large.json");
+		String entryKey = "/groupsState/groupCopiesState";
+		String[] properties = {
+			"activePrimaryRPA",
+			"enabled",
+			"accessedImage",
+			"../groupUID/id",
+			"copyUID/globalCopyUID/clusterUID/id",
+			"missing"
+		};
+
+		JFlat tree = new JFlat(json);
+		tree.setTypedValues(true);
+		tree.parse();
+		CsvColumns columns = tree.toColumns(entryKey, properties);
+
+		List<String> keys = new ArrayList<String>();
+		List<String[]> records = new ArrayList<String[]>();
+		tree.forEachCSVRecord(
+			entryKey,
+			properties,
+			(key, values) -> {
+				keys.add(key);
+				records.add(values);
+			}
+		);
+
+		assertTrue(columns.getRowCount() > 0);
+		assertArrayEquals(keys.toArray(), columns.getKeys());
+		for (int c = 0; c < properties.length; c++) {
+			CsvColumns.Column column = columns.getColumn(c);
+			for (int row = 0; row < records.size(); row++) {
+				String expected = records.get(row)[c];
+				if (column.isNull(row)) {
+					assertTrue(expected.isEmpty() || expected.equals("NULL"));
+				} else if (column.getType() == CsvColumns.Type.LONG) {
+					assertEquals(Long.parseLong(expected), column.getLongs()[row]);
+				} else if (column.getType() == CsvColumns.Type.DOUBLE) {
+					assertEquals(Double.parseDouble(expected), column.getDoubles()[row]);
+				} else {
+					assertEquals(expected, column.getStrings()[row]);
+				}
+			}
+		}
+		assertEquals(CsvColumns.Type.LONG, columns.getColumn(0).getType());
+		assertEquals(CsvColumns.Type.STRING, columns.getColumn(1).getType());
+		assertEquals(CsvColumns.Type.LONG, columns.getColumn(3).getType());
+
+		// Same with the streaming parser, a filter, and in parallel
+		JFlat stream = new JFlat(json);
+		stream.setTypedValues(true);
+		stream.parseStream();
+		assertColumnsEquals(columns, stream.toColumns(entryKey, properties));
+
+		JFlat filtered = new JFlat(json);
+		filtered.setTypedValues(true);
+		filtered.parseStream(CsvQuery.compile(entryKey, properties), false);
+		assertColumnsEquals(columns, filtered.toColumns(entryKey, properties));
+
+		JFlat parallel = new JFlat(json);
+		parallel.setTypedValues(true);
+		parallel.setParallelThreshold(2);
+		parallel.parse();
+		assertColumnsEquals(columns, parallel.toColumns(entryKey, properties));
+	}
+
+	@Test
+	void notTyped() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat(TYPED);
+		assertThrows(IllegalStateException.class, () -> jFlat.toColumns("/", PROPERTIES));
+		jFlat.parse();
+		assertThrows(IllegalStateException.class, () -> jFlat.toColumns("/", PROPERTIES));
+		assertThrows(IllegalStateException.class, () -> jFlat.setTypedValues(true));
+	}
+
+	private static void assertColumnsEquals(CsvColumns expected, CsvColumns actual) {
+		assertArrayEquals(expected.getKeys(), actual.getKeys());
+		assertEquals(expected.getColumnCount(), actual.getColumnCount());
+		for (int c = 0; c < expected.getColumnCount(); c++) {
+			CsvColumns.Column column = expected.getColumn(c);
+			assertEquals(column.getType(), actual.getColumn(c).getType());
+			assertEquals(column.getNullCount(), actual.getColumn(c).getNullCount());
+			switch (column.getType()) {
+				case LONG:
+					assertArrayEquals(column.getLongs(), actual.getColumn(c).getLongs());
+					break;
+				case DOUBLE:
+					assertArrayEquals(column.getDoubles(), actual.getColumn(c).getDoubles());
+					break;
+				default:
+					assertArrayEquals(column.getStrings(), actual.getColumn(c).getStrings());
+					break;
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class CsvQuerySetTest {
+
+	private static final String RPAS = "/rpasState/rpasState";
+
+	@Test
+	void sameAsEachQuery() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat(JFlatTest.getResourceAsString("/large.json"));
+		jFlat.parse();
+
+		CsvQuery[] queries = {
+			CsvQuery.compile(RPAS + "/remoteRPAsConnectivityStatus", "connectivityStatus", "rpaUID/rpaNumber", "../rpaUID/rpaNumber"),
+			CsvQuery.compile(RPAS + "/REMOTERPAsConnectivityStatus", "connectivityStatus", "entityType"),
+			CsvQuery.compile(RPAS + "/globalSystemConfiguation/clustersConfigurations/rpasConfiguration", "rpaUID/rpaNumber", "../../x"),
+			CsvQuery.compile(RPAS + "/globalSystemConfiguation/clustersConfigurations", "."),
+			CsvQuery.compile(RPAS, "rpaUID/rpaNumber", "."),
+			CsvQuery.compile("/", "accountState"),
+			CsvQuery.compile(RPAS + "/remoteRPAsConnectivityStatus", "connectivityStatus", "rpaUID/rpaNumber", "../rpaUID/rpaNumber"),
+			CsvQuery.compile("/nonexistent/path", "id")
+		};
+		CsvQuerySet set = CsvQuerySet.of(queries);
+		assertEquals(queries.length, set.size());
+
+		StringBuilder[] results = set.toCSV(jFlat, ",");
+		JFlatSnapshot snapshot = jFlat.snapshot();
+		StringBuilder[] snapshotResults = set.toCSV(snapshot, ",");
+		for (int q = 0; q < queries.length; q++) {
+			assertEquals(queries[q].toCSV(jFlat, ",").toString(), results[q].toString(), queries[q].toString());
+			assertEquals(results[q].toString(), snapshotResults[q].toString());
+		}
+		assertEquals(0, results[7].length());
+
+		// Arrays at the root of the document
+		JFlat array = new JFlat("[{\"a\":[{\"id\":1},{\"id\":2}],\"b\":3},{\"a\":[{\"id\":4}],\"b\":5}]");
+		array.parse();
+		StringBuilder[] csv = CsvQuerySet.of(CsvQuery.compile("/a", "id", "../b"), CsvQuery.compile("/", "b")).toCSV(array, null);
+		assertEquals("[0]/a[0];1;3;\n[0]/a[1];2;3;\n[1]/a[0];4;5;\n", csv[0].toString());
+		assertEquals("[0];3;\n[1];5;\n", csv[1].toString());
+	}
+
+	@Test
+	void handlers() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat("{\"disks\":[{\"id\":\"d1\"},{\"id\":\"d2\"}],\"nics\":[{\"id\":\"n1\"}]}");
+		CsvQuerySet set = CsvQuerySet.of(CsvQuery.compile("/disks", "id"), CsvQuery.compile("/nics", "id"));
+		List<String> records = new ArrayList<String>();
+
+		// Too early
+		assertThrows(IllegalStateException.class, () -> set.forEachRecord(jFlat, (k, v) -> {}, (k, v) -> {}));
+
+		jFlat.parse();
+		set.forEachRecord(jFlat, (key, values) -> records.add("disk " + key + " " + values[0]), (key, values) -> records.add("nic " + key + " " + values[0]));
+		assertEquals("[disk /disks[0] d1, disk /disks[1] d2, nic /nics[0] n1]", records.toString());
+
+		assertThrows(IllegalArgumentException.class, () -> set.forEachRecord(jFlat, (k, v) -> {}));
+		assertThrows(IllegalArgumentException.class, () -> set.forEachRecord(jFlat, (k, v) -> {}, null));
+		assertThrows(IllegalArgumentException.class, () -> CsvQuerySet.of((CsvQuery[]) null));
+		assertThrows(IllegalArgumentException.class, () -> CsvQuerySet.of(CsvQuery.compile("/"), null));
+		assertEquals(0, CsvQuerySet.of().toCSV(jFlat, null).length);
+	}
+}
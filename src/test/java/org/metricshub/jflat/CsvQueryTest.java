@@ -0,0 +1,109 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class CsvQueryTest {
+
+	private static final String SIMPLE =
+		"[{\"attribute1\":1,\"arrayB\":[{\"id\":1,\"sub\":{\"x\":\"a\"}},{\"id\":2,\"sub\":{\"x\":\"b\"}}]}," +
+		"{\"attribute1\":2,\"arrayB\":[{\"id\":3,\"sub\":{\"x\":\"c\"}}]}]";
+
+	@Test
+	void compile() {
+		CsvQuery query = CsvQuery.compile("arrayB/", "./id", "//sub/x", "../attribute1");
+		assertEquals("/arrayB/", query.getEntryKey());
+		assertArrayEquals(new String[] { "id", "sub/x", "../attribute1" }, query.getProperties());
+
+		assertEquals("/", CsvQuery.compile("").getEntryKey());
+		assertEquals(0, CsvQuery.compile("/", (String[]) null).getProperties().length);
+
+		assertThrows(IllegalArgumentException.class, () -> CsvQuery.compile(null));
+		assertThrows(IllegalArgumentException.class, () -> CsvQuery.compile("/", "id", null));
+	}
+
+	@Test
+	void resolve() {
+		CsvQuery query = CsvQuery.compile("/a/b", ".", "x", "../x", "../../x", "y/../x", "../y/../../x", "..", "x/..");
+		assertEquals("/a[0]/b[1]", query.resolve("/a[0]/b[1]", 0));
+		assertEquals("/a[0]/b[1]/x", query.resolve("/a[0]/b[1]", 1));
+		assertEquals("/a[0]/x", query.resolve("/a[0]/b[1]", 2));
+		assertEquals("/x", query.resolve("/a[0]/b[1]", 3));
+		assertEquals("/a[0]/b[1]/x", query.resolve("/a[0]/b[1]", 4));
+		assertEquals("/x", query.resolve("/a[0]/b[1]", 5));
+
+		// A trailing .. is not a reference to the parent
+		assertEquals("/a[0]/b[1]/..", query.resolve("/a[0]/b[1]", 6));
+		assertEquals("/a[0]/b[1]/x/..", query.resolve("/a[0]/b[1]", 7));
+
+		// Never above the root
+		assertEquals("/x", query.resolve("", 3));
+		assertEquals("[0]/x", query.resolve("[0]/b", 3));
+	}
+
+	@Test
+	void sameAsToCSV() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat(SIMPLE);
+		jFlat.parse();
+
+		String[][] propertySets = {
+			{},
+			{ "." },
+			{ "id", "sub/x", "../attribute1", "non-existent" },
+			{ "./id", "/sub/x", "sub/../id" }
+		};
+		for (String entryKey : new String[] { "/", "arrayB", "/arrayB/", "/arrayB/sub", "/ARRAYB/id", "/nonexistent" }) {
+			for (String[] properties : propertySets) {
+				CsvQuery query = CsvQuery.compile(entryKey, properties);
+				assertEquals(jFlat.toCSV(entryKey, properties, ",").toString(), query.toCSV(jFlat, ",").toString());
+			}
+		}
+
+		assertEquals(
+			"[0]/arrayB[0];1;a;1;\n[0]/arrayB[1];2;b;1;\n[1]/arrayB[0];3;c;2;\n",
+			CsvQuery.compile("/arrayB", "id", "sub/x", "../attribute1").toCSV(jFlat, null).toString()
+		);
+	}
+
+	@Test
+	void reuse() throws Exception {
+		CsvQuery query = CsvQuery.compile("/items", "id", "../host");
+
+		List<JFlat> documents = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			JFlat jFlat = new JFlat("{\"host\":\"h" + i + "\",\"items\":[{\"id\":" + i + "},{\"id\":" + (i + 1) + "}]}");
+			jFlat.parse();
+			documents.add(jFlat);
+		}
+
+		// The same query, used concurrently against many documents
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (JFlat jFlat : documents) {
+				results.add(executor.submit(() -> query.toCSV(jFlat, ";").toString()));
+			}
+			for (int i = 0; i < documents.size(); i++) {
+				assertEquals(
+					"/items[0];" + i + ";h" + i + ";\n/items[1];" + (i + 1) + ";h" + i + ";\n",
+					results.get(i).get()
+				);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// Not parsed
+		assertThrows(IllegalStateException.class, () -> query.toCSV(new JFlat("{}"), ";"));
+	}
+}
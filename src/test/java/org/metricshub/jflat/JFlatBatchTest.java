@@ -0,0 +1,211 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class JFlatBatchTest {
+
+	private static List<String> documents(int count) {
+		List<String> documents = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			StringBuilder json = new StringBuilder("{\"id\":").append(i).append(",\"items\":[");
+			for (int j = 0; j < i % 50; j++) {
+				json.append(j > 0 ? "," : "").append("{\"v\":").append(j).append('}');
+			}
+			documents.add(json.append("]}").toString());
+		}
+		return documents;
+	}
+
+	private static String sequential(String json) throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat(json);
+		jFlat.parse();
+		return jFlat.getFlatTree().toString();
+	}
+
+	@Test
+	void ordered() throws Exception {
+		List<String> documents = documents(500);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			JFlatBatch batch = new JFlatBatch(executor);
+			List<String> results = new ArrayList<>();
+			batch.process(
+				documents,
+				result -> {
+					assertEquals(results.size(), result.getIndex());
+					assertNull(result.getError());
+					results.add(result.getJFlat().getFlatTree().toString());
+				}
+			);
+
+			assertEquals(documents.size(), results.size());
+			for (int i = 0; i < documents.size(); i++) {
+				assertEquals(sequential(documents.get(i)), results.get(i));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void unordered() throws Exception {
+		List<String> documents = documents(300);
+		List<String> expected = new ArrayList<>();
+		for (String json : documents) {
+			expected.add(sequential(json));
+		}
+
+		JFlatBatch batch = new JFlatBatch();
+		batch.setOrdered(false);
+		batch.setStorage(FlatStorage.TRIE);
+		List<Long> indices = new ArrayList<>();
+		batch.process(
+			documents,
+			result -> {
+				assertEquals(expected.get((int) result.getIndex()), result.getJFlat().getFlatTree().toString());
+				indices.add(result.getIndex());
+			}
+		);
+
+		// Every document, once
+		Collections.sort(indices);
+		for (int i = 0; i < documents.size(); i++) {
+			assertEquals(i, indices.get(i));
+		}
+	}
+
+	@Test
+	void ndjson() throws Exception {
+		String ndjson = "{\"a\":1}\n\n{\"a\":2}\r\n{ wrong\n[3]\n";
+
+		JFlatBatch batch = new JFlatBatch();
+		batch.setRemoveNodes(true);
+		List<JFlatBatch.Result> results = new ArrayList<>();
+		batch.processLines(new StringReader(ndjson), results::add);
+
+		assertEquals(4, results.size());
+		assertEquals("/a=1\n", results.get(0).getJFlat().getFlatTree().toString());
+		assertEquals("/a=2\n", results.get(1).getJFlat().getFlatTree().toString());
+		assertNull(results.get(2).getJFlat());
+		assertTrue(results.get(2).getError() instanceof ParseException);
+		assertEquals(3, results.get(3).getIndex());
+		assertEquals("[0]=3\n", results.get(3).getJFlat().getFlatTree().toString());
+
+		// Same thing from a file, with a query
+		Path file = Files.createTempFile("jflat", ".ndjson");
+		try {
+			Files.write(file, "{\"a\":[{\"b\":1,\"c\":2}]}\n{\"a\":[{\"b\":3,\"d\":4}]}\n".getBytes(StandardCharsets.UTF_8));
+			CsvQuery query = CsvQuery.compile("/a", "b");
+			batch.setQuery(query);
+			batch.setRemoveNodes(false);
+			StringBuilder csv = new StringBuilder();
+			batch.processLines(file, result -> query.writeCSV(result.getJFlat(), csv, ";"));
+			assertEquals("/a[0];1;\n/a[0];3;\n", csv.toString());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void backpressure() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		Executor executor = task -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			pool.execute(task);
+		};
+
+		try {
+			for (boolean ordered : new boolean[] { true, false }) {
+				inFlight.set(0);
+				maxInFlight.set(0);
+
+				JFlatBatch batch = new JFlatBatch(executor);
+				batch.setMaxInFlight(5);
+				batch.setOrdered(ordered);
+				batch.process(
+					documents(1000),
+					result -> {
+						// Slow consumer
+						if (ThreadLocalRandom.current().nextInt(10) == 0) {
+							Thread.yield();
+						}
+						inFlight.decrementAndGet();
+					}
+				);
+				assertEquals(0, inFlight.get());
+				assertTrue(maxInFlight.get() <= 5, "max in flight: " + maxInFlight.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void errors() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> new JFlatBatch(null));
+		assertThrows(IllegalArgumentException.class, () -> new JFlatBatch().setMaxInFlight(0));
+
+		// The handler fails: the batch stops
+		JFlatBatch batch = new JFlatBatch();
+		AtomicInteger handled = new AtomicInteger();
+		IOException e = assertThrows(
+			IOException.class,
+			() ->
+				batch.process(
+					documents(100),
+					result -> {
+						if (handled.incrementAndGet() == 10) {
+							throw new IOException("full");
+						}
+					}
+				)
+		);
+		assertEquals("full", e.getMessage());
+		assertEquals(10, handled.get());
+
+		assertThrows(IllegalArgumentException.class, () -> batch.process(documents(1), null));
+
+		// An Error in a task is rethrown as is
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			JFlatBatch failing = new JFlatBatch(pool);
+			failing.setListener(
+				new JFlatListener() {
+					@Override
+					public void flatMapBuilt(int size) {
+						throw new OutOfMemoryError("listener");
+					}
+				}
+			);
+			OutOfMemoryError error = assertThrows(
+				OutOfMemoryError.class,
+				() -> failing.process(documents(10), result -> {})
+			);
+			assertEquals("listener", error.getMessage());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
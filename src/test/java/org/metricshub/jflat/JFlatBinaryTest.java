@@ -0,0 +1,161 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JFlatBinaryTest {
+
+	/**
+	 * Write the document in the binary format and read it back
+	 */
+	private static JFlatSnapshot roundTrip(JFlat jFlat) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JFlatBinary.write(jFlat, out);
+		return JFlatBinary.read(ByteBuffer.wrap(out.toByteArray()));
+	}
+
+	@Test
+	void roundTrip() throws IllegalStateException, ParseException, IOException {
+		for (FlatStorage storage : FlatStorage.values()) {
+			for (String name : new String[] { "simple", "complex", "large" }) {
+				JFlat jFlat = new JFlat(JFlatTest.getResourceAsString("/" + name + ".json"));
+				jFlat.setStorage(storage);
+				jFlat.parse();
+				JFlatSnapshot snapshot = roundTrip(jFlat);
+
+				assertEquals(
+					JFlatTest.getResourceAsString("/" + name + "-flatMap.txt"),
+					snapshot.getFlatTree().toString()
+				);
+				assertEquals(jFlat.getFlatTree(";", "\\n").toString(), snapshot.getFlatTree(";", "\\n").toString());
+				JFlatTest.assertSameFixture(name, jFlat, snapshot);
+
+				// Every key is found, with its value
+				for (Entry<String, String> entry : jFlat.getMap()) {
+					assertEquals(entry.getValue(), snapshot.get(entry.getKey().toUpperCase()));
+				}
+			}
+		}
+	}
+
+	@Test
+	void values() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat(
+			"{\"Name\":\"a\",\"items\":[{\"ID\":1},{\"ID\":-2}],\"big\":9223372036854775807,\"zero\":0,\"minus\":-0," +
+			"\"float\":1.50,\"exp\":1e3,\"lead\":\"007\",\"plus\":\"+1\"," +
+			"\"t\":true,\"f\":false,\"n\":null,\"s\":\"TRUE\"," +
+			"\"text\":\"line1\\nline2\",\"unicode\":\"\\u00e9\\u20ac\\ud83d\\ude00\\u0000\",\"\\u00c9t\\u00e9\":\"\"}"
+		);
+		jFlat.parse();
+		JFlatSnapshot snapshot = roundTrip(jFlat);
+
+		assertEquals(jFlat.getFlatTree().toString(), snapshot.getFlatTree().toString());
+		assertEquals("a", snapshot.get("/name"));
+		assertEquals("-2", snapshot.get("/items[1]/id"));
+		assertEquals("9223372036854775807", snapshot.get("/big"));
+		assertEquals("0", snapshot.get("/zero"));
+		assertEquals(jFlat.getMap().get("/minus"), snapshot.get("/minus"));
+		assertEquals("1.50", snapshot.get("/float"));
+		assertEquals("007", snapshot.get("/lead"));
+		assertEquals("+1", snapshot.get("/plus"));
+		assertEquals("TRUE", snapshot.get("/t"));
+		assertEquals("NULL", snapshot.get("/n"));
+		assertEquals("TRUE", snapshot.get("/s"));
+		assertEquals("line1\nline2", snapshot.get("/text"));
+		assertEquals("é€😀\u0000", snapshot.get("/unicode"));
+		assertEquals("", snapshot.get("/éTÉ"));
+		assertEquals("{array}", snapshot.get("/ITEMS"));
+		assertEquals("{object}", snapshot.get("/"));
+		assertNull(snapshot.get("/items[2]/id"));
+		assertFalse(snapshot.containsKey("/Nam"));
+
+		// Keys keep their case in the output
+		StringBuilder csv = new StringBuilder();
+		snapshot.writeCSV(csv, "/Items/id", new String[] { "." }, ";");
+		assertEquals("/items[0]/ID;1;\n/items[1]/ID;-2;\n", csv.toString());
+	}
+
+	@Test
+	void manyBlocks() throws IllegalStateException, ParseException, IOException {
+		StringBuilder json = new StringBuilder("{\"hosts\":[");
+		for (int i = 0; i < 1000; i++) {
+			json.append(i == 0 ? "" : ",");
+			json.append("{\"name\":\"host").append(i).append("\",\"cpu\":").append(i).append('}');
+		}
+		json.append("]}");
+		JFlat jFlat = new JFlat(json.toString());
+		jFlat.parse();
+		JFlatSnapshot snapshot = roundTrip(jFlat);
+
+		assertEquals(jFlat.getFlatTree().toString(), snapshot.getFlatTree().toString());
+		for (Entry<String, String> entry : jFlat.getMap()) {
+			assertEquals(entry.getKey(), snapshot.getMap().getKey(entry.getKey()));
+			assertEquals(entry.getValue(), snapshot.get(entry.getKey()));
+		}
+		assertNull(snapshot.get("/hosts[1000]/name"));
+		assertNull(snapshot.get("/a"));
+		assertNull(snapshot.get("/z"));
+
+		// Range scans
+		Iterator<Entry<String, String>> iterator = snapshot.getMap().withPrefix("/HOSTS[500]/");
+		assertEquals("/hosts[500]/cpu", iterator.next().getKey());
+		assertEquals("host500", iterator.next().getValue());
+		assertFalse(iterator.hasNext());
+		iterator = snapshot.getMap().tailIterator("/hosts[9]/d");
+		assertEquals("/hosts[9]/name", iterator.next().getKey());
+		assertFalse(iterator.hasNext());
+		assertFalse(snapshot.getMap().withPrefix("/x").hasNext());
+
+		assertEquals(
+			CsvQuery.compile("/hosts", "name", "cpu").toCSV(jFlat, ";").toString(),
+			CsvQuery.compile("/hosts", "name", "cpu").toCSV(snapshot, ";").toString()
+		);
+		assertEquals(10, snapshot.select("/hosts[*]/cpu").filter(e -> e.getValue().length() == 1).count());
+	}
+
+	@Test
+	void file(@TempDir Path directory) throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat(JFlatTest.getResourceAsString("/complex.json"));
+		jFlat.parse();
+		Path path = directory.resolve("complex.jflat");
+		JFlatBinary.write(jFlat, path);
+
+		JFlatSnapshot snapshot = JFlatBinary.open(path);
+		assertEquals(jFlat.getFlatTree().toString(), snapshot.getFlatTree().toString());
+
+		// Write it again, from the snapshot
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JFlatBinary.write(snapshot, out);
+		assertArrayEquals(Files.readAllBytes(path), out.toByteArray());
+
+		// Empty document
+		JFlat empty = new JFlat("[]");
+		empty.parse(true);
+		assertEquals(0, empty.getMap().size());
+		assertEquals(0, roundTrip(empty).size());
+		assertNull(roundTrip(empty).get("/"));
+
+		// Not a binary document
+		Files.write(path, JFlatTest.getResourceAsString("/simple.json").getBytes());
+		assertThrows(IOException.class, () -> JFlatBinary.open(path));
+		assertThrows(IOException.class, () -> JFlatBinary.read(ByteBuffer.allocate(4)));
+		assertThrows(
+			IllegalStateException.class,
+			() -> JFlatBinary.write(new JFlat("{}"), new ByteArrayOutputStream())
+		);
+	}
+}
@@ -0,0 +1,106 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import org.junit.jupiter.api.Test;
+
+public class JFlatCacheTest {
+
+	@Test
+	void hits() throws ParseException, IOException {
+		JFlatCache cache = new JFlatCache(10);
+		String json = JFlatTest.getResourceAsString("/complex.json");
+
+		JFlatSnapshot snapshot = cache.parse(json, false);
+		assertEquals(1, cache.getMissCount());
+		assertSame(snapshot, cache.parse(new String(json.toCharArray()), false));
+		assertEquals(1, cache.getHitCount());
+
+		// The parsing options are part of the key, and so is the encoding
+		assertNotSame(snapshot, cache.parse(json, true));
+		assertNotSame(snapshot, cache.parse(json.getBytes(StandardCharsets.UTF_8), false));
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		assertSame(cache.parse(bytes, false), cache.parse(bytes.clone(), false));
+		assertNotSame(snapshot, cache.parse(json + " ", false));
+		assertEquals(4, cache.size());
+
+		// Same result as a regular parsing
+		JFlat jFlat = new JFlat(json);
+		jFlat.parse();
+		assertEquals(jFlat.getFlatTree().toString(), snapshot.getFlatTree().toString());
+
+		assertThrows(ParseException.class, () -> cache.parse("{", false));
+		assertThrows(IllegalArgumentException.class, () -> new JFlatCache(0));
+		assertThrows(IllegalArgumentException.class, () -> new JFlatCache(1, 0));
+	}
+
+	@Test
+	void csv() throws ParseException, IOException {
+		JFlatCache cache = new JFlatCache(10);
+		String json = JFlatTest.getResourceAsString("/simple.json");
+		JFlat jFlat = new JFlat(json);
+		jFlat.parse();
+		String expected = jFlat.toCSV("/arrayB", new String[] { "id", "../attribute1" }, ";").toString();
+
+		String csv = cache.toCSV(json, false, CsvQuery.compile("/arrayB", "id", "../attribute1"), null);
+		assertEquals(expected, csv);
+		assertEquals(2, cache.getMissCount());
+
+		// Equal queries share the same CSV
+		assertEquals(
+			CsvQuery.compile("arrayB", "/id", "../attribute1"),
+			CsvQuery.compile("/arrayB", "id", "../attribute1")
+		);
+		assertSame(csv, cache.toCSV(json, false, CsvQuery.compile("arrayB", "/id", "../attribute1"), ";"));
+		assertEquals(2, cache.getHitCount());
+
+		// Another query or separator is converted, but the document is not parsed again
+		assertNotEquals(CsvQuery.compile("/arrayB", "id"), CsvQuery.compile("/arrayB", "id", "../attribute1"));
+		assertEquals(
+			expected.replace(';', ','),
+			cache.toCSV(json, false, CsvQuery.compile("/arrayB", "id", "../attribute1"), ",")
+		);
+		assertEquals(3, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+	}
+
+	@Test
+	void eviction() throws ParseException, IOException {
+		JFlatCache cache = new JFlatCache(2);
+		JFlatSnapshot a = cache.parse("{\"a\":1}", false);
+		cache.parse("{\"b\":1}", false);
+		assertSame(a, cache.parse("{\"a\":1}", false));
+
+		// b is the least recently used
+		cache.parse("{\"c\":1}", false);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertSame(a, cache.parse("{\"a\":1}", false));
+		long misses = cache.getMissCount();
+		cache.parse("{\"b\":1}", false);
+		assertEquals(misses + 1, cache.getMissCount());
+
+		// Limited by size: each document is 7 characters, plus the CSV
+		cache = new JFlatCache(10, 19);
+		cache.parse("{\"a\":1}", false);
+		cache.parse("{\"b\":1}", false);
+		assertEquals(2, cache.size());
+		assertEquals("/b;1;\n", cache.toCSV("{\"b\":1}", false, CsvQuery.compile("/b", "."), ";"));
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+
+		// A document larger than the cache is kept until the next one
+		cache.parse("{\"long\":\"aaaaaaaaaaaaaaaaaaaa\"}", false);
+		assertEquals(1, cache.size());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+}
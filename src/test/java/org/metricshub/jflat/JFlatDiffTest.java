@@ -0,0 +1,215 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+public class JFlatDiffTest {
+
+	private static JFlat parse(String json, boolean hashes, boolean stream) throws ParseException, IOException {
+		JFlat jFlat = new JFlat(json);
+		jFlat.setSubtreeHashes(hashes);
+		if (stream) {
+			jFlat.parseStream();
+		} else {
+			jFlat.parse();
+		}
+		return jFlat;
+	}
+
+	private static List<String> diff(JFlat before, JFlat after) throws IOException {
+		List<String> changes = new ArrayList<>();
+		JFlatDiff.compare(
+			before,
+			after,
+			(change, key, oldValue, newValue) -> changes.add(change + " " + key + " " + oldValue + " " + newValue)
+		);
+		return changes;
+	}
+
+	private static String hosts(int count, int changed) {
+		StringBuilder json = new StringBuilder("{\"hosts\":[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json
+				.append("{\"name\":\"host")
+				.append(i)
+				.append("\",\"cpu\":{\"usage\":")
+				.append(i == changed ? 99 : i % 100)
+				.append("},\"disks\":[{\"id\":\"sda\"},{\"id\":\"sdb\"}]}");
+		}
+		return json.append("],\"hosts-count\":").append(count).append('}').toString();
+	}
+
+	@Test
+	void changes() throws ParseException, IOException {
+		String before = "{\"name\":\"a\",\"items\":[{\"id\":1},{\"id\":2}],\"old\":true}";
+		String after = "{\"NAME\":\"a\",\"items\":[{\"id\":1},{\"id\":3},{\"id\":4}],\"new\":false}";
+		List<String> expected = Arrays.asList(
+			"CHANGED /items[1]/id 2 3",
+			"ADDED /items[2] null {object}",
+			"ADDED /items[2]/id null 4",
+			"ADDED /new null FALSE",
+			"REMOVED /old TRUE null"
+		);
+
+		for (boolean hashes : new boolean[] { false, true }) {
+			for (boolean stream : new boolean[] { false, true }) {
+				JFlat first = parse(before, hashes, stream);
+				JFlat second = parse(after, hashes, stream);
+				assertEquals(expected, diff(first, second));
+				assertEquals(Collections.emptyList(), diff(second, parse(after, hashes, !stream)));
+
+				List<String> fromSnapshot = new ArrayList<>();
+				JFlatDiff.compare(first.snapshot(), second, (change, key, o, n) -> fromSnapshot.add(key));
+				JFlatDiff.compare(first.snapshot(), second.snapshot(), (change, key, o, n) -> fromSnapshot.add(key));
+				assertEquals(10, fromSnapshot.size());
+			}
+		}
+
+		assertThrows(IllegalStateException.class, () -> diff(new JFlat("{}"), parse(after, false, false)));
+	}
+
+	@Test
+	void identicalSubtrees() throws ParseException, IOException {
+		String before = hosts(500, -1);
+		String after = hosts(500, 123);
+
+		// Same hashes, whatever the parser
+		JFlat tree = parse(before, true, false);
+		JFlat stream = parse(before, true, true);
+		JFlat parallel = new JFlat(before);
+		parallel.setSubtreeHashes(true);
+		parallel.setParallelThreshold(10);
+		parallel.parse();
+		assertTrue(tree.getHashes().isSameDocument(stream.getHashes()));
+		assertTrue(tree.getHashes().isSameDocument(parallel.getHashes()));
+		assertEquals(4, tree.getHashes().getSameSubtreeSize("/HOSTS[12]/disks", parallel.getHashes()));
+		assertEquals(Collections.emptyList(), diff(tree, stream));
+
+		JFlat changed = parse(after, true, true);
+		assertEquals(-1, tree.getHashes().getSameSubtreeSize("/hosts", changed.getHashes()));
+		assertEquals(-1, tree.getHashes().getSameSubtreeSize("/hosts[123]", changed.getHashes()));
+		assertEquals(8, tree.getHashes().getSameSubtreeSize("/hosts[122]", changed.getHashes()));
+		assertEquals(Arrays.asList("CHANGED /hosts[123]/cpu/usage 23 99"), diff(tree, changed));
+
+		// Large identical objects and arrays are skipped, but not the keys of their siblings that come in between
+		String big = hosts(10, -1);
+		String array = "[" + big + "," + big + "," + big + "]";
+		assertEquals(
+			Arrays.asList(
+				"ADDED /arr-1 null 5",
+				"CHANGED /arrz 6 7",
+				"CHANGED /big-x 1 2",
+				"ADDED /big-y null 3",
+				"ADDED /big0 null 4"
+			),
+			diff(
+				parse("{\"big\":" + big + ",\"big-x\":1,\"arr\":" + array + ",\"arrz\":6}", true, false),
+				parse(
+					"{\"big-x\":2,\"big-y\":3,\"big0\":4,\"big\":" +
+					big +
+					",\"arr\":" +
+					array +
+					",\"arr-1\":5,\"arrz\":7}",
+					true,
+					true
+				)
+			)
+		);
+
+		// The nodes are part of the hashes
+		JFlat withoutNodes = new JFlat(before);
+		withoutNodes.setSubtreeHashes(true);
+		withoutNodes.parse(true);
+		assertFalse(tree.getHashes().isSameDocument(withoutNodes.getHashes()));
+
+		// Same result as a complete comparison, with any storage
+		for (FlatStorage storage : FlatStorage.values()) {
+			JFlat first = new JFlat(JFlatTest.getResourceAsString("/large.json"));
+			first.setStorage(storage);
+			first.setSubtreeHashes(true);
+			first.parse();
+			String modified = JFlatTest
+				.getResourceAsString("/large.json")
+				.replaceFirst("\"regulated\":false", "\"regulated\":true");
+			JFlat second = parse(modified, true, true);
+			List<String> changes = diff(first, second);
+			assertEquals(1, changes.size());
+			assertEquals(
+				changes,
+				diff(parse(JFlatTest.getResourceAsString("/large.json"), false, false), parse(modified, false, true))
+			);
+		}
+	}
+
+	@Test
+	void ambiguousKeys() throws ParseException, IOException {
+		// "/a/x" is also the key of the "a/x" property
+		assertEquals(
+			Arrays.asList("CHANGED /a/x 2 3"),
+			diff(parse("{\"a\":{\"x\":1},\"a/x\":2}", true, false), parse("{\"a\":{\"x\":1},\"a/x\":3}", true, false))
+		);
+
+		// "/a" and "/A" are the same object
+		assertEquals(
+			Arrays.asList("CHANGED /A/y 1 2"),
+			diff(
+				parse("{\"a\":{\"x\":1},\"A\":{\"y\":1}}", true, true),
+				parse("{\"a\":{\"x\":1},\"A\":{\"y\":2}}", true, true)
+			)
+		);
+	}
+
+	@Test
+	void tailIterator() {
+		Random random = new Random(42);
+		TreeMap<String, String> expected = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		FlatStore tree = FlatStorage.TREE_MAP.newStore();
+		FlatStore trie = FlatStorage.TRIE.newStore();
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder key = new StringBuilder();
+			int length = random.nextInt(8);
+			for (int j = 0; j < length; j++) {
+				key.append("aAb/[0]".charAt(random.nextInt(7)));
+			}
+			String value = Integer.toString(i);
+			expected.put(key.toString(), value);
+			tree.put(key.toString(), value);
+			trie.put(key.toString(), value);
+		}
+		FlatReader sorted = new SortedArrayStore(tree);
+
+		List<String> fromKeys = new ArrayList<>(expected.keySet());
+		for (int i = 0; i < 200; i++) {
+			fromKeys.add(fromKeys.get(random.nextInt(expected.size())) + "0");
+			fromKeys.add(fromKeys.get(random.nextInt(expected.size())) + "\\");
+			fromKeys.add(fromKeys.get(random.nextInt(expected.size())) + "c");
+		}
+		for (String fromKey : fromKeys) {
+			List<String> expectedKeys = new ArrayList<>(expected.tailMap(fromKey, true).keySet());
+			for (FlatReader store : new FlatReader[] { tree, trie, sorted }) {
+				List<String> keys = new ArrayList<>();
+				for (Iterator<Entry<String, String>> iterator = store.tailIterator(fromKey); iterator.hasNext();) {
+					keys.add(iterator.next().getKey());
+				}
+				assertEquals(expectedKeys, keys, fromKey);
+			}
+		}
+	}
+}
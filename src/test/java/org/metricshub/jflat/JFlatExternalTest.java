@@ -0,0 +1,165 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JFlatExternalTest {
+
+	/**
+	 * @return The names of the files in the directory
+	 */
+	private static String list(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(file -> file.getFileName().toString()).sorted().reduce("", (a, b) -> a + b + ";");
+		}
+	}
+
+	@Test
+	void sameAsInMemory(@TempDir Path directory) throws IllegalStateException, ParseException, IOException {
+		for (String name : new String[] { "simple", "complex", "large" }) {
+			for (boolean removeNodes : new boolean[] { false, true }) {
+				String json = JFlatTest.getResourceAsString("/" + name + ".json");
+				JFlat expected = new JFlat(json);
+				expected.parseStream(removeNodes);
+
+				// A budget much smaller than the flat map, so that the pairs are written to several temporary files
+				// (and any storage for the pairs in memory)
+				Path file = directory.resolve(name + ".jflat");
+				JFlat jFlat = new JFlat(json);
+				jFlat.setExternal(file, json.length());
+				jFlat.setStorage(removeNodes ? FlatStorage.HASH : FlatStorage.TRIE);
+				jFlat.parse(removeNodes);
+
+				if (removeNodes) {
+					// Without the nodes of the objects and arrays, there is no entry key to query
+					assertEquals(expected.getFlatTree().toString(), jFlat.getFlatTree().toString());
+					assertEquals(expected.getFlatTree().toString(), JFlatBinary.open(file).getFlatTree().toString());
+				} else {
+					JFlatTest.assertSameFixture(name, expected, jFlat);
+					JFlatTest.assertSameFixture(name, expected, jFlat.snapshot());
+					JFlatTest.assertSameFixture(name, expected, JFlatBinary.open(file));
+				}
+
+				// The temporary files have been deleted
+				assertEquals(name + ".jflat;", list(directory));
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	void merge(@TempDir Path directory) throws IllegalStateException, ParseException, IOException {
+		// Same key in different runs, and a property with an empty name at the root
+		String json = "{\"\":\"empty\",\"b\":1,\"a\":[1,2],\"B\":2,\"c\":{\"a\":1},\"C\":3}";
+		JFlat expected = new JFlat(json);
+		expected.parseStream();
+
+		JFlat jFlat = new JFlat(json);
+		jFlat.setExternal(directory.resolve("merge.jflat"), 1);
+		jFlat.parseStream();
+		assertEquals(expected.getFlatTree().toString(), jFlat.getFlatTree().toString());
+		assertEquals("/={object}\n/a={array}\n/a[0]=1\n/a[1]=2\n/b=2\n/c=3\n/c/a=1\n", jFlat.getFlatTree().toString());
+		assertEquals(2, jFlat.toCSV("/a", new String[] { "." }, ";").toString().split("\n").length);
+
+		// Directly
+		ExternalSorter sorter = new ExternalSorter(directory.resolve("sorter.jflat"), 1, FlatStorage.TREE_MAP);
+		sorter.put("", "{object}");
+		sorter.put("/Key", "1");
+		sorter.put("/key", "2");
+		sorter.put("/", "root property");
+		sorter.getArrays().put("/KEY", 2);
+		sorter.arrayRegistered("/KEY");
+		assertEquals(5, sorter.getRunCount());
+		FlatReader store = sorter.finish();
+		assertEquals("{object}", store.get("/"));
+		assertEquals("/Key", store.getKey("/KEY"));
+		assertEquals("2", store.get("/key"));
+		assertEquals(2, store.size());
+		assertEquals("merge.jflat;sorter.jflat;", list(directory));
+	}
+
+	@Test
+	void duplicates(@TempDir Path directory) throws IllegalStateException, ParseException, IOException {
+		// A property declared twice: only its last value is kept, like in the tree, whether the previous one
+		// is still in memory or already written to a temporary file
+		String[] duplicates = {
+			"{\"a\":{\"x\":1},\"a\":2}",
+			"{\"a\":[1,2],\"a\":[3]}",
+			"{\"a\":[1,[2]],\"b\":0,\"a\":{\"y\":[3]},\"c\":{\"a\":4,\"a\":{}}}",
+			"[{\"x\":{\"y\":1,\"y\":[5]},\"x\":{\"z\":2}},{\"x\":[6]}]"
+		};
+		for (String json : duplicates) {
+			for (boolean removeNodes : new boolean[] { false, true }) {
+				JFlat expected = new JFlat(json);
+				expected.parse(removeNodes);
+				for (long budget : new long[] { 1, 300, 100000 }) {
+					Path file = directory.resolve("duplicates.jflat");
+					JFlat jFlat = new JFlat(json);
+					jFlat.setExternal(file, budget);
+					jFlat.parse(removeNodes);
+					assertEquals(expected.getFlatTree().toString(), jFlat.getFlatTree().toString(), json);
+					for (String entryKey : new String[] { "/a", "/a/y", "/x", "/x/y" }) {
+						String[] properties = { ".", "z" };
+						assertEquals(
+							expected.toCSV(entryKey, properties, ";").toString(),
+							jFlat.toCSV(entryKey, properties, ";").toString(),
+							json
+						);
+					}
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	@Test
+	void arraysOnly(@TempDir Path directory) throws IllegalStateException, ParseException, IOException {
+		// Without any pair, only the arrays take memory
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 1000; i++) {
+			json.append(i == 0 ? "" : ",").append("[[]]");
+		}
+		json.append(']');
+
+		ExternalSorter sorter = new ExternalSorter(directory.resolve("sorter.jflat"), 10000, FlatStorage.HASH);
+		for (int i = 0; i < 1000; i++) {
+			String path = JFlat.indexPath("", i);
+			sorter.getArrays().put(path, 1);
+			sorter.arrayRegistered(path);
+		}
+		assertTrue(sorter.getRunCount() > 1);
+		sorter.finish();
+
+		JFlat jFlat = new JFlat(json.toString());
+		jFlat.setExternal(directory.resolve("arrays.jflat"), 10000);
+		jFlat.parseStream(true);
+		assertEquals(0, jFlat.getMap().size());
+		assertEquals(1000, jFlat.getArrays().getLength(""));
+		assertEquals(1, jFlat.getArrays().getLength("[999]"));
+		assertEquals(0, jFlat.getArrays().getLength("[999][0]"));
+	}
+
+	@Test
+	void errors(@TempDir Path directory) throws ParseException, IOException {
+		JFlat jFlat = new JFlat("{\"a\":[1,2,3],\"b\":");
+		jFlat.setExternal(directory.resolve("error.jflat"), 1);
+		assertThrows(ParseException.class, () -> jFlat.parseStream());
+		assertEquals("", list(directory));
+
+		assertThrows(IllegalArgumentException.class, () -> new JFlat("{}").setExternal(directory.resolve("a"), 0));
+		JFlat parsed = new JFlat("{}");
+		parsed.parse();
+		assertThrows(IllegalStateException.class, () -> parsed.setExternal(directory.resolve("parsed.jflat"), 1000));
+		assertFalse(Files.exists(directory.resolve("parsed.jflat")));
+	}
+}
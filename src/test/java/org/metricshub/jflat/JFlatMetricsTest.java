@@ -0,0 +1,131 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.json.JsonValue.ValueType;
+import org.junit.jupiter.api.Test;
+import org.metricshub.jflat.JFlatListener.Phase;
+
+public class JFlatMetricsTest {
+
+	private static final String JSON = "{\"a\":[1,\"été\",true,null,{\"b\":false}],\"c\":[]}";
+
+	@Test
+	void counters() throws IllegalStateException, ParseException, IOException {
+		JFlatMetrics metrics = new JFlatMetrics();
+
+		JFlat tree = new JFlat(JSON);
+		tree.setListener(metrics);
+		tree.parse();
+		JFlat stream = new JFlat(JSON.getBytes(StandardCharsets.UTF_8));
+		stream.setListener(metrics);
+		stream.parseStream();
+
+		// Both parsers count the same values
+		assertEquals(4, metrics.getValueCount(ValueType.OBJECT));
+		assertEquals(4, metrics.getValueCount(ValueType.ARRAY));
+		assertEquals(2, metrics.getValueCount(ValueType.NUMBER));
+		assertEquals(2, metrics.getValueCount(ValueType.STRING));
+		assertEquals(2, metrics.getValueCount(ValueType.TRUE));
+		assertEquals(2, metrics.getValueCount(ValueType.FALSE));
+		assertEquals(2, metrics.getValueCount(ValueType.NULL));
+		assertEquals(4, metrics.getArrayCount());
+		assertEquals(5, metrics.getMaxArrayLengths().getMax());
+		assertEquals(2, metrics.getMaxArrayLengths().getCount());
+
+		// Characters, then bytes
+		assertEquals(JSON.length() + JSON.getBytes(StandardCharsets.UTF_8).length, metrics.getInputLengths().getSum());
+		assertEquals(2 * tree.getMap().size(), metrics.getMapSizes().getSum());
+
+		// The streaming parser reads while flattening
+		assertEquals(1, metrics.getPhaseDurations(Phase.READ).getCount());
+		assertEquals(2, metrics.getPhaseDurations(Phase.FLATTEN).getCount());
+		assertEquals(2, metrics.getPhaseDurations(Phase.ROOT_FIXUP).getCount());
+		assertEquals(0, metrics.getPhaseDurations(Phase.CSV).getCount());
+
+		// CSV conversions
+		assertTrue(tree.toCSV("/a", new String[] { "b" }, null).toString().endsWith("/a[4];FALSE;\n"));
+		CsvQuerySet.of(CsvQuery.compile("/a", "."), CsvQuery.compile("/c", ".")).toCSV(tree, null);
+		tree.snapshot().toCSV("/a", new String[] { "b" }, null);
+		assertEquals(2, metrics.getPhaseDurations(Phase.CSV).getCount());
+		assertEquals(3, metrics.getCsvRecords().getCount());
+		assertEquals(5 + 5 + 1, metrics.getCsvRecords().getSum());
+
+		// Without a listener, nothing is reported
+		tree.setListener(null);
+		tree.toCSV("/a", new String[] { "b" }, null);
+		assertEquals(2, metrics.getPhaseDurations(Phase.CSV).getCount());
+	}
+
+	@Test
+	void parallel() throws IllegalStateException, ParseException, IOException {
+		String json = JFlatTest.getResourceAsString("/large.json");
+		JFlatMetrics sequential = new JFlatMetrics();
+		JFlat jFlat = new JFlat(json);
+		jFlat.setListener(sequential);
+		jFlat.parse();
+
+		JFlatMetrics parallel = new JFlatMetrics();
+		jFlat = new JFlat(json);
+		jFlat.setListener(parallel);
+		jFlat.setParallelThreshold(10);
+		jFlat.parse();
+
+		for (ValueType type : ValueType.values()) {
+			assertEquals(sequential.getValueCount(type), parallel.getValueCount(type), type.toString());
+		}
+		assertEquals(sequential.getArrayCount(), parallel.getArrayCount());
+		assertEquals(sequential.getMaxArrayLengths().getMax(), parallel.getMaxArrayLengths().getMax());
+		assertEquals(sequential.getMapSizes().getSum(), parallel.getMapSizes().getSum());
+		assertTrue(sequential.toString().contains("FLATTEN (ns): count=1"), sequential.toString());
+	}
+
+	@Test
+	void histogram() throws Exception {
+		JFlatMetrics metrics = new JFlatMetrics();
+
+		// Shared between threads
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(
+					executor.submit(() -> {
+						for (int i = 1; i <= 1000; i++) {
+							metrics.flatMapBuilt(i);
+						}
+					})
+				);
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		JFlatMetrics.Histogram sizes = metrics.getMapSizes();
+		assertEquals(4000, sizes.getCount());
+		assertEquals(4 * 500500, sizes.getSum());
+		assertEquals(1000, sizes.getMax());
+		assertEquals(500.5, sizes.getMean());
+
+		// Within a factor of 2
+		assertEquals(511, sizes.getPercentile(50));
+		assertEquals(1000, sizes.getPercentile(99));
+		assertEquals(1, sizes.getPercentile(0));
+		assertEquals(0, metrics.getCsvRecords().getPercentile(50));
+
+		// A listener only implements what it needs
+		new JFlatListener() {}.phaseCompleted(Phase.READ, 1);
+	}
+}
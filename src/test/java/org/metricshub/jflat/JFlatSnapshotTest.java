@@ -0,0 +1,86 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class JFlatSnapshotTest {
+
+	@Test
+	void sameAsJFlat() throws IllegalStateException, ParseException, IOException {
+		for (String name : new String[] { "simple", "complex", "large" }) {
+			JFlat jFlat = new JFlat(JFlatTest.getResourceAsString("/" + name + ".json"));
+			jFlat.parse();
+			JFlatSnapshot snapshot = jFlat.snapshot();
+
+			assertEquals(JFlatTest.getResourceAsString("/" + name + "-flatMap.txt"), snapshot.getFlatTree().toString());
+			assertEquals(jFlat.getFlatTree(";", "\\n").toString(), snapshot.getFlatTree(";", "\\n").toString());
+			JFlatTest.assertSameFixture(name, jFlat, snapshot);
+		}
+	}
+
+	@Test
+	void lookup() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat("{\"Name\":\"a\",\"items\":[{\"ID\":1},{\"ID\":2}]}");
+		jFlat.setStorage(FlatStorage.TRIE);
+		jFlat.parse();
+		JFlatSnapshot snapshot = jFlat.snapshot();
+
+		assertEquals("a", snapshot.get("/name"));
+		assertEquals("{array}", snapshot.get("/ITEMS"));
+		assertEquals("2", snapshot.get("/items[1]/id"));
+		assertEquals("{object}", snapshot.get("/"));
+		assertNull(snapshot.get("/items[2]/id"));
+		assertTrue(snapshot.containsKey("/NAME"));
+		assertFalse(snapshot.containsKey("/Nam"));
+		assertEquals(7, snapshot.size());
+
+		// Keys keep their case in the output
+		StringBuilder csv = new StringBuilder();
+		snapshot.writeCSV(csv, "/Items/id", new String[] { "." }, ";");
+		assertEquals("/items[0]/ID;1;\n/items[1]/ID;2;\n", csv.toString());
+
+		assertThrows(IllegalStateException.class, () -> new JFlat("{}").snapshot());
+	}
+
+	@Test
+	void concurrentReaders() throws Exception {
+		JFlat jFlat = new JFlat(JFlatTest.getResourceAsString("/large.json"));
+		jFlat.parseStream();
+		JFlatSnapshot snapshot = jFlat.snapshot();
+		String expectedTree = jFlat.getFlatTree().toString();
+		CsvQuery query = CsvQuery.compile("/", ".");
+		String expectedCsv = query.toCSV(jFlat, ";").toString();
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				boolean tree = i % 2 == 0;
+				results.add(
+					executor.submit(() ->
+						tree
+							? expectedTree.equals(snapshot.getFlatTree().toString())
+							: expectedCsv.equals(query.toCSV(snapshot, ";").toString())
+					)
+				);
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -1,12 +1,42 @@
 package org.metricshub.jflat;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonParserFactory;
 import org.junit.jupiter.api.Test;
 
 public class JFlatTest {
@@ -32,6 +62,492 @@ public class JFlatTest {
 		assertEquals(getResourceAsString("/large-flatMap.txt"), jFlat.getFlatTree().toString());
 	}
 
+	@Test
+	void parseStream() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat;
+
+		jFlat = new JFlat(getResourceAsString("/simple.json"));
+		jFlat.parseStream();
+		assertEquals(getResourceAsString("/simple-flatMap.txt"), jFlat.getFlatTree().toString());
+		assertEquals(
+			"[0]/arrayB[0];1;1;\n[0]/arrayB[1];2;1;\n[0]/arrayB[2];3;1;\n[1]/arrayB[0];1;2;\n[1]/arrayB[1];2;2;\n[1]/arrayB[2];3;2;\n",
+			jFlat.toCSV("/arrayB", new String[] { "id", "../attribute1" }, null).toString()
+		);
+
+		jFlat = new JFlat(getResourceAsString("/simple.json"));
+		jFlat.parseStream(true);
+		assertEquals(getResourceAsString("/simple-flatMap-removeNodes.txt"), jFlat.getFlatTree().toString());
+
+		jFlat = new JFlat(getResourceAsString("/complex.json"));
+		jFlat.parseStream();
+		assertEquals(getResourceAsString("/complex-flatMap.txt"), jFlat.getFlatTree().toString());
+
+		jFlat = new JFlat(getResourceAsString("/large.json"));
+		jFlat.parseStream();
+		assertEquals(getResourceAsString("/large-flatMap.txt"), jFlat.getFlatTree().toString());
+
+		// Numbers are represented the same way as with parse()
+		jFlat = new JFlat("{\"a\":[1.0,1e5,-0,12345678901234,true,null]}");
+		jFlat.parseStream();
+		assertEquals(
+			"/={object}\n/a={array}\n/a[0]=1.0\n/a[1]=1E+5\n/a[2]=0\n/a[3]=12345678901234\n/a[4]=TRUE\n/a[5]=NULL\n",
+			jFlat.getFlatTree().toString()
+		);
+
+		// Properties declared twice in an object: only the last value is kept, like in the tree
+		String[] duplicates = {
+			"{\"a\":[1,2],\"a\":\"x\"}",
+			"{\"B\":\"b\",\"B\":{}}",
+			"{\"a\":{\"b\":[]},\"a\":{\"b\":[5,6]}}",
+			"[{\"x\":{\"y\":1,\"y\":2},\"x\":{\"z\":[3]},\"xy\":4}]"
+		};
+		for (String json : duplicates) {
+			for (boolean removeNodes : new boolean[] { false, true }) {
+				JFlat tree = new JFlat(json);
+				tree.setTypedValues(true);
+				tree.parse(removeNodes);
+				JFlat stream = new JFlat(json);
+				stream.setTypedValues(true);
+				stream.parseStream(removeNodes);
+				assertEquals(tree.getFlatTree().toString(), stream.getFlatTree().toString(), json);
+				for (String entryKey : new String[] { "/a", "/a/b", "/b", "/x/z" }) {
+					String[] properties = { ".", "y", "z" };
+					assertEquals(
+						tree.toCSV(entryKey, properties, ";").toString(),
+						stream.toCSV(entryKey, properties, ";").toString(),
+						json
+					);
+					assertEquals(
+						tree.toColumns(entryKey, properties).toString(),
+						stream.toColumns(entryKey, properties).toString(),
+						json
+					);
+				}
+			}
+		}
+		jFlat = new JFlat("{\"a\":[1,2],\"a\":\"x\"}");
+		jFlat.parseStream();
+		assertEquals("/a;x;\n", jFlat.toCSV("/a", new String[] { "." }, ";").toString());
+
+		// Errors
+		JFlat empty = new JFlat("");
+		assertThrows(ParseException.class, () -> empty.parseStream());
+		JFlat wrong = new JFlat("{ this: is a wrong JSON document");
+		ParseException e = assertThrows(ParseException.class, () -> wrong.parseStream());
+		assertEquals("JSON syntax error in the specified source at line 1, column 4", e.getMessage());
+		JFlat emptyBytes = new JFlat(new byte[0]);
+		assertThrows(ParseException.class, () -> emptyBytes.parseStream());
+
+		// The root must be an object or an array, with both parsers
+		String message = "JSON document must be an object or an array";
+		for (String json : new String[] { "42", "\"text\"", "null" }) {
+			byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+			assertEquals(message, assertThrows(IOException.class, () -> new JFlat(json).parse()).getMessage());
+			assertEquals(message, assertThrows(IOException.class, () -> new JFlat(json).parseStream()).getMessage());
+			assertEquals(message, assertThrows(IOException.class, () -> new JFlat(bytes).parse()).getMessage());
+			assertEquals(message, assertThrows(IOException.class, () -> new JFlat(bytes).parseStream()).getMessage());
+		}
+	}
+
+	@Test
+	void parseStreamToSink() throws IllegalStateException, ParseException, IOException {
+		// Same pairs as in the flat map, once sorted
+		String[][] resources = {
+			{ "/simple.json", "/simple-flatMap.txt" },
+			{ "/complex.json", "/complex-flatMap.txt" },
+			{ "/large.json", "/large-flatMap.txt" }
+		};
+		for (String[] resource : resources) {
+			Map<String, String> sorted = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			new JFlat(getResourceAsString(resource[0])).parseStream(false, sorted::put);
+			StringBuilder flatTree = new StringBuilder();
+			sorted.forEach((key, value) -> flatTree.append(key).append('=').append(value).append('\n'));
+			assertEquals(getResourceAsString(resource[1]), flatTree.toString(), resource[0]);
+		}
+
+		// In the order of the document
+		List<String> pairs = new ArrayList<String>();
+		JFlat jFlat = new JFlat("{\"b\":1,\"a\":[true,{\"c\":null}],\"B\":2.0}");
+		jFlat.parseStream(false, (key, value) -> pairs.add(key + "=" + value));
+		assertEquals(
+			Arrays.asList("/={object}", "/b=1", "/a={array}", "/a[0]=TRUE", "/a[1]={object}", "/a[1]/c=NULL", "/B=2.0"),
+			pairs
+		);
+
+		// Nothing is stored
+		assertThrows(IllegalStateException.class, () -> jFlat.getFlatTree());
+
+		pairs.clear();
+		new JFlat("[{\"a\":[1]}]").parseStream(true, (key, value) -> pairs.add(key + "=" + value));
+		assertEquals(Arrays.asList("[0]/a[0]=1"), pairs);
+
+		// The pairs are passed as soon as they are read
+		pairs.clear();
+		JFlat truncated = new JFlat("{\"a\":1,\"b\":[2,");
+		assertThrows(ParseException.class, () -> truncated.parseStream(false, (key, value) -> pairs.add(key)));
+		assertEquals(Arrays.asList("/", "/a", "/b", "/b[0]"), pairs);
+
+		// Errors of the sink
+		JFlat failing = new JFlat("{\"a\":1}");
+		IOException e = assertThrows(
+			IOException.class,
+			() ->
+				failing.parseStream(
+					false,
+					(key, value) -> {
+						throw new IOException("sink failed");
+					}
+				)
+		);
+		assertEquals("sink failed", e.getMessage());
+		assertThrows(IllegalArgumentException.class, () -> new JFlat("{}").parseStream(false, null));
+	}
+
+	@Test
+	void trieStorage() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat;
+
+		jFlat = new JFlat(getResourceAsString("/simple.json"));
+		jFlat.setStorage(FlatStorage.TRIE);
+		jFlat.parse(true);
+		assertEquals(getResourceAsString("/simple-flatMap-removeNodes.txt"), jFlat.getFlatTree().toString());
+
+		jFlat = new JFlat(getResourceAsString("/complex.json"));
+		jFlat.setStorage(FlatStorage.TRIE);
+		jFlat.parse();
+		assertEquals(getResourceAsString("/complex-flatMap.txt"), jFlat.getFlatTree().toString());
+
+		jFlat = new JFlat(getResourceAsString("/large.json"));
+		jFlat.setStorage(FlatStorage.TRIE);
+		jFlat.parseStream();
+		assertEquals(getResourceAsString("/large-flatMap.txt"), jFlat.getFlatTree().toString());
+
+		// Keys that differ only by their case: the first one wins, like in a case insensitive TreeMap
+		String json = "{\"Name\":1,\"nAme\":2,\"names\":[{\"ID\":3,\"Id\":4}],\"NAMES2\":5,\"n\":6,\"\u00c9t\u00e9\":7,\"\u00e9T\u00c9x\":8}";
+		JFlat tree = new JFlat(json);
+		tree.parse();
+		JFlat trie = new JFlat(json);
+		trie.setStorage(FlatStorage.TRIE);
+		trie.parse();
+		assertEquals(tree.getFlatTree().toString(), trie.getFlatTree().toString());
+		assertEquals(
+			tree.toCSV("/NAMES", new String[] { "id", "../name" }, ";").toString(),
+			trie.toCSV("/NAMES", new String[] { "id", "../name" }, ";").toString()
+		);
+		assertEquals("/names[0]/ID;4;\n", trie.toCSV("/NAMES/id", new String[] { "." }, ";").toString());
+
+		// Too late
+		assertThrows(IllegalStateException.class, () -> trie.setStorage(FlatStorage.TREE_MAP));
+	}
+
+	@Test
+	void hashStorage() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat;
+
+		jFlat = new JFlat(getResourceAsString("/simple.json"));
+		jFlat.setStorage(FlatStorage.HASH);
+		jFlat.parse(true);
+		assertEquals(getResourceAsString("/simple-flatMap-removeNodes.txt"), jFlat.getFlatTree().toString());
+
+		jFlat = new JFlat(getResourceAsString("/complex.json"));
+		jFlat.setStorage(FlatStorage.HASH);
+		jFlat.parse();
+		assertEquals(getResourceAsString("/complex-flatMap.txt"), jFlat.getFlatTree().toString());
+
+		jFlat = new JFlat(getResourceAsString("/large.json"));
+		jFlat.setStorage(FlatStorage.HASH);
+		jFlat.parseStream();
+		assertEquals(getResourceAsString("/large-flatMap.txt"), jFlat.getFlatTree().toString());
+
+		// Keys that differ only by their case: the first one wins, like in a case insensitive TreeMap
+		String json = "{\"Name\":1,\"nAme\":2,\"names\":[{\"ID\":3,\"Id\":4}],\"NAMES2\":5,\"n\":6,\"\u00c9t\u00e9\":7,\"\u00e9T\u00c9x\":8}";
+		JFlat tree = new JFlat(json);
+		tree.parse();
+		JFlat hash = new JFlat(json);
+		hash.setStorage(FlatStorage.HASH);
+		hash.parse();
+		assertEquals(tree.getFlatTree().toString(), hash.getFlatTree().toString());
+		assertEquals(
+			tree.toCSV("/NAMES", new String[] { "id", "../name" }, ";").toString(),
+			hash.toCSV("/NAMES", new String[] { "id", "../name" }, ";").toString()
+		);
+		assertEquals("/names[0]/ID;4;\n", hash.toCSV("/NAMES/id", new String[] { "." }, ";").toString());
+
+		// The order is computed again after a change
+		FlatStore store = FlatStorage.HASH.newStore();
+		for (int i = 0; i < 100; i++) {
+			store.put("/k" + (99 - i), Integer.toString(i));
+		}
+		assertEquals("/k0", store.iterator().next().getKey());
+		store.put("/K", "first");
+		assertEquals("/K", store.iterator().next().getKey());
+		assertEquals("first", store.remove("/k"));
+		assertEquals("99", store.remove("/K0"));
+		assertEquals("/k1", store.iterator().next().getKey());
+		assertEquals("/k9", store.tailIterator("/K9").next().getKey());
+		int count = 0;
+		for (Iterator<Entry<String, String>> iterator = store.withPrefix("/K5"); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		assertEquals(11, count);
+		assertEquals(99, store.size());
+		assertNull(store.get("/k0"));
+		assertEquals("0", store.get("/K99"));
+
+		// Range scan right after a change (without sorting all the keys)
+		store.put("/K5x", "new");
+		StringBuilder prefixed = new StringBuilder();
+		for (Iterator<Entry<String, String>> iterator = store.withPrefix("/k5"); iterator.hasNext();) {
+			prefixed.append(iterator.next().getKey()).append(',');
+		}
+		assertEquals("/k5,/k50,/k51,/k52,/k53,/k54,/k55,/k56,/k57,/k58,/k59,/K5x,", prefixed.toString());
+		store.remove("/k50");
+		count = 0;
+		for (Iterator<Entry<String, String>> iterator = store.withPrefix(""); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		assertEquals(store.size(), count);
+	}
+
+	@Test
+	void parallel()
+		throws IllegalStateException, ParseException, IOException, InterruptedException, ExecutionException {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (String name : new String[] { "simple", "complex", "large" }) {
+				String json = getResourceAsString("/" + name + ".json");
+				JFlat jFlat = new JFlat(json);
+				jFlat.setParallelThreshold(2);
+				jFlat.setForkJoinPool(pool);
+				jFlat.parse();
+				assertEquals(getResourceAsString("/" + name + "-flatMap.txt"), jFlat.getFlatTree().toString());
+			}
+
+			// Same keys (ignoring case) in different chunks: same result as the sequential parsing
+			StringBuilder json = new StringBuilder("[");
+			for (int i = 0; i < 1000; i++) {
+				json.append(i > 0 ? "," : "").append("{\"v\":").append(i);
+				json.append(",\"list\":[{\"x\":").append(i).append("}]}");
+			}
+			json.append("]");
+			String source = "{\"Items\":" + json + ",\"ITEMS\":" + json.toString().replace("v", "V") + "}";
+			JFlat sequential = new JFlat(source);
+			sequential.parse(true);
+			for (int threshold : new int[] { 1, 10, 1000, 1001 }) {
+				JFlat jFlat = new JFlat(source);
+				jFlat.setParallelThreshold(threshold);
+				jFlat.setForkJoinPool(pool);
+				jFlat.parse(true);
+				assertEquals(sequential.getFlatTree().toString(), jFlat.getFlatTree().toString());
+				assertEquals(
+					sequential.toCSV("/items/LIST", new String[] { "x", "../v" }, ";").toString(),
+					jFlat.toCSV("/items/LIST", new String[] { "x", "../v" }, ";").toString()
+				);
+			}
+
+			// On the common pool
+			JFlat jFlat = new JFlat(source);
+			jFlat.setParallelThreshold(100);
+			jFlat.parse(true);
+			assertEquals(sequential.getFlatTree().toString(), jFlat.getFlatTree().toString());
+
+			// From a task of another pool: the arrays are still flattened in the specified pool
+			ForkJoinPool own = new ForkJoinPool(2);
+			try {
+				JFlat inTask = new JFlat(source);
+				inTask.setParallelThreshold(100);
+				inTask.setForkJoinPool(own);
+				pool.submit(() -> {
+					inTask.parse(true);
+					return null;
+				}).get();
+				assertEquals(sequential.getFlatTree().toString(), inTask.getFlatTree().toString());
+				assertTrue(own.getPoolSize() > 0);
+			} finally {
+				own.shutdown();
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		assertThrows(IllegalArgumentException.class, () -> new JFlat("{}").setParallelThreshold(-1));
+		assertThrows(IllegalArgumentException.class, () -> new JFlat("{}").setForkJoinPool(null));
+	}
+
+	@Test
+	void jsonFactories() throws IllegalStateException, ParseException, IOException {
+		String json = getResourceAsString("/simple.json");
+		String expected = getResourceAsString("/simple-flatMap.txt");
+
+		// A caller-supplied provider
+		JFlat jFlat = new JFlat(json);
+		jFlat.setJsonProvider(JsonProvider.provider(), null);
+		jFlat.parse();
+		assertEquals(expected, jFlat.getFlatTree().toString());
+		jFlat = new JFlat(json);
+		jFlat.setJsonProvider(JsonProvider.provider(), Collections.emptyMap());
+		jFlat.parseStream();
+		assertEquals(expected, jFlat.getFlatTree().toString());
+		assertThrows(IllegalArgumentException.class, () -> new JFlat(json).setJsonProvider(null, null));
+
+		// Caller-supplied factories, shared by several documents
+		AtomicInteger readers = new AtomicInteger();
+		JsonReaderFactory delegate = JsonProvider.provider().createReaderFactory(null);
+		JsonReaderFactory readerFactory = new JsonReaderFactory() {
+			@Override
+			public JsonReader createReader(Reader reader) {
+				readers.incrementAndGet();
+				return delegate.createReader(reader);
+			}
+
+			@Override
+			public JsonReader createReader(InputStream in) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public JsonReader createReader(InputStream in, Charset charset) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Map<String, ?> getConfigInUse() {
+				return delegate.getConfigInUse();
+			}
+		};
+		JsonParserFactory parserFactory = JsonProvider.provider().createParserFactory(null);
+		for (int i = 0; i < 3; i++) {
+			jFlat = new JFlat(json);
+			jFlat.setReaderFactory(readerFactory);
+			jFlat.parse();
+			assertEquals(expected, jFlat.getFlatTree().toString());
+
+			jFlat = new JFlat(json);
+			jFlat.setParserFactory(parserFactory);
+			jFlat.parseStream();
+			assertEquals(expected, jFlat.getFlatTree().toString());
+		}
+		assertEquals(3, readers.get());
+
+		// Back to the default factory
+		jFlat = new JFlat(json);
+		jFlat.setReaderFactory(readerFactory);
+		jFlat.setReaderFactory(null);
+		jFlat.parse();
+		assertEquals(3, readers.get());
+	}
+
+	@Test
+	void byteInput() throws IllegalStateException, ParseException, IOException {
+		String json = getResourceAsString("/complex.json");
+		String expected = getResourceAsString("/complex-flatMap.txt");
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+		JFlat jFlat = new JFlat(bytes);
+		jFlat.parse();
+		assertEquals(expected, jFlat.getFlatTree().toString());
+
+		// Only the bytes between the position and the limit of the buffer, which are left untouched
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 20);
+		buffer.put("garbage".getBytes(StandardCharsets.UTF_8)).put(bytes).put("more garbage".getBytes(StandardCharsets.UTF_8));
+		buffer.position(7).limit(7 + bytes.length);
+		jFlat = new JFlat(buffer);
+		jFlat.parseStream();
+		assertEquals(expected, jFlat.getFlatTree().toString());
+		assertEquals(7, buffer.position());
+
+		// Other encodings
+		jFlat = new JFlat(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_16BE)), null);
+		jFlat.parseStream();
+		assertEquals(expected, jFlat.getFlatTree().toString());
+		bytes = "{\"caf\u00e9\":\"cr\u00e8me\"}".getBytes(StandardCharsets.ISO_8859_1);
+		jFlat = new JFlat(new ByteArrayInputStream(bytes), StandardCharsets.ISO_8859_1);
+		jFlat.parse();
+		assertEquals("/={object}\n/caf\u00e9=cr\u00e8me\n", jFlat.getFlatTree().toString());
+
+		// Memory-mapped file
+		Path file = Files.createTempFile("jflat", ".json");
+		try {
+			Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+			jFlat = JFlat.fromFile(file);
+			jFlat.parse();
+			assertEquals(expected, jFlat.getFlatTree().toString());
+
+			Files.write(file, new byte[0]);
+			JFlat empty = JFlat.fromFile(file);
+			assertThrows(ParseException.class, () -> empty.parseStream());
+		} finally {
+			Files.delete(file);
+		}
+
+		// Syntax errors are reported the same way
+		JFlat wrong = new JFlat("{ this: is a wrong JSON document".getBytes(StandardCharsets.UTF_8));
+		ParseException e = assertThrows(ParseException.class, () -> wrong.parseStream());
+		assertEquals("JSON syntax error in the specified source at line 1, column 4", e.getMessage());
+	}
+
+	@Test
+	void parseStreamWithQuery() throws IllegalStateException, ParseException, IOException {
+		String large = getResourceAsString("/large.json");
+		JFlat full = new JFlat(large);
+		full.parse();
+
+		CsvQuery[] queries = {
+			CsvQuery.compile("/groupsState/groupCopiesState", "enabled", "copyUID/groupUID/id", "../groupUID/id", "."),
+			CsvQuery.compile("/groupsState/linksState/groupLinkUID", "firstCopy/clusterUID/id", "../../enabled"),
+			CsvQuery.compile("/clustersPhoenixClustersState", "CLUSTERNAME", "cluster/id", "status"),
+			CsvQuery.compile("/accountState", "licensesState", "../groupsState"),
+			CsvQuery.compile("/", "accountState/licensesState"),
+			CsvQuery.compile("/nonexistent", "id")
+		};
+
+		for (CsvQuery query : queries) {
+			JFlat projected = new JFlat(large);
+			projected.parseStream(query, false);
+			assertEquals(query.toCSV(full, ";").toString(), query.toCSV(projected, ";").toString(), query.toString());
+			assertTrue(projected.getMap().size() < full.getMap().size() / 4, query.toString());
+
+			// Without the {object} and {array} nodes
+			JFlat fullWithoutNodes = new JFlat(large);
+			fullWithoutNodes.parse(true);
+			projected = new JFlat(large);
+			projected.parseStream(query, true);
+			assertEquals(query.toCSV(fullWithoutNodes, ";").toString(), query.toCSV(projected, ";").toString());
+		}
+
+		// Root array
+		JFlat simple = new JFlat(getResourceAsString("/simple.json"));
+		simple.parseStream(CsvQuery.compile("/arrayB", "id", "../attribute1"), false);
+		assertEquals(
+			"[0]/arrayB[0];1;1;\n[0]/arrayB[1];2;1;\n[0]/arrayB[2];3;1;\n[1]/arrayB[0];1;2;\n[1]/arrayB[1];2;2;\n[1]/arrayB[2];3;2;\n",
+			simple.toCSV("/arrayB", new String[] { "id", "../attribute1" }, null).toString()
+		);
+		assertFalse(simple.getFlatTree().toString().contains("arrayA"));
+
+		// Properties with an index need the entries of their array
+		CsvQuery indexQuery = CsvQuery.compile("/", "arrayA[1]", "arrayB[2]/id", "../attribute1");
+		JFlat indexFull = new JFlat(getResourceAsString("/simple.json"));
+		indexFull.parse();
+		JFlat indexProjected = new JFlat(getResourceAsString("/simple.json"));
+		indexProjected.parseStream(indexQuery, false);
+		assertEquals("[0];value2;3;1;\n[1];value2;3;2;\n", indexQuery.toCSV(indexFull, ";").toString());
+		assertEquals(indexQuery.toCSV(indexFull, ";").toString(), indexQuery.toCSV(indexProjected, ";").toString());
+
+		// Property names with slashes are several elements of the path
+		String slashes = "{\"disks\":[{\"name\":\"sda\",\"read/s\":5,\"I/O\":{\"wait\":2},\"x[1]\":3}]}";
+		CsvQuery slashQuery = CsvQuery.compile("/disks", "name", "read/s", "I/O/wait", "x[1]");
+		JFlat slashFull = new JFlat(slashes);
+		slashFull.parse();
+		assertEquals("/disks[0];sda;5;2;3;\n", slashQuery.toCSV(slashFull, ";").toString());
+		JFlat slashProjected = new JFlat(slashes);
+		slashProjected.parseStream(slashQuery, false);
+		assertEquals("/disks[0];sda;5;2;3;\n", slashQuery.toCSV(slashProjected, ";").toString());
+
+		// Syntax errors in the parts that are skipped are still reported
+		JFlat wrong = new JFlat("{\"skipped\":{\"a\":[1,2}, \"items\":[]}");
+		assertThrows(ParseException.class, () -> wrong.parseStream(CsvQuery.compile("/items", "id"), false));
+	}
+
 	@Test
 	void edgeCases() throws IllegalStateException, ParseException, IOException {
 		// parse() not done
@@ -74,6 +590,12 @@ public class JFlatTest {
 			simple.toCSV("/arrayB/id", null, null).toString()
 		);
 		assertEquals("", simple.toCSV("/nonexistent", null, null).toString());
+
+		// Entry keys are case insensitive
+		assertEquals(
+			"[0]/arrayA[0];\n[0]/arrayA[1];\n[0]/arrayA[2];\n[1]/arrayA[0];\n[1]/arrayA[1];\n[1]/arrayA[2];\n",
+			simple.toCSV("/ARRAYA", null, null).toString()
+		);
 	}
 
 	@Test
@@ -102,13 +624,161 @@ public class JFlatTest {
 		assertEquals("[0] {object} \n[1] {object} \n", simple.toCSV("/", new String[] { "." }, " ").toString());
 	}
 
+	@Test
+	void writeToAppendable() throws IllegalStateException, ParseException, IOException {
+		JFlat complex = new JFlat(getResourceAsString("/complex.json"));
+		complex.parse();
+
+		// Flat tree
+		StringWriter writer = new StringWriter();
+		complex.writeFlatTree(writer, "=", null);
+		assertEquals(getResourceAsString("/complex-flatMap.txt"), writer.toString());
+
+		writer = new StringWriter();
+		complex.writeFlatTree(writer, " -> ", "\\n");
+		assertEquals(complex.getFlatTree(" -> ", "\\n").toString(), writer.toString());
+
+		// CSV
+		String[] properties = new String[] { "./costumeName", "/rotationCenterX", "../objName" };
+		writer = new StringWriter();
+		complex.writeCSV(writer, "/children/costumes", properties, ",");
+		assertEquals(complex.toCSV("/children/costumes", properties, ",").toString(), writer.toString());
+		assertTrue(writer.toString().startsWith("/children[0]/costumes[0],costume1,0,Screen Effects,\n"));
+
+		// The properties specified by the caller are left untouched
+		assertArrayEquals(new String[] { "./costumeName", "/rotationCenterX", "../objName" }, properties);
+
+		// Records
+		JFlat simple = new JFlat(getResourceAsString("/simple.json"));
+		simple.parse();
+		List<String> records = new ArrayList<>();
+		simple.forEachCSVRecord(
+			"/arrayB",
+			new String[] { "id", "../attribute1", "non-existent" },
+			(key, values) -> records.add(key + "=" + Arrays.toString(values))
+		);
+		assertEquals(
+			Arrays.asList(
+				"[0]/arrayB[0]=[1, 1, ]",
+				"[0]/arrayB[1]=[2, 1, ]",
+				"[0]/arrayB[2]=[3, 1, ]",
+				"[1]/arrayB[0]=[1, 2, ]",
+				"[1]/arrayB[1]=[2, 2, ]",
+				"[1]/arrayB[2]=[3, 2, ]"
+			),
+			records
+		);
+
+		// Errors from the output are propagated
+		assertThrows(
+			IOException.class,
+			() ->
+				simple.forEachCSVRecord(
+					"/",
+					null,
+					(key, values) -> {
+						throw new IOException("Broken pipe");
+					}
+				)
+		);
+	}
+
+	@Test
+	void csvWithManyArrays() throws IllegalStateException, ParseException, IOException {
+		// One array in each entry (the time per array is measured by ArrayLookupBenchmark)
+		int arrayCount = 4000;
+		StringBuilder json = new StringBuilder("{\"items\":[");
+		for (int i = 0; i < arrayCount; i++) {
+			json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"values\":[").append(i).append("]}");
+		}
+		json.append("]}");
+		JFlat jFlat = new JFlat(json.toString());
+		jFlat.parse();
+
+		String csv = jFlat.toCSV("/items/values", new String[] { ".", "../id" }, null).toString();
+		assertEquals(arrayCount, csv.split("\n").length);
+		assertTrue(csv.startsWith("/items[0]/values[0];0;0;\n/items[1]/values[0];1;1;\n"));
+		assertTrue(csv.endsWith("/items[3999]/values[0];3999;3999;\n"));
+	}
+
+	@Test
+	void pathAllocations() throws IllegalStateException, ParseException, IOException {
+		assumeTrue(
+			ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+			"Allocated bytes are not measured by this JVM"
+		);
+
+		// Nested objects and arrays: {"id":0,"level0":[{"id":1,"level1":[...]}]}
+		int depth = 300;
+		StringBuilder json = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			json.append("{\"id\":").append(i).append(",\"level").append(i).append("\":[");
+		}
+		json.append('1');
+		for (int i = 0; i < depth; i++) {
+			json.append("]}");
+		}
+
+		// Size of a character in a string: 1 byte with compact strings (Java 9+), 2 bytes otherwise
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'a');
+		long start = allocatedBytes();
+		String sample = new String(chars);
+		long charSize = Math.max(1, (allocatedBytes() - start) / sample.length());
+
+		// Without the nodes, only the keys of the values and the paths of the arrays are stored: building
+		// the paths of the objects and arrays must not allocate anything else (it used to be 6 times more)
+		for (boolean stream : new boolean[] { false, true }) {
+			long pathLength = 0;
+			long allocated = Long.MAX_VALUE;
+			for (int run = 0; run < 5; run++) {
+				JFlat jFlat = new JFlat(json.toString());
+				start = allocatedBytes();
+				if (stream) {
+					jFlat.parseStream(true);
+				} else {
+					jFlat.parse(true);
+				}
+				allocated = Math.min(allocated, allocatedBytes() - start);
+
+				pathLength = 0;
+				for (Map.Entry<String, String> entry : jFlat.getMap()) {
+					pathLength += entry.getKey().length();
+				}
+				for (String path : jFlat.getArrays().getPaths()) {
+					pathLength += path.length();
+				}
+			}
+			assertTrue(
+				allocated < 2 * charSize * pathLength,
+				"Parsing allocated " +
+				allocated +
+				" bytes for " +
+				pathLength +
+				" characters of paths of " +
+				charSize +
+				" bytes (stream=" +
+				stream +
+				")"
+			);
+		}
+	}
+
+	/**
+	 * @return The number of bytes allocated so far by the current thread
+	 */
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
 	/**
 	 * Reads the specified resource file and returns its content as a String
 	 *
 	 * @param path Path to the resource file
 	 * @return The content of the resource file as a String
 	 */
-	private static String getResourceAsString(String path) {
+	static String getResourceAsString(String path) {
 		BufferedReader reader = new BufferedReader(new InputStreamReader(JFlatTest.class.getResourceAsStream(path)));
 		StringBuilder builder = new StringBuilder();
 		String l;
@@ -122,4 +792,85 @@ public class JFlatTest {
 
 		return builder.toString();
 	}
+
+	/**
+	 * Queries that produce records with each test fixture
+	 *
+	 * @param name simple, complex or large
+	 * @return The queries of the fixture
+	 */
+	private static CsvQuery[] getFixtureQueries(String name) {
+		switch (name) {
+			case "simple":
+				return new CsvQuery[] {
+					CsvQuery.compile("/arrayB", "id", "../attribute1", "."),
+					CsvQuery.compile("/", "attribute1", "lastAttribute", "arrayA[1]"),
+					CsvQuery.compile("/ARRAYA", ".")
+				};
+			case "complex":
+				return new CsvQuery[] {
+					CsvQuery.compile("/variables", "name", "value", "isPersistent"),
+					CsvQuery.compile("/children/costumes", "costumeName", "../objName", "../../objName"),
+					CsvQuery.compile("/LISTS", "listName", "contents", "x")
+				};
+			default:
+				return new CsvQuery[] {
+					CsvQuery.compile(
+						"/rpasState/rpasState/remoteRPAsConnectivityStatus",
+						"connectivityStatus",
+						"rpaUID/rpaNumber"
+					),
+					CsvQuery.compile(
+						"/groupsState/groupCopiesState",
+						"enabled",
+						"copyUID/groupUID/id",
+						"../groupUID/id"
+					),
+					CsvQuery.compile("/GROUPSSTATE", "groupUID/id", ".")
+				};
+		}
+	}
+
+	/**
+	 * Check that a test fixture has the same flat tree and the same records as when it is parsed by JFlat
+	 *
+	 * @param name simple, complex or large
+	 * @param expected The fixture parsed by JFlat
+	 * @param actual The fixture read in another way
+	 */
+	static void assertSameFixture(String name, JFlat expected, JFlat actual) {
+		assertEquals(expected.getFlatTree().toString(), actual.getFlatTree().toString(), name);
+		for (CsvQuery query : getFixtureQueries(name)) {
+			String csv = query.toCSV(expected, ",").toString();
+			assertFalse(csv.isEmpty(), query.toString());
+			assertEquals(csv, query.toCSV(actual, ",").toString(), query.toString());
+			assertEquals(
+				csv,
+				actual.toCSV(query.getEntryKey(), query.getProperties(), ",").toString(),
+				query.toString()
+			);
+		}
+	}
+
+	/**
+	 * Check that a test fixture has the same flat tree and the same records as when it is parsed by JFlat
+	 *
+	 * @param name simple, complex or large
+	 * @param expected The fixture parsed by JFlat
+	 * @param actual The snapshot of the fixture
+	 */
+	static void assertSameFixture(String name, JFlat expected, JFlatSnapshot actual) {
+		assertEquals(expected.getFlatTree().toString(), actual.getFlatTree().toString(), name);
+		assertEquals(expected.getMap().size(), actual.size(), name);
+		for (CsvQuery query : getFixtureQueries(name)) {
+			String csv = query.toCSV(expected, ",").toString();
+			assertFalse(csv.isEmpty(), query.toString());
+			assertEquals(csv, query.toCSV(actual, ",").toString(), query.toString());
+			assertEquals(
+				csv,
+				actual.toCSV(query.getEntryKey(), query.getProperties(), ",").toString(),
+				query.toString()
+			);
+		}
+	}
 }
@@ -0,0 +1,129 @@
+package org.metricshub.jflat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class PathQueryTest {
+
+	private static final String HOSTS =
+		"{\"hosts\":[" +
+		"{\"name\":\"a\",\"cpu\":{\"user\":1,\"System\":2,\"load\":[0.5,0.7]},\"tags\":[\"x\",\"y\",\"z\"]}," +
+		"{\"name\":\"b\",\"cpu\":{\"user\":3,\"idle\":4},\"tags\":[]}," +
+		"{\"name\":\"c\"}" +
+		"],\"count\":3}";
+
+	private static String select(JFlat jFlat, String expression) {
+		return jFlat
+			.select(expression)
+			.map(entry -> entry.getKey() + "=" + entry.getValue())
+			.collect(Collectors.joining(","));
+	}
+
+	@Test
+	void select() throws IllegalStateException, ParseException, IOException {
+		for (FlatStorage storage : FlatStorage.values()) {
+			JFlat jFlat = new JFlat(HOSTS);
+			jFlat.setStorage(storage);
+			jFlat.parse();
+
+			// Plain paths
+			assertEquals("/hosts[1]/name=b", select(jFlat, "/hosts[1]/name"));
+			assertEquals("/hosts[1]/name=b", select(jFlat, "HOSTS[1]/Name"));
+			assertEquals("/={object}", select(jFlat, "/"));
+			assertEquals("", select(jFlat, "/hosts[5]/name"));
+			assertEquals("", select(jFlat, "/nonexistent/*"));
+
+			// Arrays
+			assertEquals("/hosts[0]/name=a,/hosts[1]/name=b,/hosts[2]/name=c", select(jFlat, "/hosts[*]/name"));
+			assertEquals("/hosts[1]/name=b,/hosts[2]/name=c", select(jFlat, "/hosts[1:]/name"));
+			assertEquals("/hosts[0]/tags[1]=y", select(jFlat, "/hosts[:1]/tags[1:2]"));
+			assertEquals(
+				"/hosts[0]/tags[0]=x,/hosts[0]/tags[1]=y,/hosts[0]/tags[2]=z",
+				select(jFlat, "/hosts[*]/tags[*]")
+			);
+			assertEquals("", select(jFlat, "/count[*]"));
+
+			// Property names (in alphabetical order, with their original case)
+			assertEquals(
+				"/hosts[0]/cpu/load={array},/hosts[0]/cpu/System=2,/hosts[0]/cpu/user=1," +
+				"/hosts[1]/cpu/idle=4,/hosts[1]/cpu/user=3",
+				select(jFlat, "/hosts[*]/cpu/*")
+			);
+			assertEquals("/count=3,/hosts={array}", select(jFlat, "/*"));
+			assertEquals("/hosts[0]/cpu/load[0]=0.5,/hosts[0]/cpu/load[1]=0.7", select(jFlat, "/*[*]/*/*[*]"));
+			assertEquals("/hosts[0]/cpu/user=1,/hosts[1]/cpu/user=3", select(jFlat, "/*[*]/*/user"));
+		}
+	}
+
+	@Test
+	void rootArrayAndRemovedNodes() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat("[{\"a\":{\"b\":1}},{\"a\":{\"b\":2,\"c\":3}}]");
+		jFlat.parse(true);
+
+		assertEquals("[0]/a/b=1,[1]/a/b=2", select(jFlat, "[*]/a/b"));
+		assertEquals("[1]/a/c=3", select(jFlat, "/[1]/*/c"));
+
+		// Objects have no value, but their properties can still be reached through *
+		assertEquals("", select(jFlat, "[*]/*"));
+		assertEquals("[0]/a/b=1,[1]/a/b=2,[1]/a/c=3", select(jFlat, "[*]/*/*"));
+	}
+
+	@Test
+	void anyNameWithSimilarNames() throws IllegalStateException, ParseException, IOException {
+		// "a-b" and "a0" are sorted between the keys of "a" and those of its properties or entries
+		String json = "{\"a\":{\"x\":1,\"y\":[4]},\"a-b\":{\"x\":2},\"a0\":{\"x\":3},\"ab\":[{\"x\":5}],\"c\":[6]}";
+		for (boolean removeNodes : new boolean[] { false, true }) {
+			JFlat jFlat = new JFlat(json);
+			jFlat.parse(removeNodes);
+
+			String expected = removeNodes ? "/a-b/x=2,/a/x=1,/a0/x=3" : "/a/x=1,/a-b/x=2,/a0/x=3";
+			assertEquals(expected, select(jFlat, "/*/x"));
+			assertEquals("/ab[0]/x=5", select(jFlat, "/*[*]/x"));
+			assertEquals("/a/y[0]=4", select(jFlat, "/*/*[*]"));
+			assertEquals(removeNodes ? "/c[0]=6" : "/ab[0]={object},/c[0]=6", select(jFlat, "/*[0]"));
+			assertEquals(
+				removeNodes ? "" : "/a={object},/a-b={object},/a0={object},/ab={array},/c={array}",
+				select(jFlat, "/*")
+			);
+		}
+	}
+
+	@Test
+	void snapshotAndIterator() throws IllegalStateException, ParseException, IOException {
+		JFlat jFlat = new JFlat(HOSTS);
+		jFlat.parse();
+		JFlatSnapshot snapshot = jFlat.snapshot();
+
+		PathQuery query = PathQuery.compile("/hosts[*]/cpu/user");
+		assertEquals(2, query.stream(snapshot).count());
+		assertEquals(
+			"3",
+			snapshot.select("/hosts[1]/cpu/*").filter(e -> e.getKey().endsWith("user")).findFirst().get().getValue()
+		);
+
+		Iterator<Entry<String, String>> iterator = query.iterator(jFlat);
+		assertEquals("/hosts[0]/cpu/user", iterator.next().getKey());
+		assertEquals("/hosts[1]/cpu/user", iterator.next().getKey());
+		assertEquals(false, iterator.hasNext());
+
+		assertThrows(IllegalStateException.class, () -> query.iterator(new JFlat("{}")));
+	}
+
+	@Test
+	void compile() {
+		assertEquals("/hosts[*]/cpu/*", PathQuery.compile("/hosts[*]/cpu/*").toString());
+		assertThrows(IllegalArgumentException.class, () -> PathQuery.compile(null));
+		assertThrows(IllegalArgumentException.class, () -> PathQuery.compile("/hosts[*"));
+		assertThrows(IllegalArgumentException.class, () -> PathQuery.compile("/hosts[x]"));
+		assertThrows(IllegalArgumentException.class, () -> PathQuery.compile("/hosts[-1]"));
+		assertThrows(IllegalArgumentException.class, () -> PathQuery.compile("/hosts[0]x"));
+		assertThrows(IllegalArgumentException.class, () -> PathQuery.compile("/hosts//name"));
+	}
+}